@@ -0,0 +1,118 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Debug-only arguments of "adb shell dumpsys activity com.example.android.quakereport":
+ * "benchmark" starts a {@link HotPathBenchmark} run, "replay" switches to recorded responses
+ * (see {@link #replayFrom}), "server=http://host:port" sends every USGS request to a stub
+ * server such as the one in the unit tests' ReplayServer, and "live" goes back to the network.
+ * Release builds ship a version of this class that ignores every argument.
+ */
+final class DebugCommands {
+
+    /** Requests starting with this are sent to the stub server instead */
+    private static final String USGS_BASE_URL = "https://earthquake.usgs.gov";
+
+    private DebugCommands() {
+    }
+
+    static void run(Context context, String prefix, PrintWriter writer, List<String> arguments) {
+        if (arguments.contains("benchmark")) {
+            writer.print(prefix);
+            writer.println(HotPathBenchmark.start(context)
+                    ? "Benchmark started, results are logged under HotPathBenchmark"
+                    : "Benchmark already running");
+        }
+        String server = valueOf(arguments, "server");
+        if (arguments.contains("replay")) {
+            File directory = context.getExternalFilesDir("replay");
+            if (directory == null) {
+                directory = new File(context.getFilesDir(), "replay");
+            }
+            QueryUtils.setTransport(replayFrom(directory, arguments));
+            writer.print(prefix);
+            writer.println("Replaying recordings from " + directory);
+        } else if (server != null) {
+            QueryUtils.setTransport(new RedirectTransport(server, new UrlConnectionTransport()));
+            writer.print(prefix);
+            writer.println("Loading from " + server);
+        } else if (arguments.contains("live")) {
+            QueryUtils.setTransport(new UrlConnectionTransport());
+            writer.print(prefix);
+            writer.println("Loading from the network");
+        }
+    }
+
+    /**
+     * Build a {@link ReplayTransport} for the recordings in directory, injecting what the
+     * arguments ask for: "latency=ms", "bandwidth=bytes per second", "error=response code"
+     * and "every=n" to fail every nth request.
+     */
+    private static ReplayTransport replayFrom(File directory, List<String> arguments) {
+        ReplayTransport.Builder builder = new ReplayTransport.Builder(directory);
+        int errorCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        int errorEvery = 0;
+        for (String argument : arguments) {
+            int separator = argument.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = argument.substring(0, separator);
+            long value;
+            try {
+                value = Long.parseLong(argument.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if ("latency".equals(name)) {
+                builder.setLatencyMillis(value);
+            } else if ("bandwidth".equals(name)) {
+                builder.setBandwidth(value);
+            } else if ("error".equals(name)) {
+                errorCode = (int) value;
+            } else if ("every".equals(name)) {
+                errorEvery = (int) value;
+            }
+        }
+        return builder.setErrors(errorCode, errorEvery).build();
+    }
+
+    /** Return the value of the "name=value" argument, or null if there is none */
+    private static String valueOf(List<String> arguments, String name) {
+        for (String argument : arguments) {
+            if (argument.startsWith(name + "=")) {
+                return argument.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /** {@link HttpTransport} sending the requests made to USGS to another server instead */
+    private static class RedirectTransport implements HttpTransport {
+
+        private final String mBaseUrl;
+        private final HttpTransport mTransport;
+
+        RedirectTransport(String baseUrl, HttpTransport transport) {
+            mBaseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1)
+                    : baseUrl;
+            mTransport = transport;
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers) throws IOException {
+            if (url.startsWith(USGS_BASE_URL)) {
+                url = mBaseUrl + url.substring(USGS_BASE_URL.length());
+            }
+            return mTransport.get(url, headers);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Micro benchmarks of the fetch, parse and bind hot path, run on the device itself since the
+ * parsers and formatters depend on the Android framework. Each case runs against generated
+ * USGS GeoJSON documents of 10, 1k, 20k and 100k events and reports its throughput in events
+ * per second and its allocation rate, snapshotDecode being the cached page load that replaces
+ * streamParse. Sizes that won't fit the heap are skipped. The spatial cases instead count
+ * queries against an {@link EarthquakeSpatialIndex} of those events, each next to the scan of
+ * every event it replaces.
+ *
+ * Start a run with "adb shell dumpsys activity com.example.android.quakereport benchmark",
+ * results are logged under this class name as each case completes.
+ */
+final class HotPathBenchmark {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = HotPathBenchmark.class.getSimpleName();
+
+    /** Number of events in each generated document */
+    static final int[] EVENT_COUNTS = {10, 1000, 20000, 100000};
+
+    /** Points each spatial case queries around in one run */
+    private static final int QUERIES = 100;
+
+    /** Each case repeats for at least this long after one warm-up run */
+    private static final long MEASURE_NANOS = 1000L * 1000 * 1000;
+
+    //Approximate size of one generated event
+    private static final int BYTES_PER_EVENT = 700;
+
+    //Room left for the document's String copy and its parsed events, per document byte
+    private static final int HEAP_BYTES_PER_DOCUMENT_BYTE = 6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Written by every case so the work it does can't be optimized away
+    private static volatile long sSink;
+
+    private static boolean sRunning;
+
+    private HotPathBenchmark() {
+    }
+
+    /** Run every case on a background thread, returns false if a run is already going */
+    static synchronized boolean start(Context context) {
+        if (sRunning) {
+            return false;
+        }
+        sRunning = true;
+        final Context appContext = context.getApplicationContext();
+        new Thread("HotPathBenchmark") {
+            @Override
+            public void run() {
+                try {
+                    runAll(appContext);
+                } finally {
+                    synchronized (HotPathBenchmark.class) {
+                        sRunning = false;
+                    }
+                }
+            }
+        }.start();
+        return true;
+    }
+
+    private static void runAll(Context context) {
+        Log.i(LOG_TAG, String.format(Locale.US, "%-20s %8s %14s %12s %14s",
+                "case", "events", "events/s", "alloc MB/s", "alloc B/event"));
+        Log.i(LOG_TAG, "Spatial cases count queries instead of events");
+        EarthquakeRowFormatter formatter = new EarthquakeRowFormatter(context);
+        for (int count : EVENT_COUNTS) {
+            long documentBytes = (long) count * BYTES_PER_EVENT;
+            if (documentBytes * HEAP_BYTES_PER_DOCUMENT_BYTE > Runtime.getRuntime().maxMemory()) {
+                Log.i(LOG_TAG, count + " events skipped, the heap is too small");
+                continue;
+            }
+            try {
+                runSize(count, formatter);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Benchmark of " + count + " events failed", e);
+            }
+        }
+    }
+
+    private static void runSize(int count, final EarthquakeRowFormatter formatter)
+            throws IOException {
+        final byte[] document = generateDocument(count);
+        final String json = new String(document, UTF_8);
+        final List<Earthquake> earthquakes = EarthquakeStreamParser.parse(
+                new ByteArrayInputStream(document));
+        final byte[] snapshot = EarthquakeSnapshot.encode(earthquakes);
+
+        measure("readFromStream", count, new Case() {
+            @Override
+            long run() throws IOException {
+                return QueryUtils.readFromStream(new ByteArrayInputStream(document)).length();
+            }
+        });
+        measure("extractFeature", count, new Case() {
+            @Override
+            long run() {
+                return QueryUtils.extractFeatureFromJson(json).size();
+            }
+        });
+        measure("streamParse", count, new Case() {
+            @Override
+            long run() throws IOException {
+                return EarthquakeStreamParser.parse(new ByteArrayInputStream(document)).size();
+            }
+        });
+        //Loading a cached page from its snapshot instead of re-parsing the response
+        measure("snapshotDecode", count, new Case() {
+            @Override
+            long run() {
+                return EarthquakeSnapshot.decode(snapshot, 0, snapshot.length).size();
+            }
+        });
+        measure("snapshotEncode", count, new Case() {
+            @Override
+            long run() {
+                return EarthquakeSnapshot.encode(earthquakes).length;
+            }
+        });
+        measure("newEarthquake", count, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (int i = 0; i < earthquakes.size(); i++) {
+                    Earthquake e = earthquakes.get(i);
+                    sum += new Earthquake(e.getId(), e.getMagnitude(), e.getLocation(),
+                            e.getTimeInMilliseconds(), e.getUpdatedInMilliseconds(), e.getUrl(),
+                            e.getLatitude(), e.getLongitude(), e.getDepth())
+                            .getTimeInMilliseconds();
+                }
+                return sum;
+            }
+        });
+        //Splits the location and formats date, time and magnitude for every row
+        measure("formatRows", count, new Case() {
+            @Override
+            long run() {
+                return formatter.format(earthquakes).size();
+            }
+        });
+        measure("magnitudeColor", count, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (int i = 0; i < earthquakes.size(); i++) {
+                    sum += formatter.getMagnitudeColor(earthquakes.get(i).getMagnitude());
+                }
+                return sum;
+            }
+        });
+        runSpatial(earthquakes);
+    }
+
+    /**
+     * Time a 1000 km radius, a 10 by 10 degree viewport and the 10 nearest events around random
+     * points, through the index and by scanning every event
+     */
+    private static void runSpatial(final List<Earthquake> earthquakes) throws IOException {
+        final EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        measure("spatialBuild", earthquakes.size(), new Case() {
+            @Override
+            long run() {
+                index.clear();
+                index.putAll(earthquakes);
+                return index.size();
+            }
+        });
+        Random random = new Random(4);
+        final double[][] points = new double[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            double east = longitude + 10 > 180 ? longitude - 350 : longitude + 10;
+            points[i] = new double[]{latitude, longitude, east};
+        }
+        int count = earthquakes.size();
+        measure("radiusIndex", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (double[] point : points) {
+                    sum += index.queryRadius(point[0], point[1], 1000).size();
+                }
+                return sum;
+            }
+        });
+        measure("radiusScan", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (double[] point : points) {
+                    for (int i = 0; i < earthquakes.size(); i++) {
+                        Earthquake e = earthquakes.get(i);
+                        if (EarthquakeSpatialIndex.distanceKm(point[0], point[1],
+                                e.getLatitude(), e.getLongitude()) <= 1000) {
+                            sum++;
+                        }
+                    }
+                }
+                return sum;
+            }
+        });
+        measure("viewportIndex", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (double[] point : points) {
+                    sum += index.queryBoundingBox(point[0], point[0] + 10, point[1], point[2])
+                            .size();
+                }
+                return sum;
+            }
+        });
+        measure("viewportScan", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (double[] point : points) {
+                    for (int i = 0; i < earthquakes.size(); i++) {
+                        Earthquake e = earthquakes.get(i);
+                        double longitude = e.getLongitude();
+                        boolean inLongitudes = point[1] > point[2]
+                                ? longitude >= point[1] || longitude <= point[2]
+                                : longitude >= point[1] && longitude <= point[2];
+                        if (inLongitudes && e.getLatitude() >= point[0]
+                                && e.getLatitude() <= point[0] + 10) {
+                            sum++;
+                        }
+                    }
+                }
+                return sum;
+            }
+        });
+        measure("nearestIndex", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                long sum = 0;
+                for (double[] point : points) {
+                    sum += index.nearest(point[0], point[1], 10).size();
+                }
+                return sum;
+            }
+        });
+        //Keeps the 10 smallest distances sorted, so only the scan itself grows with the events
+        measure("nearestScan", count, QUERIES, new Case() {
+            @Override
+            long run() {
+                double[] nearest = new double[10];
+                long sum = 0;
+                for (double[] point : points) {
+                    int held = 0;
+                    for (int i = 0; i < earthquakes.size(); i++) {
+                        Earthquake e = earthquakes.get(i);
+                        double distance = EarthquakeSpatialIndex.distanceKm(point[0], point[1],
+                                e.getLatitude(), e.getLongitude());
+                        if (held == nearest.length && distance >= nearest[held - 1]) {
+                            continue;
+                        }
+                        int position = held < nearest.length ? held++ : held - 1;
+                        while (position > 0 && nearest[position - 1] > distance) {
+                            nearest[position] = nearest[position - 1];
+                            position--;
+                        }
+                        nearest[position] = distance;
+                    }
+                    sum += held;
+                }
+                return sum;
+            }
+        });
+    }
+
+    private static void measure(String name, int count, Case benchmarkCase) throws IOException {
+        measure(name, count, count, benchmarkCase);
+    }
+
+    /**
+     * Run a case for {@link #MEASURE_NANOS} and log its rate of operations, the events of its
+     * document or the queries it makes, and what it allocates per operation
+     */
+    @SuppressWarnings("deprecation")
+    private static void measure(String name, int count, int operations, Case benchmarkCase)
+            throws IOException {
+        sSink += benchmarkCase.run();
+        //Thread allocation counting is deprecated but still the only per-thread figure
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        long runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sSink += benchmarkCase.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        long allocated = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        double seconds = elapsed / 1e9;
+        long total = runs * operations;
+        Log.i(LOG_TAG, String.format(Locale.US, "%-20s %8d %14.0f %12.1f %14.1f",
+                name, count, total / seconds, allocated / seconds / (1024 * 1024),
+                (double) allocated / total));
+    }
+
+    /**
+     * Generate a document shaped like a USGS query response, with every property USGS sends so
+     * the parsers skip as much as they do on real responses. Events are the same for every run.
+     */
+    static byte[] generateDocument(int count) {
+        String[] places = {"85 km SSW of Tobelo, Indonesia", "Fiji region",
+                "12 km NE of Ridgecrest, CA", "South Sandwich Islands region",
+                "3 km W of Volcano, Hawaii"};
+        Random random = new Random(42);
+        long time = 1500000000000L;
+        StringBuilder json = new StringBuilder(count * BYTES_PER_EVENT + 256);
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":")
+                .append(time)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query\"")
+                .append(",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.8\",")
+                .append("\"count\":").append(count).append("},\"features\":[");
+        for (int i = 0; i < count; i++) {
+            String code = "bm" + i;
+            String place = places[random.nextInt(places.length)];
+            double magnitude = Math.round(random.nextDouble() * 80) / 10.0;
+            time -= random.nextInt(600000);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(place)
+                    .append("\",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + 60000)
+                    .append(",\"tz\":null,\"url\":\"https://earthquake.usgs.gov/earthquakes/")
+                    .append("eventpage/").append(code)
+                    .append("\",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query")
+                    .append("?eventid=").append(code).append("&format=geojson\"")
+                    .append(",\"felt\":null,\"cdi\":null,\"mmi\":null,\"alert\":null")
+                    .append(",\"status\":\"reviewed\",\"tsunami\":0,\"sig\":")
+                    .append(random.nextInt(1000)).append(",\"net\":\"us\",\"code\":\"")
+                    .append(code).append("\",\"ids\":\",").append(code)
+                    .append(",\",\"sources\":\",us,\",\"types\":\",geoserve,origin,")
+                    .append("phase-data,\",\"nst\":null,\"dmin\":1.2,\"rms\":0.9,\"gap\":50")
+                    .append(",\"magType\":\"mb\",\"type\":\"earthquake\",\"title\":\"M ")
+                    .append(magnitude).append(" - ").append(place)
+                    .append("\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(random.nextDouble() * 360 - 180).append(',')
+                    .append(random.nextDouble() * 180 - 90).append(',')
+                    .append(random.nextDouble() * 100).append("]},\"id\":\"")
+                    .append(code).append("\"}");
+        }
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /** One benchmarked operation, returns a value derived from its result */
+    private abstract static class Case {
+        abstract long run() throws IOException;
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpTransport} answering every request from recorded USGS GeoJSON responses instead of
+ * the network, so load times, memory and jank can be measured reproducibly. Every ".geojson"
+ * and ".json" file in a directory is read once, on the first request, and its events are
+ * served as if the server held exactly those events.
+ *
+ * Requests are answered like the USGS query endpoint answers them: "minmag" or "minmagnitude",
+ * "maxmagnitude", "starttime", "endtime", "updatedafter", bounding box and radius parameters
+ * filter the events, "orderby" sorts them, and "limit" and "offset" page them. Each response
+ * carries an ETag, so conditional requests are answered 304 when nothing changed.
+ *
+ * Latency, limited bandwidth and error responses can be injected, see {@link Builder}. Install
+ * with {@link QueryUtils#setTransport(HttpTransport)}, and clear the {@link EarthquakeCache}
+ * first if the recordings should be fetched rather than served from earlier responses.
+ */
+public class ReplayTransport implements HttpTransport {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = ReplayTransport.class.getSimpleName();
+
+    /** Events per page when a request doesn't set "limit", the USGS maximum */
+    private static final int DEFAULT_LIMIT = 20000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+    private final int mErrorCode;
+    private final int mErrorEvery;
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    //Recorded events by id, read on the first request
+    private List<RecordedEvent> mEvents;
+
+    private ReplayTransport(Builder builder) {
+        mDirectory = builder.mDirectory;
+        mLatencyMillis = builder.mLatencyMillis;
+        mBytesPerSecond = builder.mBytesPerSecond;
+        mErrorCode = builder.mErrorCode;
+        mErrorEvery = builder.mErrorEvery;
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        List<RecordedEvent> events = getEvents();
+        sleep(mLatencyMillis);
+        int request = mRequests.incrementAndGet();
+        if (mErrorEvery > 0 && request % mErrorEvery == 0) {
+            return new ReplayResponse(mErrorCode, null, new byte[0]);
+        }
+
+        byte[] body = answer(Uri.parse(url), events);
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        if (headers != null && eTag.equals(headers.get("If-None-Match"))) {
+            return new ReplayResponse(HttpURLConnection.HTTP_NOT_MODIFIED, eTag, new byte[0]);
+        }
+        return new ReplayResponse(HttpURLConnection.HTTP_OK, eTag, body);
+    }
+
+    /** Filter, sort and page the recorded events the way USGS answers the query */
+    private static byte[] answer(Uri uri, List<RecordedEvent> events) {
+        double minMagnitude = parseDouble(firstParameter(uri, "minmag", "minmagnitude"),
+                Double.NEGATIVE_INFINITY);
+        double maxMagnitude = parseDouble(uri.getQueryParameter("maxmagnitude"),
+                Double.POSITIVE_INFINITY);
+        long startTime = EarthquakeDeltaSync.parseUsgsTime(
+                uri.getQueryParameter("starttime"), Long.MIN_VALUE);
+        long endTime = EarthquakeDeltaSync.parseUsgsTime(
+                uri.getQueryParameter("endtime"), Long.MAX_VALUE);
+        long updatedAfter = EarthquakeDeltaSync.parseUsgsTime(
+                uri.getQueryParameter("updatedafter"), Long.MIN_VALUE);
+        double minLatitude = parseDouble(uri.getQueryParameter("minlatitude"), -90);
+        double maxLatitude = parseDouble(uri.getQueryParameter("maxlatitude"), 90);
+        double minLongitude = parseDouble(uri.getQueryParameter("minlongitude"), -180);
+        double maxLongitude = parseDouble(uri.getQueryParameter("maxlongitude"), 180);
+        double latitude = parseDouble(uri.getQueryParameter("latitude"), Double.NaN);
+        double longitude = parseDouble(uri.getQueryParameter("longitude"), Double.NaN);
+        double maxRadiusKm = parseDouble(uri.getQueryParameter("maxradiuskm"), Double.NaN);
+        boolean spatial = uri.getQueryParameter("minlatitude") != null
+                || uri.getQueryParameter("minlongitude") != null
+                || uri.getQueryParameter("maxlatitude") != null
+                || uri.getQueryParameter("maxlongitude") != null;
+
+        List<RecordedEvent> matches = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            Earthquake earthquake = event.mEarthquake;
+            double eventLatitude = earthquake.getLatitude();
+            double eventLongitude = earthquake.getLongitude();
+            if (earthquake.getMagnitude() < minMagnitude
+                    || earthquake.getMagnitude() > maxMagnitude
+                    || earthquake.getTimeInMilliseconds() < startTime
+                    || earthquake.getTimeInMilliseconds() > endTime
+                    || earthquake.getUpdatedInMilliseconds() <= updatedAfter) {
+                continue;
+            }
+            if (spatial && (Double.isNaN(eventLatitude) || eventLatitude < minLatitude
+                    || eventLatitude > maxLatitude || eventLongitude < minLongitude
+                    || eventLongitude > maxLongitude)) {
+                continue;
+            }
+            if (!Double.isNaN(maxRadiusKm) && (Double.isNaN(eventLatitude)
+                    || EarthquakeSpatialIndex.distanceKm(latitude, longitude, eventLatitude,
+                            eventLongitude) > maxRadiusKm)) {
+                continue;
+            }
+            matches.add(event);
+        }
+
+        final Comparator<Earthquake> order =
+                EarthquakeDeltaSync.comparatorFor(uri.getQueryParameter("orderby"));
+        Collections.sort(matches, new Comparator<RecordedEvent>() {
+            @Override
+            public int compare(RecordedEvent a, RecordedEvent b) {
+                return order.compare(a.mEarthquake, b.mEarthquake);
+            }
+        });
+
+        //USGS "offset" is 1-based
+        int offset = Math.max(1, (int) parseDouble(uri.getQueryParameter("offset"), 1)) - 1;
+        int limit = (int) parseDouble(uri.getQueryParameter("limit"), DEFAULT_LIMIT);
+        int end = (int) Math.min(matches.size(), (long) offset + limit);
+        List<RecordedEvent> page = offset < end
+                ? matches.subList(offset, end) : Collections.<RecordedEvent>emptyList();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"status\":200,\"count\":")
+                .append(page.size()).append("},\"features\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(page.get(i).mFeature);
+        }
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /** Read every recording once, keeping the latest update of each event */
+    private synchronized List<RecordedEvent> getEvents() throws IOException {
+        if (mEvents != null) {
+            return mEvents;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            throw new IOException("No recordings in " + mDirectory);
+        }
+        Map<String, RecordedEvent> eventsByKey = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".geojson") && !name.endsWith(".json")) {
+                continue;
+            }
+            try {
+                JSONArray features = new JSONObject(readFile(file)).getJSONArray("features");
+                for (int i = 0; i < features.length(); i++) {
+                    JSONObject feature = features.getJSONObject(i);
+                    Earthquake earthquake = QueryUtils.extractFeature(feature);
+                    String key = earthquake.getId() != null
+                            ? earthquake.getId() : earthquake.getUrl();
+                    RecordedEvent held = eventsByKey.get(key);
+                    if (held == null || held.mEarthquake.getUpdatedInMilliseconds()
+                            < earthquake.getUpdatedInMilliseconds()) {
+                        eventsByKey.put(key, new RecordedEvent(earthquake, feature.toString()));
+                    }
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Problem reading recording " + file, e);
+            }
+        }
+        mEvents = new ArrayList<>(eventsByKey.values());
+        return mEvents;
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return QueryUtils.readFromStream(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String firstParameter(Uri uri, String name, String alternateName) {
+        String value = uri.getQueryParameter(name);
+        return value != null ? value : uri.getQueryParameter(alternateName);
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying");
+        }
+    }
+
+    /** One recorded event, parsed for filtering and kept as JSON for serving */
+    private static class RecordedEvent {
+        final Earthquake mEarthquake;
+        final String mFeature;
+
+        RecordedEvent(Earthquake earthquake, String feature) {
+            mEarthquake = earthquake;
+            mFeature = feature;
+        }
+    }
+
+    private class ReplayResponse implements Response {
+        private final int mResponseCode;
+        private final String mETag;
+        private final byte[] mBody;
+        private LoadMetrics.MeteredInputStream mMeteredBody;
+
+        ReplayResponse(int responseCode, String eTag, byte[] body) {
+            mResponseCode = responseCode;
+            mETag = eTag;
+            mBody = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return "ETag".equalsIgnoreCase(name) ? mETag : null;
+        }
+
+        @Override
+        public InputStream getBody() {
+            InputStream body = new ByteArrayInputStream(mBody);
+            if (mBytesPerSecond > 0) {
+                body = new ThrottledInputStream(body, mBytesPerSecond);
+            }
+            //Counted like bytes off the wire, so metrics compare with live loads
+            mMeteredBody = new LoadMetrics.MeteredInputStream(body);
+            return mMeteredBody;
+        }
+
+        @Override
+        public void close() {
+            abort();
+        }
+
+        @Override
+        public void abort() {
+            if (mMeteredBody != null) {
+                LoadMetrics.addBytesReceived(mMeteredBody.getBytesRead());
+                mMeteredBody = null;
+            }
+        }
+    }
+
+    /** Delays reads so no more than the given number of bytes arrive per second */
+    private static class ThrottledInputStream extends FilterInputStream {
+        //Reads are cut into chunks of at most this many bytes so arrival stays smooth
+        private static final int MAX_CHUNK_BYTES = 8192;
+
+        private final long mBytesPerSecond;
+        private final long mStartNanos = System.nanoTime();
+        private long mBytesRead;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, Math.min(length, MAX_CHUNK_BYTES));
+            if (read > 0) {
+                mBytesRead += read;
+                long dueMillis = mBytesRead * 1000 / mBytesPerSecond;
+                long elapsedMillis = (System.nanoTime() - mStartNanos) / 1000000;
+                sleep(dueMillis - elapsedMillis);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(count, MAX_CHUNK_BYTES)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+    }
+
+    /** Builds a {@link ReplayTransport}, nothing is injected unless set */
+    public static final class Builder {
+        private final File mDirectory;
+        private long mLatencyMillis;
+        private long mBytesPerSecond;
+        private int mErrorCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        private int mErrorEvery;
+
+        /** Replay the recordings in this directory */
+        public Builder(File directory) {
+            mDirectory = directory;
+        }
+
+        /** Wait this long before answering each request, like time to first byte */
+        public Builder setLatencyMillis(long latencyMillis) {
+            mLatencyMillis = latencyMillis;
+            return this;
+        }
+
+        /** Limit the rate response bodies are read at, 0 for no limit */
+        public Builder setBandwidth(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /** Answer every nth request with an error code and no events, 0 to never fail */
+        public Builder setErrors(int responseCode, int every) {
+            mErrorCode = responseCode;
+            mErrorEvery = every;
+            return this;
+        }
+
+        public ReplayTransport build() {
+            return new ReplayTransport(this);
+        }
+    }
+}
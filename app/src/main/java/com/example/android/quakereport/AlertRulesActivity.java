@@ -0,0 +1,139 @@
+package com.example.android.quakereport;
+
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.text.DecimalFormat;
+import java.util.List;
+
+/**
+ * Screen listing the user's {@link EarthquakeAlertRule}s, where rules are added and deleted.
+ * Every change is saved with {@link EarthquakeAlertService#setRules}, which starts polling with
+ * the first rule and stops it when the last one is deleted.
+ */
+public class AlertRulesActivity extends AppCompatActivity {
+
+    private final DecimalFormat mNumberFormat = new DecimalFormat("0.##");
+
+    private ArrayAdapter<EarthquakeAlertRule> mAdapter;
+    private List<EarthquakeAlertRule> mRules;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.alert_rules_activity);
+
+        mRules = EarthquakeAlertService.getRules(this);
+        //Name on the first line, what the rule matches on the second
+        mAdapter = new ArrayAdapter<EarthquakeAlertRule>(this,
+                android.R.layout.simple_list_item_2, android.R.id.text1, mRules) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                View view = super.getView(position, convertView, parent);
+                EarthquakeAlertRule rule = getItem(position);
+                ((TextView) view.findViewById(android.R.id.text1)).setText(rule.getName());
+                ((TextView) view.findViewById(android.R.id.text2)).setText(describe(rule));
+                return view;
+            }
+        };
+        ListView listView = (ListView) findViewById(R.id.alert_rules_list);
+        listView.setEmptyView(findViewById(R.id.alert_rules_empty));
+        listView.setAdapter(mAdapter);
+        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmDelete(mAdapter.getItem(position));
+            }
+        });
+
+        findViewById(R.id.alert_rules_add).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showAddDialog();
+            }
+        });
+    }
+
+    /** Ask for a new rule's name, threshold and optional radius, and add it */
+    private void showAddDialog() {
+        final View form = getLayoutInflater().inflate(R.layout.alert_rule_dialog, null);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.alert_rules_add)
+                .setView(form)
+                .setPositiveButton(R.string.alert_rules_add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        EarthquakeAlertRule rule = EarthquakeAlertRule.fromInput(
+                                textOf(form, R.id.alert_rule_name),
+                                textOf(form, R.id.alert_rule_min_magnitude),
+                                textOf(form, R.id.alert_rule_latitude),
+                                textOf(form, R.id.alert_rule_longitude),
+                                textOf(form, R.id.alert_rule_radius));
+                        if (rule == null) {
+                            Toast.makeText(AlertRulesActivity.this, R.string.alert_rules_invalid,
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        mAdapter.add(rule);
+                        save();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void confirmDelete(final EarthquakeAlertRule rule) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.alert_rules_delete, rule.getName()))
+                .setPositiveButton(R.string.alert_rules_delete_button,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                mAdapter.remove(rule);
+                                save();
+                            }
+                        })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /** Store the rules, which also starts or stops polling */
+    private void save() {
+        EarthquakeAlertService.setRules(this, mRules);
+    }
+
+    /** Return what a rule matches, e.g. "M 5+ within 100 km of 35.68, 139.69" */
+    private String describe(EarthquakeAlertRule rule) {
+        StringBuilder parts = new StringBuilder();
+        if (!Double.isInfinite(rule.getMinMagnitude())) {
+            parts.append(getString(R.string.alert_rule_min_magnitude,
+                    mNumberFormat.format(rule.getMinMagnitude())));
+        } else {
+            parts.append(getString(R.string.alert_rule_any_magnitude));
+        }
+        if (!Double.isNaN(rule.getRadiusKm())) {
+            parts.append(' ').append(getString(R.string.alert_rule_radius,
+                    mNumberFormat.format(rule.getRadiusKm()),
+                    mNumberFormat.format(rule.getLatitude()),
+                    mNumberFormat.format(rule.getLongitude())));
+        }
+        if (rule.hasRegion()) {
+            parts.append(' ').append(getString(R.string.alert_rule_region));
+        }
+        return parts.toString();
+    }
+
+    private static String textOf(View form, int id) {
+        return ((EditText) form.findViewById(id)).getText().toString();
+    }
+}
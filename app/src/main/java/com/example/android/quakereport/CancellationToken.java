@@ -0,0 +1,65 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Lets the owner of a request stop it from another thread. {@link QueryUtils} checks the token
+ * before sending a request and on every read of the response body, so a canceled request stops
+ * downloading and parsing within one buffer of the cancel instead of running to completion.
+ */
+public class CancellationToken {
+
+    private volatile boolean mCanceled;
+
+    /** Ask whatever is running under this token to stop, it may still return a partial result */
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /** Throw an {@link InterruptedIOException} if canceled */
+    public void throwIfCanceled() throws InterruptedIOException {
+        if (isCanceled()) {
+            throw new InterruptedIOException("Request canceled");
+        }
+    }
+
+    /** Return true if the token is set and canceled, a null token is never canceled */
+    static boolean isCanceled(CancellationToken token) {
+        return token != null && token.isCanceled();
+    }
+
+    /** Wraps a response body so reading it fails once the token is canceled */
+    static class CancelableInputStream extends FilterInputStream {
+        private final CancellationToken mToken;
+
+        CancelableInputStream(InputStream in, CancellationToken token) {
+            super(in);
+            mToken = token;
+        }
+
+        @Override
+        public int read() throws IOException {
+            mToken.throwIfCanceled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            mToken.throwIfCanceled();
+            return super.read(buffer, offset, length);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            mToken.throwIfCanceled();
+            return super.skip(count);
+        }
+    }
+}
@@ -6,12 +6,18 @@ public class Earthquake {
     private String mLocation;
     //Magnitude Details to display to list segment
     private double mMagnitude;
-    //Date of Event to display to list segment
-    private String mDate;
     //Time of event to display to list segment
     private long mTimeInMilliseconds;
     //url of USGS page pertaining to event
     private String mUrl;
+    //USGS event id, stable across updates to the same event
+    private String mId;
+    //Time the event was last updated by USGS
+    private long mUpdatedInMilliseconds;
+    //Epicenter in degrees and depth in kilometers, NaN if unknown
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
 
     /**
      * Create new Earthquake List Object
@@ -21,11 +27,51 @@ public class Earthquake {
      * @param magnitude is the event magnitude for this list segment
      * @param url is the url for event's corresponding USGS page
      */
-    public Earthquake(double magnitude, String location, Long timeInMilliseconds, String url) {
+    public Earthquake(double magnitude, String location, long timeInMilliseconds, String url) {
+        this(null, magnitude, location, timeInMilliseconds, timeInMilliseconds, url);
+    }
+
+    /**
+     * Create new Earthquake List Object carrying its USGS id and last update time
+     *
+     * @param id is the USGS event id
+     * @param magnitude is the event magnitude for this list segment
+     * @param location  is the event location for this list segment
+     * @param timeInMilliseconds is the date of event for this list segment
+     * @param updatedInMilliseconds is the time USGS last updated this event
+     * @param url is the url for event's corresponding USGS page
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String url) {
+        this(id, magnitude, location, timeInMilliseconds, updatedInMilliseconds, url,
+                Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Create new Earthquake List Object carrying its USGS id, last update time and hypocenter
+     *
+     * @param id is the USGS event id
+     * @param magnitude is the event magnitude for this list segment
+     * @param location  is the event location for this list segment
+     * @param timeInMilliseconds is the date of event for this list segment
+     * @param updatedInMilliseconds is the time USGS last updated this event
+     * @param url is the url for event's corresponding USGS page
+     * @param latitude is the epicenter latitude in degrees
+     * @param longitude is the epicenter longitude in degrees
+     * @param depth is the hypocenter depth in kilometers
+     */
+    public Earthquake(String id, double magnitude, String location, long timeInMilliseconds,
+                      long updatedInMilliseconds, String url, double latitude, double longitude,
+                      double depth) {
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mTimeInMilliseconds = timeInMilliseconds;
+        mUpdatedInMilliseconds = updatedInMilliseconds;
         mUrl = url;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
     }
 
     /**
@@ -43,12 +89,32 @@ public class Earthquake {
     /**
      * get and return Event Time from Earthquake JSON Object
      */
-    public Long getTimeInMilliseconds() {
+    public long getTimeInMilliseconds() {
         return mTimeInMilliseconds;
     }
     /**
      * get and return URL from Earthquake JSON Object
      */
     public String getUrl() { return mUrl;}
+    /**
+     * get and return USGS event id, null if unknown
+     */
+    public String getId() { return mId;}
+    /**
+     * get and return time of the last USGS update to this event
+     */
+    public long getUpdatedInMilliseconds() { return mUpdatedInMilliseconds;}
+    /**
+     * get and return epicenter latitude in degrees, NaN if unknown
+     */
+    public double getLatitude() { return mLatitude;}
+    /**
+     * get and return epicenter longitude in degrees, NaN if unknown
+     */
+    public double getLongitude() { return mLongitude;}
+    /**
+     * get and return hypocenter depth in kilometers, NaN if unknown
+     */
+    public double getDepth() { return mDepth;}
 
 }
@@ -22,25 +22,36 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 public class EarthquakeActivity extends AppCompatActivity
-            implements LoaderCallbacks<List<Earthquake>> {
+            implements LoaderCallbacks<List<EarthquakeRow>> {
 
     /**
      * TextView to display if no earthquakes are present (List Empty State)
@@ -48,103 +59,322 @@ public class EarthquakeActivity extends AppCompatActivity
     private TextView mEmptyStateTextView;
 
     /**
-     * Tag for Logging the methods of the earthquake app
+     * Constant value for earthquake loader ID. Can be any integer as is meant for >1 loader
      */
-    private static final String LOG_TAG = EarthquakeActivity.class.getName();
+    private static final int EARTHQUAKE_LOADER_ID = 1;
 
     /**
-     * URL (variable) for earthquake data from USGS dataset
+     * Loader ID of the merged list of every recent query, see {@link EarthquakeFanOutLoader}
      */
-    private static final String USGS_Request_URL =
-            "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    private static final int FAN_OUT_LOADER_ID = 2;
 
     /**
-     * Constant value for earthquake loader ID. Can be any integer as is meant for >1 loader
+     * Number of events requested per page, roughly two screens of rows
      */
-    private static final int EARTHQUAKE_LOADER_ID = 1;
+    private static final int PAGE_SIZE = 20;
+
+    /**
+     * Start loading the next page once the user scrolls within this many rows of the end
+     */
+    private static final int PREFETCH_DISTANCE = 10;
+
+    /**
+     * Rough heap cost of one row of the list, the event and its formatted strings
+     */
+    private static final long ROW_BYTES = 800;
+
+    /**
+     * Name the list is reported under by the {@link MemoryBudget}
+     */
+    private static final String MEMORY_BUDGET_NAME = "event list";
+
+    /**
+     * Wait this long after the last keystroke before searching, so typing a word searches once
+     */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /**
+     * Key of the place text in the saved instance state
+     */
+    private static final String STATE_PLACE_TEXT = "place_text";
+
+    /**
+     * How many years back each choice of the import dialog goes, see R.array.import_spans
+     */
+    private static final int[] IMPORT_SPAN_YEARS = {1, 5, 10};
 
     /**
      * Adapter for list of Earthquakes
      */
     private EarthquakeAdapter mAdapter;
 
+    /**
+     * List of Earthquakes and its layout manager
+     */
+    private RecyclerView mListView;
+    private LinearLayoutManager mLayoutManager;
+
+    /**
+     * True while the list shows the events of every recent query merged, not just the current one
+     */
+    private boolean mCombineRecent;
+
+    /**
+     * Field searching the places of the loaded events, and the text the list is filtered by,
+     * null to show every place
+     */
+    private EditText mSearchView;
+    private String mPlaceText;
+
+    /**
+     * Restarts the list's loader with the place text typed so far
+     */
+    private final Runnable mSearch = new Runnable() {
+        @Override
+        public void run() {
+            if (!mCombineRecent) {
+                getLoaderManager().restartLoader(EARTHQUAKE_LOADER_ID, null,
+                        EarthquakeActivity.this);
+            }
+        }
+    };
+
+    /**
+     * Gives loaded rows back to the {@link MemoryBudget} while the list is hidden, the rows
+     * farthest down first
+     */
+    private final MemoryBudget.Trimmable mRowsTrimmable = new MemoryBudget.Trimmable() {
+        @Override
+        public long estimateBytes() {
+            return mAdapter == null ? 0 : mAdapter.getItemCount() * ROW_BYTES;
+        }
+
+        @Override
+        public void trimTo(float fraction) {
+            Loader<List<EarthquakeRow>> loader =
+                    getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+            if (loader == null) {
+                return;
+            }
+            int keep = Math.max(PAGE_SIZE, (int) (mAdapter.getItemCount() * fraction));
+            if (fraction > 0) {
+                //Keep the rows the user left the list at
+                keep = Math.max(keep, mLayoutManager.findLastVisibleItemPosition() + 1);
+            }
+            List<EarthquakeRow> rows = ((EarthquakeLoader) loader).trimRows(keep);
+            if (rows != null) {
+                mAdapter.submitList(rows);
+            }
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        mListView = earthquakeListView;
+        mLayoutManager = layoutManager;
+        earthquakeListView.setHasFixedSize(true);
 
-        //Find and Display TextView for Empty List State if no earthquakes are found
+        //Find TextView for Empty List State, shown by onLoadFinished if no earthquakes are found
         mEmptyStateTextView=(TextView)findViewById(R.id.empty_view);
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new {@link ArrayAdapter} that takes an empty list of earthquakes as input
-        mAdapter = new EarthquakeAdapter(this, new ArrayList<Earthquake>());
-        // Set the adapter on the {@link ListView}
+        // Create a new {@link EarthquakeAdapter}, which opens the detail screen of the selected
+        // event, or its page on the USGS website for an event without a USGS id
+        mAdapter = new EarthquakeAdapter(this, new EarthquakeAdapter.OnEarthquakeClickListener() {
+            @Override
+            public void onEarthquakeClick(Earthquake currentEarthquake) {
+                if (currentEarthquake.getId() != null) {
+                    startActivity(EarthquakeDetailActivity.newIntent(
+                            EarthquakeActivity.this, currentEarthquake));
+                    return;
+                }
+                //Convert string URL into URI object (to pass to Intent constructor)
+                Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
+                //Create new intent to view earthquake URI
+                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, earthquakeUri);
+                //Send Intent to launch new browser activity
+                startActivity(websiteIntent);
+            }
+        });
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
         earthquakeListView.setAdapter(mAdapter);
 
-    //Set onItemClickListener on ListView, which sends an intent to a web browser
-    //to view more details about the selected event on the USGS website
-    earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-    @Override
-    public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-        //Find most currently selected earthquake
-        Earthquake currentEarthquake = mAdapter.getItem(position);
-        //Convert string URL into URI object (to pass to Intent constructor)
-        Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
-        //Create new intent to view earthquake URI
-        Intent websiteIntent = new Intent(Intent.ACTION_VIEW, earthquakeUri);
-        //Send Intent to launch new browser activity
-        startActivity(websiteIntent);
+        //Inflate a screen's worth of rows in the background while the first page loads, so
+        //showing it only binds them. Only the first list of the process needs it.
+        TypedValue rowHeight = new TypedValue();
+        getTheme().resolveAttribute(android.R.attr.listPreferredItemHeight, rowHeight, true);
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        mAdapter.preinflate((int) (metrics.heightPixels / rowHeight.getDimension(metrics)) + 1);
+
+        //Prefetch the next page as the user nears the end of the loaded rows
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    Loader<List<EarthquakeRow>> loader =
+                            getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID);
+                    if (loader != null) {
+                        ((EarthquakeLoader) loader).loadNextPage();
+                    }
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                //Rows passed over mid-fling are not worth their detail
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetchVisibleDetails();
+                }
+            }
+        });
+
+        //Prepare EarthquakeLoader, or EarthquakeFanOutLoader if the user combines recent queries.
+        //Either via reconnecting to an existing one or start a new one.
+        mCombineRecent = PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(getString(R.string.settings_combine_recent_key), false);
+
+        //Filter the list by place as the user types, the merged recent queries aren't searched
+        if (savedInstanceState != null) {
+            mPlaceText = savedInstanceState.getString(STATE_PLACE_TEXT);
         }
-    });
+        mSearchView = (EditText) findViewById(R.id.search_place);
+        mSearchView.setVisibility(mCombineRecent ? View.GONE : View.VISIBLE);
+        mSearchView.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String placeText = s.toString().trim();
+                if (placeText.isEmpty()) {
+                    placeText = null;
+                }
+                //The text restored with the field after a rotation is already searched
+                if (placeText == null ? mPlaceText == null : placeText.equals(mPlaceText)) {
+                    return;
+                }
+                mPlaceText = placeText;
+                mListView.removeCallbacks(mSearch);
+                mListView.postDelayed(mSearch, SEARCH_DELAY_MILLIS);
+            }
+        });
+        getLoaderManager().initLoader(
+                mCombineRecent ? FAN_OUT_LOADER_ID : EARTHQUAKE_LOADER_ID, null, this);
+
+        //Report the loaded rows and give them back under memory pressure
+        MemoryBudget.getInstance().register(MEMORY_BUDGET_NAME, mRowsTrimmable);
+
+        //Keep the saved queries fresh in the background, so the next start needs no network.
+        //Only arms the alarm if it isn't set yet, e.g. on the first run.
+        EarthquakeSyncService.schedule(this);
+
+        //Resume polling for alerts if the user has set any alert rules and it isn't running
+        EarthquakeAlertService.schedule(this);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PLACE_TEXT, mPlaceText);
+    }
 
-        //Prepare EarthquakeLoader. Either via reconnecting to an existing one or start a new one.
-        getLoaderManager().initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        Log.i(LOG_TAG,"TEST: Loader Initialized");
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mListView.removeCallbacks(mSearch);
+        MemoryBudget.getInstance().unregister(MEMORY_BUDGET_NAME, mRowsTrimmable);
     }
 
     @Override
     //onCreateLoader instantiates and returns a new Loader for the given ID
-    public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        Log.i(LOG_TAG, "TEST: Loader onCreateLoader Called");
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+    public Loader<List<EarthquakeRow>> onCreateLoader(int i, Bundle bundle) {
+        String queryUrl = queryUrl(this);
+
+        //Remember the query so background sync refreshes it
+        EarthquakeSavedQueries.add(this, queryUrl);
+
+        Uri queryUri = Uri.parse(queryUrl);
+        if (i == FAN_OUT_LOADER_ID) {
+            //Every recent query at once, this one included, merged in its order
+            return new EarthquakeFanOutLoader(this, EarthquakeSavedQueries.getAll(this),
+                    queryUri.getQueryParameter("orderby"));
+        }
+
+        //The same query for the local query engine, so a preference change is answered from
+        //events already loaded whenever they cover it. Place text is only searched there.
+        EarthquakeQueryEngine.Filter filter = new EarthquakeQueryEngine.Filter.Builder()
+                .setMinMagnitude(parseMagnitude(queryUri.getQueryParameter("minmag")))
+                .setPlaceText(mPlaceText)
+                .setOrderBy(queryUri.getQueryParameter("orderby"))
+                .build();
+
+        //Create a new Loader and return the completed Uri, the loader appends "offset" per page:
+        // "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=20&minmag=6&orderby=time
+        return new EarthquakeLoader(this, queryUrl, PAGE_SIZE, filter);
+    }
+
+    /**
+     * Return the query URL of the list for the user's preferences, without an "offset".
+     * {@link EarthquakeApplication} prefetches its first page before this activity exists.
+     */
+    static String queryUrl(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
 
         //getString retrieves a String value from the preferences. The second parameter is the
         // default value for this preference.
         String minMagnitude = sharedPrefs.getString(
-                getString(R.string.settings_min_magnitude_key),
-                getString(R.string.settings_min_magnitude_default));
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default));
 
         //take user's preference stored in orderBy variable to use as "orderby" parameter
         String orderBy = sharedPrefs.getString(
-                getString(R.string.settings_order_by_key),
-                getString(R.string.settings_order_by_default)
+                context.getString(R.string.settings_order_by_key),
+                context.getString(R.string.settings_order_by_default)
         );
 
         //parse breaks apart the URI string that's passed into it's parameter
-        Uri baseUri = Uri.parse(USGS_Request_URL);
+        Uri baseUri = Uri.parse(EarthquakeQuery.USGS_QUERY_URL);
 
         //buildUpon prepares the baseUri we just parsed so we can add query parameters to it.
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
         //Append query parameter and its value. For example, the 'format=geojson'
         uriBuilder.appendQueryParameter("format","geojson");
-        uriBuilder.appendQueryParameter("limit","10");
-        uriBuilder.appendQueryParameter("minmag","minMagnitude");
+        uriBuilder.appendQueryParameter("limit",String.valueOf(PAGE_SIZE));
+        uriBuilder.appendQueryParameter("minmag",minMagnitude);
         uriBuilder.appendQueryParameter("orderby",orderBy);
+        return uriBuilder.toString();
+    }
 
-        //Create a new Loader and return the completed Uri:
-        // "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=10&minmag=minMagnitude&orderby=time
-        return new EarthquakeLoader(this, uriBuilder.toString());
+    /** Parse the minimum magnitude preference, NaN if it is not a number */
+    private static double parseMagnitude(String magnitude) {
+        if (magnitude == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(magnitude);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes){
+    public void onLoadFinished(Loader<List<EarthquakeRow>> loader, List<EarthquakeRow> earthquakes){
 
         //Hide loading indicator as data has been loaded
         View progressBar=findViewById(R.id.indeterminateBar);
@@ -158,26 +388,46 @@ public class EarthquakeActivity extends AppCompatActivity
             //state there is no internet connection
             mEmptyStateTextView.setText(R.string.no_internet_connection);
         }else if (networkInfo!=null && networkInfo.isConnected()){
-            //There IS internet but list is still empty
-            mEmptyStateTextView.setText(R.string.no_earthquakes);
+            //There IS internet but list is still empty, or no loaded place matches the search
+            mEmptyStateTextView.setText(loader instanceof EarthquakeLoader && mPlaceText != null
+                    ? R.string.no_matching_earthquakes : R.string.no_earthquakes);
         }
-        //Clear adapter of previous earthquake data
-        mAdapter.clear();
-        //If a valid list of {@link Earthquake}s exists add them to the adapter's dataset.
-        //This will trigger ListView to update
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            //Add Earthquake Items to List
-            mAdapter.addAll(earthquakes);
+        //Show the empty state only if there is nothing to list
+        boolean isEmpty = earthquakes == null || earthquakes.isEmpty();
+        mEmptyStateTextView.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+
+        //Hand the new list to the adapter, which diffs it against the rows shown and
+        //only rebinds the ones that changed
+        mAdapter.submitList(earthquakes);
+
+        //Fetch the detail of the rows shown once they are laid out
+        mListView.post(new Runnable() {
+            @Override
+            public void run() {
+                prefetchVisibleDetails();
+            }
+        });
+    }
 
-            Log.i(LOG_TAG,"TEST: onLoadFinished Called");
+    /** Prefetch the details of the rows on screen at background priority */
+    private void prefetchVisibleDetails() {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
         }
+        List<Earthquake> visible = new ArrayList<>();
+        for (int position = first; position <= last && position < mAdapter.getItemCount();
+                position++) {
+            visible.add(mAdapter.getItem(position));
+        }
+        EarthquakeDetailCache.getInstance().prefetch(visible);
     }
 
     @Override
-    public void onLoaderReset(Loader<List<Earthquake>>loader){
+    public void onLoaderReset(Loader<List<EarthquakeRow>>loader){
         //Loader reset to purge existing data
         mAdapter.clear();
-        Log.i(LOG_TAG,"TEST: onLoaderReset Called");
     }
 
     @Override
@@ -185,6 +435,7 @@ public class EarthquakeActivity extends AppCompatActivity
     public boolean onCreateOptionsMenu(Menu menu){
         //Inflate the Options menu specified in XML
         getMenuInflater().inflate(R.menu.main,menu);
+        menu.findItem(R.id.action_combine_recent).setChecked(mCombineRecent);
         return true;
     }
     @Override
@@ -202,8 +453,93 @@ public class EarthquakeActivity extends AppCompatActivity
             //Return boolean "true"
             return true;
         }
+        if(id==R.id.action_combine_recent){
+            //switch between the current query and every recent query merged
+            mCombineRecent=!mCombineRecent;
+            item.setChecked(mCombineRecent);
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean(getString(R.string.settings_combine_recent_key), mCombineRecent)
+                    .apply();
+            mSearchView.setVisibility(mCombineRecent ? View.GONE : View.VISIBLE);
+            LoaderManager loaderManager=getLoaderManager();
+            loaderManager.destroyLoader(mCombineRecent ? EARTHQUAKE_LOADER_ID : FAN_OUT_LOADER_ID);
+            findViewById(R.id.indeterminateBar).setVisibility(View.VISIBLE);
+            mEmptyStateTextView.setVisibility(View.GONE);
+            loaderManager.initLoader(
+                    mCombineRecent ? FAN_OUT_LOADER_ID : EARTHQUAKE_LOADER_ID, null, this);
+            return true;
+        }
+        if(id==R.id.action_import_history){
+            showImportDialog();
+            return true;
+        }
+        if(id==R.id.action_alert_rules){
+            //open the screen managing the rules new events are alerted on
+            startActivity(new Intent(this,AlertRulesActivity.class));
+            return true;
+        }
+        if(id==R.id.action_metrics){
+            //open the debug screen showing where load latency goes
+            Intent metricsIntent=new Intent(this,MetricsActivity.class);
+            startActivity(metricsIntent);
+            return true;
+        }
         //Return item selected
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Ask how far back to import event history at the minimum magnitude set, and start the
+     * import, or stop the one running
+     */
+    private void showImportDialog() {
+        final int[] span = {0};
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.import_dialog_title)
+                .setSingleChoiceItems(R.array.import_spans, span[0],
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                span[0] = which;
+                            }
+                        })
+                .setPositiveButton(R.string.import_start, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Calendar start = Calendar.getInstance();
+                        long endTime = start.getTimeInMillis();
+                        start.add(Calendar.YEAR, -IMPORT_SPAN_YEARS[span[0]]);
+                        double minMagnitude = parseMagnitude(Uri.parse(
+                                queryUrl(EarthquakeActivity.this)).getQueryParameter("minmag"));
+                        EarthquakeImportService.start(EarthquakeActivity.this,
+                                start.getTimeInMillis(), endTime, minMagnitude);
+                    }
+                })
+                .setNeutralButton(R.string.import_stop, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        EarthquakeImportService.cancel(EarthquakeActivity.this);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    @Override
+    //Include load metrics and memory use in
+    //"adb shell dumpsys activity com.example.android.quakereport",
+    //debug builds also take the arguments DebugCommands handles
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args){
+        super.dump(prefix, fd, writer, args);
+        List<String> arguments = args == null
+                ? Collections.<String>emptyList() : Arrays.asList(args);
+        DebugCommands.run(this, prefix, writer, arguments);
+        writer.print(prefix);
+        writer.println("Load metrics:");
+        writer.println(LoadMetrics.dump());
+        writer.print(prefix);
+        writer.println("Memory:");
+        writer.println(MemoryBudget.getInstance().dump());
+    }
+
 }
@@ -1,158 +1,277 @@
 package com.example.android.quakereport;
 
-import android.app.Activity;
 import android.content.Context;
-import android.support.v4.content.ContextCompat;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.FrameLayout;
 import android.widget.TextView;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import android.graphics.drawable.GradientDrawable;
 
 
-public class EarthquakeAdapter extends ArrayAdapter<Earthquake> {
+public class EarthquakeAdapter extends RecyclerView.Adapter<EarthquakeAdapter.ViewHolder> {
 
-    private static final String LOCATION_SEPARATOR = "of";
-    String primaryLocation;
-    String locationOffset;
+    //Diffs are computed off the main thread, one at a time
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
 
-    public EarthquakeAdapter(Context context, List<Earthquake> earthquakes) {
-        super(context, 0, earthquakes);
-    }
+    //Rows are preinflated off the main thread, one list at a time
+    private static final Executor PREINFLATE_EXECUTOR = Executors.newSingleThreadExecutor();
 
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    //True once a row was inflated in this process, after which inflating is cheap enough for
+    //the main thread and lists skip preinflating
+    private static volatile boolean sWarmed;
 
-        //store convertView as variable of View type called listEventView
-        View listEventView = convertView;
+    /** Receives taps on a row of the list */
+    public interface OnEarthquakeClickListener {
+        void onEarthquakeClick(Earthquake earthquake);
+    }
 
-        //check if existing view is in use else inflate view
-        if (listEventView == null) {
-            listEventView = LayoutInflater.from(getContext()).inflate(R.layout.list_segment, parent, false);
-        }
+    private final Context mContext;
+    private final OnEarthquakeClickListener mClickListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
-        //get earthquake data at this position in index
-        Earthquake currentEarthquake = getItem(position);
-
-        //get string original location and store as variable
-        String originalLocation = currentEarthquake.getLocation();
-
-        //Check if LOCATION_SEPARATOR exists, if not treat as location_offset, and use text "Near.."
-        // Split string at word "of" (LOCATION_SEPARATOR)
-        // Locate primaryLocation and locationOffset XML TextViews
-        if (originalLocation.contains(LOCATION_SEPARATOR)) {
-            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
-            locationOffset = parts[0] + LOCATION_SEPARATOR;
-            primaryLocation = parts[1];
-        }else{
-            locationOffset = getContext().getString(R.string.near_the);
-            primaryLocation=originalLocation;
-        }
+    //Rows currently bound to the list
+    private List<EarthquakeRow> mRows = Collections.emptyList();
 
-        //Locate primary_location XML TextView from list segment by R.id
-        TextView primaryLocationView = (TextView) listEventView.findViewById(R.id.primary_location);
-        //Get View from Adapter and set view with earthquake data
-        primaryLocationView.setText(primaryLocation);
+    //Incremented by every update so a diff finishing after a newer update is dropped
+    private int mGeneration;
 
-        //Locate location_offset XML TextView from list segment by R.id
-        TextView locationOffsetView = (TextView) listEventView.findViewById(R.id.location_offset);
-        //Get View from Adapter and set view with earthquake data
-        locationOffsetView.setText(locationOffset);
+    //Rows inflated ahead of the first layout, used up before inflating any more
+    private final Queue<View> mPreinflatedViews = new ConcurrentLinkedQueue<>();
 
-        //Create new date object from time in milliseconds for this earthquake
-        Date dateObject = new Date(currentEarthquake.getTimeInMilliseconds());
+    public EarthquakeAdapter(Context context, OnEarthquakeClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+    }
 
-        //Locate Date XML TextView from list segment by R.id
-        TextView dateView = (TextView) listEventView.findViewById(R.id.date);
-        //Format the Date string i.e. "Mar 3, 1984"
-        String formattedDate = formatDate(dateObject);
-        //Get View from Adapter and set view with earthquake data
-        dateView.setText(formattedDate);
+    /** Caches the views of one list segment so binding never has to look them up */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView primaryLocationView;
+        final TextView locationOffsetView;
+        final TextView dateView;
+        final TextView timeView;
+        final TextView magnitudeView;
+        final GradientDrawable magnitudeCircle;
+        Earthquake earthquake;
 
-        //Locate Time XML TextView from list segment by R.id
-        TextView timeView = (TextView) listEventView.findViewById(R.id.time);
-        //Format the Date string i.e. "Mar 3, 1984"
-        String formattedTime = formatTime(dateObject);
-        //Get View from Adapter and set view with earthquake data
-        timeView.setText(formattedTime);
+        ViewHolder(View listEventView) {
+            super(listEventView);
+            primaryLocationView = (TextView) listEventView.findViewById(R.id.primary_location);
+            locationOffsetView = (TextView) listEventView.findViewById(R.id.location_offset);
+            dateView = (TextView) listEventView.findViewById(R.id.date);
+            timeView = (TextView) listEventView.findViewById(R.id.time);
+            magnitudeView = (TextView) listEventView.findViewById(R.id.magnitude);
+            //Fetch BG color from the TextView, a GradientDrawable
+            magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+        }
+    }
 
-        //Locate Magnitude XML TextView from list segment by R.id
-        TextView magnitudeView = (TextView) listEventView.findViewById(R.id.magnitude);
-        //Format magnitude to show 1 decimal place
-        String formattedMagnitude = formatMagnitude(currentEarthquake.getMagnitude());
-        //Get View from Adapter and set view with earthquake data
-        magnitudeView.setText(formattedMagnitude);
+    /**
+     * Inflate rows in the background ahead of the first layout, which then only binds them.
+     * Does nothing once rows were inflated in this process, since later inflation only costs
+     * what it costs on the main thread anyway. Must be called on the main thread.
+     */
+    public void preinflate(final int count) {
+        if (sWarmed) {
+            return;
+        }
+        sWarmed = true;
+        //A plain inflater: the activity's carries AppCompat's factory, which isn't safe to use
+        //while the main thread inflates too. The rows get framework TextViews, which draw the
+        //same since they set no tint
+        final LayoutInflater inflater = new BasicInflater(mContext);
+        //Rows are inflated against a parent nobody else touches, RecyclerView converts their
+        //layout params when it adds them
+        final ViewGroup parent = new FrameLayout(mContext);
+        PREINFLATE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    mPreinflatedViews.add(inflater.inflate(R.layout.list_segment, parent, false));
+                }
+            }
+        });
+    }
 
-        //Set proper BG color on Magnitude Circle
-        //Fetch BG color from the TextView, a GradientDrawable
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeView.getBackground();
+    /**
+     * {@link LayoutInflater} without any factory, resolving unqualified tags the way the
+     * framework's own inflater does, as AsyncLayoutInflater does for its worker thread
+     */
+    private static class BasicInflater extends LayoutInflater {
 
-        //Get the appropriate BG color based on the current event magnitude
-        int magnitudeColor = getMagnitudeColor(currentEarthquake.getMagnitude());
+        private static final String[] CLASS_PREFIXES = {"android.widget.", "android.webkit.",
+                "android.app."};
 
-        //Set BG color on Magnitude Circle
-        magnitudeCircle.setColor(magnitudeColor);
+        BasicInflater(Context context) {
+            super(context);
+        }
 
+        @Override
+        public LayoutInflater cloneInContext(Context newContext) {
+            return new BasicInflater(newContext);
+        }
 
-        //Return tri-element TextView list layout for display in ListView R.id.list_segment
-        return listEventView;
+        @Override
+        protected View onCreateView(String name, AttributeSet attrs)
+                throws ClassNotFoundException {
+            for (String prefix : CLASS_PREFIXES) {
+                try {
+                    View view = createView(name, prefix, attrs);
+                    if (view != null) {
+                        return view;
+                    }
+                } catch (ClassNotFoundException e) {
+                    //Try the next package
+                }
+            }
+            return super.onCreateView(name, attrs);
+        }
+    }
 
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listEventView = mPreinflatedViews.poll();
+        if (listEventView == null) {
+            listEventView = LayoutInflater.from(mContext)
+                    .inflate(R.layout.list_segment, parent, false);
+            sWarmed = true;
+        }
+        final ViewHolder holder = new ViewHolder(listEventView);
+        listEventView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (mClickListener != null && holder.earthquake != null) {
+                    mClickListener.onEarthquakeClick(holder.earthquake);
+                }
+            }
+        });
+        return holder;
     }
-    //Return the formatted Date String i.e. "Mar 3, 1984" from a date object
-    public String formatDate (Date dateObject){
-        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
-        return dateFormat.format(dateObject);
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        //Everything shown was formatted on the loader thread, binding only sets text and color
+        long bindStart = System.nanoTime();
+        EarthquakeRow row = mRows.get(position);
+        holder.earthquake = row.getEarthquake();
+        holder.primaryLocationView.setText(row.getPrimaryLocation());
+        holder.locationOffsetView.setText(row.getLocationOffset());
+        holder.dateView.setText(row.getFormattedDate());
+        holder.timeView.setText(row.getFormattedTime());
+        holder.magnitudeView.setText(row.getFormattedMagnitude());
+        holder.magnitudeCircle.setColor(row.getMagnitudeColor());
+        LoadMetrics.recordPhase(LoadMetrics.Phase.BIND, System.nanoTime() - bindStart);
+        EarthquakeApplication.onRowBound();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
     }
 
-    public String formatTime(Date dateObject){
-        SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm a");
-        return timeFormat.format(dateObject);
+    /** Return the earthquake bound at this position */
+    public Earthquake getItem(int position) {
+        return mRows.get(position).getEarthquake();
     }
 
     /**
-     * Return formatted magnitude string showing 1 decimal place (i.e. "4.5")
-     * from a decimal magnitude value
+     * Replace the rows shown by the list. The old and new lists are diffed by event id on a
+     * background thread, and only rows that were inserted, removed or changed are rebound.
+     * Must be called on the main thread.
      */
-    private String formatMagnitude(double magnitude){
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
+    public void submitList(List<EarthquakeRow> rows) {
+        final List<EarthquakeRow> newList = rows == null
+                ? Collections.<EarthquakeRow>emptyList() : new ArrayList<>(rows);
+        final List<EarthquakeRow> oldList = mRows;
+        final int generation = ++mGeneration;
+
+        //Nothing to diff against, bind the new list directly
+        if (oldList.isEmpty() || newList.isEmpty()) {
+            mRows = newList;
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new EarthquakeDiffCallback(oldList, newList), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mRows = newList;
+                        result.dispatchUpdatesTo(EarthquakeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Remove every event from the list */
+    public void clear() {
+        mGeneration++;
+        mRows = Collections.emptyList();
+        notifyDataSetChanged();
     }
 
-    private int getMagnitudeColor (double magnitude) {
-        int magnitudeColorResourceId;
-        int magnitudeFloor = (int) Math.floor(magnitude);
-        switch (magnitudeFloor){
-            case 0:
-            case 1:
-                magnitudeColorResourceId=R.color.mag1;break;
-            case 2:
-                magnitudeColorResourceId=R.color.mag2;break;
-            case 3:
-                magnitudeColorResourceId=R.color.mag3;break;
-            case 4:
-                magnitudeColorResourceId=R.color.mag4;break;
-            case 5:
-                magnitudeColorResourceId=R.color.mag5;break;
-            case 6:
-                magnitudeColorResourceId=R.color.mag6;break;
-            case 7:
-                magnitudeColorResourceId=R.color.mag7;break;
-            case 8:
-                magnitudeColorResourceId=R.color.mag8;break;
-            case 9:
-                magnitudeColorResourceId=R.color.mag9;break;
-            default:
-                magnitudeColorResourceId=R.color.mag10plus;break;
+    /** Compares two event lists by USGS event id, falling back to the event page url */
+    private static class EarthquakeDiffCallback extends DiffUtil.Callback {
+        private final List<EarthquakeRow> mOldList;
+        private final List<EarthquakeRow> mNewList;
+
+        EarthquakeDiffCallback(List<EarthquakeRow> oldList, List<EarthquakeRow> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            Earthquake oldEarthquake = mOldList.get(oldPosition).getEarthquake();
+            Earthquake newEarthquake = mNewList.get(newPosition).getEarthquake();
+            if (oldEarthquake.getId() != null && newEarthquake.getId() != null) {
+                return oldEarthquake.getId().equals(newEarthquake.getId());
+            }
+            return oldEarthquake.getUrl().equals(newEarthquake.getUrl());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Earthquake oldEarthquake = mOldList.get(oldPosition).getEarthquake();
+            Earthquake newEarthquake = mNewList.get(newPosition).getEarthquake();
+            return oldEarthquake == newEarthquake
+                    || (oldEarthquake.getUpdatedInMilliseconds()
+                            == newEarthquake.getUpdatedInMilliseconds()
+                    && oldEarthquake.getMagnitude() == newEarthquake.getMagnitude()
+                    && oldEarthquake.getTimeInMilliseconds()
+                            == newEarthquake.getTimeInMilliseconds()
+                    && oldEarthquake.getLocation().equals(newEarthquake.getLocation()));
         }
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId );
     }
 
 }
@@ -0,0 +1,210 @@
+package com.example.android.quakereport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A user-defined condition for alerting on a new event: a minimum magnitude, optionally
+ * limited to a radius around a point (e.g. a site) and to a bounding box region. An event
+ * matches when it satisfies every part that is set. Build instances with {@link Builder}.
+ */
+public final class EarthquakeAlertRule {
+
+    private final String mName;
+    private final double mMinMagnitude;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mRadiusKm;
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+
+    private EarthquakeAlertRule(Builder builder) {
+        mName = builder.mName;
+        mMinMagnitude = builder.mMinMagnitude;
+        mLatitude = builder.mLatitude;
+        mLongitude = builder.mLongitude;
+        mRadiusKm = builder.mRadiusKm;
+        mMinLatitude = builder.mMinLatitude;
+        mMaxLatitude = builder.mMaxLatitude;
+        mMinLongitude = builder.mMinLongitude;
+        mMaxLongitude = builder.mMaxLongitude;
+    }
+
+    /**
+     * Build a rule from what the user typed, blank fields left out. The radius needs latitude,
+     * longitude and radius together. Returns null if the name is blank, a number is invalid,
+     * or neither a threshold nor a radius is set, as such a rule would alert on every event.
+     */
+    public static EarthquakeAlertRule fromInput(String name, String minMagnitude,
+                                                String latitude, String longitude,
+                                                String radiusKm) {
+        if (isBlank(name) || isBlank(minMagnitude) && isBlank(radiusKm)) {
+            return null;
+        }
+        Builder builder = new Builder(name.trim());
+        try {
+            if (!isBlank(minMagnitude)) {
+                builder.setMinMagnitude(Double.parseDouble(minMagnitude.trim()));
+            }
+            if (!isBlank(latitude) || !isBlank(longitude) || !isBlank(radiusKm)) {
+                if (isBlank(latitude) || isBlank(longitude) || isBlank(radiusKm)) {
+                    return null;
+                }
+                double lat = Double.parseDouble(latitude.trim());
+                double lon = Double.parseDouble(longitude.trim());
+                double radius = Double.parseDouble(radiusKm.trim());
+                if (!(lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180 && radius > 0)) {
+                    return null;
+                }
+                builder.setRadius(lat, lon, radius);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return builder.build();
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.trim().isEmpty();
+    }
+
+    /** Return the name shown in the notification, e.g. the site the rule watches */
+    public String getName() {
+        return mName;
+    }
+
+    /** Return the smallest magnitude matched, negative infinity if there is no threshold */
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    /** Return the latitude of the radius' center, NaN if the rule has no radius */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /** Return the longitude of the radius' center, NaN if the rule has no radius */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /** Return the radius around the center in km, NaN if the rule has none */
+    public double getRadiusKm() {
+        return mRadiusKm;
+    }
+
+    /** Return true if the rule is limited to a bounding box region */
+    public boolean hasRegion() {
+        return !Double.isNaN(mMinLatitude);
+    }
+
+    /** Return true if the event satisfies every part of this rule */
+    public boolean matches(Earthquake earthquake) {
+        if (earthquake.getMagnitude() < mMinMagnitude) {
+            return false;
+        }
+        double latitude = earthquake.getLatitude();
+        double longitude = earthquake.getLongitude();
+        if (!Double.isNaN(mRadiusKm) && (Double.isNaN(latitude)
+                || EarthquakeSpatialIndex.distanceKm(mLatitude, mLongitude, latitude, longitude)
+                        > mRadiusKm)) {
+            return false;
+        }
+        if (!Double.isNaN(mMinLatitude)) {
+            if (Double.isNaN(latitude) || latitude < mMinLatitude || latitude > mMaxLatitude) {
+                return false;
+            }
+            //A region crossing the antimeridian has its minimum longitude east of its maximum
+            boolean inLongitude = mMinLongitude <= mMaxLongitude
+                    ? longitude >= mMinLongitude && longitude <= mMaxLongitude
+                    : longitude >= mMinLongitude || longitude <= mMaxLongitude;
+            if (!inLongitude) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return this rule as JSON, read back with {@link #fromJson(JSONObject)} */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("name", mName);
+        //JSON has no infinity, a rule without a threshold simply leaves it out
+        if (!Double.isInfinite(mMinMagnitude)) {
+            json.put("minMagnitude", mMinMagnitude);
+        }
+        if (!Double.isNaN(mRadiusKm)) {
+            json.put("latitude", mLatitude);
+            json.put("longitude", mLongitude);
+            json.put("radiusKm", mRadiusKm);
+        }
+        if (!Double.isNaN(mMinLatitude)) {
+            json.put("minLatitude", mMinLatitude);
+            json.put("maxLatitude", mMaxLatitude);
+            json.put("minLongitude", mMinLongitude);
+            json.put("maxLongitude", mMaxLongitude);
+        }
+        return json;
+    }
+
+    /** Read a rule written by {@link #toJson()} */
+    public static EarthquakeAlertRule fromJson(JSONObject json) throws JSONException {
+        Builder builder = new Builder(json.getString("name"))
+                .setMinMagnitude(json.optDouble("minMagnitude", Double.NEGATIVE_INFINITY));
+        if (json.has("radiusKm")) {
+            builder.setRadius(json.getDouble("latitude"), json.getDouble("longitude"),
+                    json.getDouble("radiusKm"));
+        }
+        if (json.has("minLatitude")) {
+            builder.setRegion(json.getDouble("minLatitude"), json.getDouble("maxLatitude"),
+                    json.getDouble("minLongitude"), json.getDouble("maxLongitude"));
+        }
+        return builder.build();
+    }
+
+    /** Builds an {@link EarthquakeAlertRule}, every part but the name is optional */
+    public static final class Builder {
+        private final String mName;
+        private double mMinMagnitude = Double.NEGATIVE_INFINITY;
+        private double mLatitude = Double.NaN;
+        private double mLongitude = Double.NaN;
+        private double mRadiusKm = Double.NaN;
+        private double mMinLatitude = Double.NaN;
+        private double mMaxLatitude = Double.NaN;
+        private double mMinLongitude = Double.NaN;
+        private double mMaxLongitude = Double.NaN;
+
+        public Builder(String name) {
+            mName = name;
+        }
+
+        public Builder setMinMagnitude(double minMagnitude) {
+            mMinMagnitude = minMagnitude;
+            return this;
+        }
+
+        /** Only match events within radiusKm of a point */
+        public Builder setRadius(double latitude, double longitude, double radiusKm) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mRadiusKm = radiusKm;
+            return this;
+        }
+
+        /** Only match events inside a region, bounds in degrees and inclusive */
+        public Builder setRegion(double minLatitude, double maxLatitude, double minLongitude,
+                                 double maxLongitude) {
+            mMinLatitude = minLatitude;
+            mMaxLatitude = maxLatitude;
+            mMinLongitude = minLongitude;
+            mMaxLongitude = maxLongitude;
+            return this;
+        }
+
+        public EarthquakeAlertRule build() {
+            return new EarthquakeAlertRule(this);
+        }
+    }
+}
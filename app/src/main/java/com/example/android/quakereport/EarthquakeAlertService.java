@@ -0,0 +1,217 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.content.WakefulBroadcastReceiver;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Alerts on significant events within about a minute of USGS publishing them. Once a minute
+ * the small USGS summary feed of the past hour is revalidated with a conditional request,
+ * which is a 304 with no body most of the time. When it changed, only events whose ids were
+ * not in the previous copy of the feed are checked against the user's
+ * {@link EarthquakeAlertRule}s, and a notification is posted for each match. The time from
+ * the event to its notification is recorded as {@link LoadMetrics.Phase#ALERT}.
+ *
+ * Polling only runs while at least one rule is set, see {@link #setRules(Context, List)}. The
+ * rules are managed on the {@link AlertRulesActivity} screen.
+ */
+public class EarthquakeAlertService extends IntentService {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeAlertService.class.getSimpleName();
+
+    /** Every event of the past hour, regenerated by USGS every minute */
+    private static final String SUMMARY_FEED_URL =
+            "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_hour.geojson";
+
+    /** Time between polls, the feed doesn't change more often */
+    private static final long POLL_INTERVAL_MILLIS = 60 * 1000;
+
+    /** Name of the preferences file holding the rules */
+    private static final String PREFS_NAME = "alert_rules";
+    private static final String KEY_RULES = "rules";
+
+    public EarthquakeAlertService() {
+        super("EarthquakeAlertService");
+    }
+
+    /** Return the alert rules set by the user */
+    public static List<EarthquakeAlertRule> getRules(Context context) {
+        List<EarthquakeAlertRule> rules = new ArrayList<>();
+        String stored = getPreferences(context).getString(KEY_RULES, null);
+        if (stored == null) {
+            return rules;
+        }
+        try {
+            JSONArray json = new JSONArray(stored);
+            for (int i = 0; i < json.length(); i++) {
+                rules.add(EarthquakeAlertRule.fromJson(json.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Problem reading alert rules", e);
+        }
+        return rules;
+    }
+
+    /** Replace the alert rules, polling starts with the first rule and stops without any */
+    public static void setRules(Context context, List<EarthquakeAlertRule> rules) {
+        JSONArray json = new JSONArray();
+        try {
+            for (EarthquakeAlertRule rule : rules) {
+                json.put(rule.toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Problem writing alert rules", e);
+            return;
+        }
+        getPreferences(context).edit().putString(KEY_RULES, json.toString()).apply();
+        schedule(context, !rules.isEmpty());
+    }
+
+    /**
+     * Start polling if any rule is set and polling isn't already scheduled, e.g. when the app
+     * starts or after a reboot. A poll already scheduled is left alone rather than pushed back.
+     */
+    public static void schedule(Context context) {
+        boolean enabled = !getRules(context).isEmpty();
+        Intent poll = new Intent(context, AlarmReceiver.class);
+        if (enabled && PendingIntent.getBroadcast(context, 0, poll,
+                PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        schedule(context, enabled);
+    }
+
+    private static void schedule(Context context, boolean enabled) {
+        AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent alarm = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, AlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (!enabled) {
+            alarmManager.cancel(alarm);
+            //So schedule(Context) sees polling as stopped
+            alarm.cancel();
+            return;
+        }
+        //Alerts have to arrive on time, so the poll wakes the device and isn't deferred
+        long triggerAt = SystemClock.elapsedRealtime() + POLL_INTERVAL_MILLIS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setExactAndAllowWhileIdle(
+                    AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, alarm);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, alarm);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, alarm);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            List<EarthquakeAlertRule> rules = getRules(this);
+            //Schedule the next poll first so a failure here doesn't end polling
+            schedule(this, !rules.isEmpty());
+            if (!rules.isEmpty()) {
+                poll(rules);
+            }
+        } finally {
+            WakefulBroadcastReceiver.completeWakefulIntent(intent);
+        }
+    }
+
+    /** Fetch the summary feed if it changed and alert on the new events matching a rule */
+    private void poll(List<EarthquakeAlertRule> rules) {
+        EarthquakeCache cache = EarthquakeCache.getInstance(this);
+        EarthquakeCache.Entry previous = cache.get(SUMMARY_FEED_URL);
+        EarthquakeCache.Entry response =
+                QueryUtils.fetchEarthquakeData(SUMMARY_FEED_URL, previous);
+        if (response == null) {
+            //The next poll tries again
+            return;
+        }
+        if (response == previous) {
+            cache.touch(SUMMARY_FEED_URL);
+            return;
+        }
+        cache.put(SUMMARY_FEED_URL, response);
+        if (previous == null) {
+            //First poll, nothing to compare against, so don't alert on the whole past hour
+            return;
+        }
+
+        Set<String> seenIds = new HashSet<>();
+        for (Earthquake earthquake : previous.getEarthquakes()) {
+            seenIds.add(earthquake.getId());
+        }
+        for (Earthquake earthquake : response.getEarthquakes()) {
+            if (earthquake.getId() == null || seenIds.contains(earthquake.getId())) {
+                continue;
+            }
+            for (EarthquakeAlertRule rule : rules) {
+                if (rule.matches(earthquake)) {
+                    notify(earthquake, rule);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void notify(Earthquake earthquake, EarthquakeAlertRule rule) {
+        Intent viewIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getUrl()));
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, viewIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        String magnitude = new DecimalFormat("0.0").format(earthquake.getMagnitude());
+        NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.alert_title, magnitude, rule.getName()))
+                .setContentText(earthquake.getLocation())
+                .setWhen(earthquake.getTimeInMilliseconds())
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setContentIntent(contentIntent)
+                .setAutoCancel(true);
+        NotificationManagerCompat.from(this)
+                .notify(earthquake.getId().hashCode(), notification.build());
+
+        long latencyMillis = System.currentTimeMillis() - earthquake.getTimeInMilliseconds();
+        LoadMetrics.recordPhase(LoadMetrics.Phase.ALERT, latencyMillis * 1000000L);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Starts a poll from the alarm, holding a wake lock until it finishes, and schedules
+     * polling again after a reboot
+     */
+    public static class AlarmReceiver extends WakefulBroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+                schedule(context);
+            } else {
+                startWakefulService(context, new Intent(context, EarthquakeAlertService.class));
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Process;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts loading the list as soon as the process is created. Cold start used to run serially:
+ * the activity inflated its layout, then created the loader, which only then read the cache or
+ * went to the network. Now the first page is read from the {@link EarthquakeCache}, or
+ * downloaded when it holds none, on a background thread while the activity is still
+ * inflating, and handed to the loader's first load, see {@link #takePrefetched}.
+ *
+ * Time from process creation to the first row bound is recorded as
+ * {@link LoadMetrics.Phase#FIRST_ROW}, once per cold start. Memory callbacks go to the
+ * {@link MemoryBudget}, where the structures shared by the whole process are registered here.
+ */
+public class EarthquakeApplication extends Application {
+
+    /** Rough heap cost of one parsed {@link Earthquake} with its strings */
+    static final long EVENT_BYTES = 400;
+
+    //System.nanoTime() when the process was created, 0 once the first row was reported or if
+    //the process was not started to show the list
+    private static volatile long sStartNanos;
+
+    //URL of the page being prefetched, null once it was taken or if there is none
+    private static String sPrefetchUrl;
+
+    //The prefetched page once the prefetch is done, null if it failed
+    private static EarthquakeCache.Entry sPrefetched;
+
+    private static final CountDownLatch sPrefetchDone = new CountDownLatch(1);
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sStartNanos = System.nanoTime();
+        final Context context = getApplicationContext();
+        //Process-wide, has to be set before the first request
+        UrlConnectionTransport.setMaxIdleConnections(
+                UrlConnectionTransport.DEFAULT_MAX_IDLE_CONNECTIONS);
+
+        MemoryBudget budget = MemoryBudget.getInstance();
+        budget.register("query engine", EarthquakeQueryEngine.getInstance());
+        budget.register("event details", EarthquakeDetailCache.getInstance());
+        budget.register("prefetched page", new MemoryBudget.Trimmable() {
+            @Override
+            public long estimateBytes() {
+                synchronized (EarthquakeApplication.class) {
+                    return sPrefetched == null
+                            ? 0 : sPrefetched.getEarthquakes().size() * EVENT_BYTES;
+                }
+            }
+
+            @Override
+            public void trimTo(float fraction) {
+                //Not taken yet, the loader reads it back from the disk cache instead
+                synchronized (EarthquakeApplication.class) {
+                    sPrefetched = null;
+                }
+            }
+        });
+
+        //Known before the activity can ask for it, preferences are read here once either way
+        final String pageUrl = EarthquakeLoader.pageUrl(EarthquakeActivity.queryUrl(context), 1);
+        synchronized (EarthquakeApplication.class) {
+            sPrefetchUrl = pageUrl;
+        }
+        new Thread("EarthquakeApplication") {
+            @Override
+            public void run() {
+                EarthquakeCache.Entry page = null;
+                try {
+                    page = prefetch(context, pageUrl);
+                } finally {
+                    synchronized (EarthquakeApplication.class) {
+                        sPrefetched = page;
+                    }
+                    sPrefetchDone.countDown();
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Return the page prefetched for this page URL, waiting for the prefetch to finish. Returns
+     * null if none was prefetched for it, the prefetch failed or the token was canceled while
+     * waiting. The page is handed out once, later loads go through the cache as usual.
+     */
+    static EarthquakeCache.Entry takePrefetched(String pageUrl, CancellationToken token) {
+        synchronized (EarthquakeApplication.class) {
+            if (!pageUrl.equals(sPrefetchUrl)) {
+                return null;
+            }
+            sPrefetchUrl = null;
+        }
+        try {
+            while (!sPrefetchDone.await(50, TimeUnit.MILLISECONDS)) {
+                if (CancellationToken.isCanceled(token)) {
+                    return null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        synchronized (EarthquakeApplication.class) {
+            EarthquakeCache.Entry page = sPrefetched;
+            sPrefetched = null;
+            return page;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryBudget.getInstance().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryBudget.getInstance().onLowMemory();
+    }
+
+    /** Report that a row was bound to the list, must be called on the main thread */
+    static void onRowBound() {
+        long startNanos = sStartNanos;
+        if (startNanos != 0) {
+            sStartNanos = 0;
+            LoadMetrics.recordPhase(LoadMetrics.Phase.FIRST_ROW, System.nanoTime() - startNanos);
+        }
+    }
+
+    /** Read the first page of the list from the cache, or fetch and cache it if it is missing */
+    private static EarthquakeCache.Entry prefetch(Context context, String pageUrl) {
+        if (!isForeground(context)) {
+            //Started for a sync or an alert, nobody is waiting for the list
+            sStartNanos = 0;
+            return null;
+        }
+        EarthquakeCache cache = EarthquakeCache.getInstance(context);
+        EarthquakeCache.Entry page = cache.get(pageUrl);
+        if (page == null) {
+            page = QueryUtils.fetchEarthquakeData(pageUrl, null, null);
+            if (page != null) {
+                cache.put(pageUrl, page);
+            }
+        }
+        return page;
+    }
+
+    /** Return true if this process was started to show an activity */
+    private static boolean isForeground(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                activityManager.getRunningAppProcesses();
+        if (processes == null) {
+            return false;
+        }
+        int pid = Process.myPid();
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            if (process.pid == pid) {
+                return process.importance
+                        == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persistent store of imported event history, see {@link EarthquakeBulkImport}. History is kept
+ * as one {@link EarthquakeSnapshot} file per time window, holding every event of the import's
+ * magnitude floor inside that window, so a window is written once and read back in one bulk
+ * read. A window file only appears once it is complete, which is what lets an interrupted
+ * import resume where it stopped. Its name records the window and the floor it was imported
+ * at, so an import at a lower floor fetches the window again and replaces it.
+ *
+ * History is never held in memory as a whole, it can run to millions of events. Queries read
+ * the windows they need one at a time and keep only what they answer, see
+ * {@link #summarizeRadius} and {@link #statistics}.
+ *
+ * Windows are half-open, [start, end) in epoch milliseconds. Safe to use from several threads.
+ */
+public final class EarthquakeArchive {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeArchive.class.getSimpleName();
+
+    /** Name of the directory, inside the app files directory, holding the windows */
+    private static final String ARCHIVE_DIR_NAME = "archive";
+
+    private static final String WINDOW_SUFFIX = ".snapshot";
+
+    /** Floor in the file name of a window holding every magnitude */
+    private static final String ANY_MAGNITUDE = "all";
+
+    private static EarthquakeArchive sInstance;
+
+    private final File mDirectory;
+
+    /** Return the archive shared by the whole app, stored in the app files directory */
+    public static synchronized EarthquakeArchive getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeArchive(
+                    new File(context.getApplicationContext().getFilesDir(), ARCHIVE_DIR_NAME));
+        }
+        return sInstance;
+    }
+
+    public EarthquakeArchive(File directory) {
+        mDirectory = directory;
+    }
+
+    /** Return every stored window, oldest first */
+    private synchronized List<Window> getWindows() {
+        List<Window> windows = new ArrayList<>();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return windows;
+        }
+        for (File file : files) {
+            Window window = Window.parse(file.getName());
+            if (window != null) {
+                windows.add(window);
+            }
+        }
+        Collections.sort(windows, new Comparator<Window>() {
+            @Override
+            public int compare(Window a, Window b) {
+                return compareLongs(a.mStart, b.mStart);
+            }
+        });
+        return windows;
+    }
+
+    /**
+     * Return true if stored windows together cover all of [start, end), each imported at
+     * minMagnitude or a lower floor. minMagnitude is NaN for every magnitude.
+     */
+    public synchronized boolean covers(long start, long end, double minMagnitude) {
+        double floor = floorOf(minMagnitude);
+        long coveredUntil = start;
+        for (Window window : getWindows()) {
+            if (window.mMinMagnitude > floor) {
+                continue;
+            }
+            if (window.mStart > coveredUntil) {
+                break;
+            }
+            coveredUntil = Math.max(coveredUntil, window.mEnd);
+            if (coveredUntil >= end) {
+                return true;
+            }
+        }
+        return coveredUntil >= end;
+    }
+
+    /**
+     * Store the complete events of one window, imported at minMagnitude or NaN for every
+     * magnitude. Stored windows inside it imported at the same or a higher floor are replaced,
+     * so an event is never held twice. The file is written under a temporary name and renamed
+     * into place, so a window is either stored whole or not at all.
+     */
+    public void write(long start, long end, double minMagnitude, List<Earthquake> earthquakes)
+            throws IOException {
+        //Encoding is the slow part and needs no lock
+        byte[] snapshot = EarthquakeSnapshot.encode(earthquakes);
+        Window written = new Window(start, end, floorOf(minMagnitude));
+        synchronized (this) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+            File temporary = new File(mDirectory, written.getName() + ".tmp");
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                out.write(snapshot);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            //A window inside holding weaker events than this one still has something to add
+            for (Window window : getWindows()) {
+                if (window.mStart >= start && window.mEnd <= end
+                        && window.mMinMagnitude >= written.mMinMagnitude) {
+                    fileFor(window).delete();
+                }
+            }
+            if (!temporary.renameTo(fileFor(written))) {
+                temporary.delete();
+                throw new IOException("Can't store window " + written.getName());
+            }
+        }
+    }
+
+    /** Return the events of a stored window, or null if it is missing or unreadable */
+    private List<Earthquake> read(Window window) {
+        File file = fileFor(window);
+        byte[] data;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                data = new byte[(int) file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count < 0) {
+                        throw new IOException("Window truncated");
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading window " + file.getName(), e);
+            return null;
+        }
+        return EarthquakeSnapshot.decode(data, 0, data.length);
+    }
+
+    /**
+     * Count the stored events within radiusKm of a point and find the strongest of them,
+     * reading every window in turn. Blocks on disk, call it off the main thread. Returns null
+     * if the token, which may be null, was canceled.
+     */
+    public Summary summarizeRadius(double latitude, double longitude, double radiusKm,
+                                   CancellationToken token) {
+        Summary summary = new Summary();
+        //Windows of imports that started at different times can overlap
+        Set<String> counted = new HashSet<>();
+        for (Window window : getWindows()) {
+            if (CancellationToken.isCanceled(token)) {
+                return null;
+            }
+            List<Earthquake> earthquakes = read(window);
+            if (earthquakes == null) {
+                continue;
+            }
+            for (Earthquake earthquake : earthquakes) {
+                if (EarthquakeSpatialIndex.distanceKm(latitude, longitude,
+                        earthquake.getLatitude(), earthquake.getLongitude()) <= radiusKm
+                        && counted.add(keyOf(earthquake))) {
+                    summary.add(earthquake.getMagnitude());
+                }
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Return statistics of the stored events in [startTime, endTime), read from the windows
+     * overlapping it, so they hold no more than that range's events. Blocks on disk, call it
+     * off the main thread.
+     */
+    public EarthquakeStatistics statistics(long startTime, long endTime) {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        for (Window window : getWindows()) {
+            if (window.mEnd <= startTime || window.mStart >= endTime) {
+                continue;
+            }
+            List<Earthquake> earthquakes = read(window);
+            if (earthquakes == null) {
+                continue;
+            }
+            for (Earthquake earthquake : earthquakes) {
+                long time = earthquake.getTimeInMilliseconds();
+                if (time >= startTime && time < endTime) {
+                    statistics.put(earthquake);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /** Delete every stored window */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static String keyOf(Earthquake earthquake) {
+        return earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+    }
+
+    private File fileFor(Window window) {
+        return new File(mDirectory, window.getName() + WINDOW_SUFFIX);
+    }
+
+    /** Return the floor of an import at minMagnitude, negative infinity for every magnitude */
+    private static double floorOf(double minMagnitude) {
+        return Double.isNaN(minMagnitude) ? Double.NEGATIVE_INFINITY : minMagnitude;
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    /** A stored window, [start, end) imported at a magnitude floor */
+    private static final class Window {
+        final long mStart;
+        final long mEnd;
+        //Negative infinity if every magnitude was imported
+        final double mMinMagnitude;
+
+        Window(long start, long end, double minMagnitude) {
+            mStart = start;
+            mEnd = end;
+            mMinMagnitude = minMagnitude;
+        }
+
+        /** Return the file name without suffix, "start_end_floor" */
+        String getName() {
+            String name = mStart + "_" + mEnd;
+            if (mMinMagnitude == Double.POSITIVE_INFINITY) {
+                //Written before the floor was recorded
+                return name;
+            }
+            return name + "_" + (mMinMagnitude == Double.NEGATIVE_INFINITY
+                    ? ANY_MAGNITUDE : Double.toString(mMinMagnitude));
+        }
+
+        /**
+         * Return the window of a file name, or null for any other file. Names from before the
+         * floor was recorded have an unknown floor, they cover no import and any replaces them.
+         */
+        static Window parse(String name) {
+            if (!name.endsWith(WINDOW_SUFFIX)) {
+                return null;
+            }
+            String window = name.substring(0, name.length() - WINDOW_SUFFIX.length());
+            //Times may be negative, a separator is never the first character of a part
+            int separator = window.indexOf('_', 1);
+            if (separator < 0) {
+                return null;
+            }
+            int floorSeparator = window.indexOf('_', separator + 2);
+            try {
+                long start = Long.parseLong(window.substring(0, separator));
+                if (floorSeparator < 0) {
+                    return new Window(start, Long.parseLong(window.substring(separator + 1)),
+                            Double.POSITIVE_INFINITY);
+                }
+                String floor = window.substring(floorSeparator + 1);
+                return new Window(start,
+                        Long.parseLong(window.substring(separator + 1, floorSeparator)),
+                        ANY_MAGNITUDE.equals(floor)
+                                ? Double.NEGATIVE_INFINITY : Double.parseDouble(floor));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /** Number of stored events matching a query and the strongest magnitude among them */
+    public static final class Summary {
+        private int mCount;
+        private double mMaxMagnitude = Double.NEGATIVE_INFINITY;
+
+        void add(double magnitude) {
+            mCount++;
+            mMaxMagnitude = Math.max(mMaxMagnitude, magnitude);
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Return the strongest magnitude, negative infinity if nothing matched */
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+    }
+}
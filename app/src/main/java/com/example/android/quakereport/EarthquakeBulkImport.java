@@ -0,0 +1,214 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports years of event history into the {@link EarthquakeArchive}. The date range is cut into
+ * time windows, each fetched with one USGS query and streamed straight through the parser on
+ * its own thread of a small pool, so several windows download and parse at once. A window
+ * that comes back holding the USGS maximum number of events may have been cut short, so it is
+ * split in half and both halves are fetched instead.
+ *
+ * Only the windows in flight are held in memory, each written to the archive as soon as it
+ * completes, so memory stays the same however long the range is. Windows the archive already
+ * covers at the same or a lower magnitude floor are skipped, which resumes an import that was
+ * interrupted. Build instances with {@link Builder}.
+ */
+public final class EarthquakeBulkImport {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeBulkImport.class.getSimpleName();
+
+    /** Most events USGS returns for one query */
+    static final int USGS_MAX_LIMIT = 20000;
+
+    /** Windows shorter than this are never split, what they hold is kept even if cut short */
+    private static final long MIN_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    /** Receives progress while an import runs, on the thread that called run() */
+    public interface Listener {
+        /**
+         * Called after each window is stored or skipped. The number of windows grows when one
+         * has to be split.
+         */
+        void onProgress(int windowsDone, int windowsTotal, long eventsImported);
+    }
+
+    private final EarthquakeArchive mArchive;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final double mMinMagnitude;
+    private final long mWindowMillis;
+    private final int mConcurrency;
+
+    private EarthquakeBulkImport(Builder builder) {
+        mArchive = builder.mArchive;
+        mStartTime = builder.mStartTime;
+        mEndTime = builder.mEndTime;
+        mMinMagnitude = builder.mMinMagnitude;
+        mWindowMillis = builder.mWindowMillis;
+        mConcurrency = builder.mConcurrency;
+    }
+
+    /**
+     * Import the whole range, blocking until every window is stored, the token is canceled or
+     * a window fails. Returns true if the archive now covers the range; otherwise running the
+     * same import again picks up the windows still missing.
+     */
+    public boolean run(CancellationToken token, Listener listener) {
+        Deque<long[]> pending = new ArrayDeque<>();
+        for (long start = mStartTime; start < mEndTime; start += mWindowMillis) {
+            pending.add(new long[] {start, Math.min(mEndTime, start + mWindowMillis)});
+        }
+        int windowsTotal = pending.size();
+        int windowsDone = 0;
+        long eventsImported = 0;
+        boolean failed = false;
+
+        ExecutorService executor = Executors.newFixedThreadPool(mConcurrency);
+        CompletionService<Window> completion = new ExecutorCompletionService<>(executor);
+        int inFlight = 0;
+        try {
+            while (!failed && !CancellationToken.isCanceled(token)
+                    && (inFlight > 0 || !pending.isEmpty())) {
+                //Keep every thread busy, but never hold more windows than there are threads
+                while (inFlight < mConcurrency && !pending.isEmpty()) {
+                    long[] window = pending.poll();
+                    if (mArchive.covers(window[0], window[1], mMinMagnitude)) {
+                        windowsDone++;
+                        listener.onProgress(windowsDone, windowsTotal, eventsImported);
+                        continue;
+                    }
+                    completion.submit(new WindowTask(window[0], window[1], token));
+                    inFlight++;
+                }
+                if (inFlight == 0) {
+                    continue;
+                }
+
+                Window window = completion.take().get();
+                inFlight--;
+                if (window.mEarthquakes == null) {
+                    failed = true;
+                } else if (isCutShort(window.mStart, window.mEnd, window.mEarthquakes)) {
+                    //Cut short by the limit, fetch both halves instead
+                    long middle = window.mStart + (window.mEnd - window.mStart) / 2;
+                    pending.addFirst(new long[] {middle, window.mEnd});
+                    pending.addFirst(new long[] {window.mStart, middle});
+                    windowsTotal++;
+                } else {
+                    windowsDone++;
+                    eventsImported += window.mEarthquakes.size();
+                    listener.onProgress(windowsDone, windowsTotal, eventsImported);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem importing a window", e);
+            failed = true;
+        } finally {
+            //Windows still running are dropped, they are fetched again on the next run
+            executor.shutdownNow();
+        }
+        return !failed && !CancellationToken.isCanceled(token) && pending.isEmpty();
+    }
+
+    /** Return true if a window may be missing events past the limit and has to be split */
+    private static boolean isCutShort(long start, long end, List<Earthquake> earthquakes) {
+        return earthquakes.size() >= USGS_MAX_LIMIT && end - start > MIN_WINDOW_MILLIS;
+    }
+
+    /** A fetched window, its events are null if the fetch failed or was canceled */
+    private static final class Window {
+        final long mStart;
+        final long mEnd;
+        final List<Earthquake> mEarthquakes;
+
+        Window(long start, long end, List<Earthquake> earthquakes) {
+            mStart = start;
+            mEnd = end;
+            mEarthquakes = earthquakes;
+        }
+    }
+
+    /** Fetches one window and, unless it has to be split, stores it in the archive */
+    private final class WindowTask implements Callable<Window> {
+        private final long mStart;
+        private final long mEnd;
+        private final CancellationToken mToken;
+
+        WindowTask(long start, long end, CancellationToken token) {
+            mStart = start;
+            mEnd = end;
+            mToken = token;
+        }
+
+        @Override
+        public Window call() throws IOException {
+            //USGS end times are inclusive, windows are not
+            String url = new EarthquakeQuery.Builder()
+                    .setTimeWindow(mStart, mEnd - 1)
+                    .setMagnitudeBand(mMinMagnitude, Double.NaN)
+                    .build()
+                    .toUrl("time-asc", USGS_MAX_LIMIT);
+            EarthquakeCache.Entry response = QueryUtils.fetchEarthquakeData(url, null, mToken);
+            List<Earthquake> earthquakes = response == null ? null : response.getEarthquakes();
+            if (earthquakes != null && !isCutShort(mStart, mEnd, earthquakes)) {
+                mArchive.write(mStart, mEnd, mMinMagnitude, earthquakes);
+            }
+            return new Window(mStart, mEnd, earthquakes);
+        }
+    }
+
+    /** Builds an {@link EarthquakeBulkImport} of the range [startTime, endTime) */
+    public static final class Builder {
+        private final EarthquakeArchive mArchive;
+        private final long mStartTime;
+        private final long mEndTime;
+        private double mMinMagnitude = Double.NaN;
+        private long mWindowMillis = 30L * 24 * 60 * 60 * 1000;
+        private int mConcurrency = 3;
+
+        /** Import every event between two epoch milliseconds into archive */
+        public Builder(EarthquakeArchive archive, long startTime, long endTime) {
+            mArchive = archive;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        /** Only import events of at least this magnitude, NaN for every event */
+        public Builder setMinMagnitude(double minMagnitude) {
+            mMinMagnitude = minMagnitude;
+            return this;
+        }
+
+        /** Length of the windows the range is cut into before any is split */
+        public Builder setWindowMillis(long windowMillis) {
+            mWindowMillis = windowMillis;
+            return this;
+        }
+
+        /** Most windows fetched at once */
+        public Builder setConcurrency(int concurrency) {
+            mConcurrency = Math.max(1, concurrency);
+            return this;
+        }
+
+        public EarthquakeBulkImport build() {
+            return new EarthquakeBulkImport(this);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent on-device cache of parsed {@link Earthquake} lists, one file per query URL, each
+ * holding an {@link EarthquakeSnapshot} so a hit is a bulk read rather than a JSON parse.
+ * Each entry keeps the ETag and Last-Modified validators of the response it came from so it can
+ * be revalidated with a conditional request. Files are evicted least recently used first once
+ * the cache grows past its size cap.
+ */
+public final class EarthquakeCache {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    /** Name of the directory, inside the app cache directory, holding the entries */
+    private static final String CACHE_DIR_NAME = "earthquakes";
+
+    /** Total size of all entries above which the least recently used ones are deleted */
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /** Bumped whenever the entry file layout changes, older files are then ignored */
+    private static final int ENTRY_VERSION = 3;
+
+    /** Position of the revalidation time in an entry file, right after the version */
+    private static final int VALIDATED_AT_OFFSET = 4;
+
+    private static EarthquakeCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /** A cached response: the parsed events plus the validators sent along with them */
+    public static final class Entry {
+        private final List<Earthquake> mEarthquakes;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mValidatedAtMillis;
+
+        /** Create an entry for a response that was just received */
+        public Entry(List<Earthquake> earthquakes, String eTag, String lastModified) {
+            this(earthquakes, eTag, lastModified, System.currentTimeMillis());
+        }
+
+        Entry(List<Earthquake> earthquakes, String eTag, String lastModified,
+              long validatedAtMillis) {
+            mEarthquakes = earthquakes;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mValidatedAtMillis = validatedAtMillis;
+        }
+
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /** Value of the response ETag header, or null if the server sent none */
+        public String getETag() {
+            return mETag;
+        }
+
+        /** Value of the response Last-Modified header, or null if the server sent none */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /** Time the server last confirmed these events, by sending or revalidating them */
+        public long getValidatedAtMillis() {
+            return mValidatedAtMillis;
+        }
+    }
+
+    /** Return the cache shared by the whole app, stored in the app cache directory */
+    public static synchronized EarthquakeCache getInstance(Context context) {
+        if (sInstance == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+            sInstance = new EarthquakeCache(directory, MAX_CACHE_BYTES);
+        }
+        return sInstance;
+    }
+
+    public EarthquakeCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /** Return the entry cached for this query URL, or null if there is none or it is unreadable */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        Entry entry = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            entry = readEntry(in, file.length());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading cached earthquakes, dropping entry", e);
+        } finally {
+            closeQuietly(in);
+        }
+        if (entry == null) {
+            file.delete();
+            return null;
+        }
+        //Mark as most recently used
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /** Store the entry for this query URL, replacing any previous one */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create cache directory " + mDirectory);
+            return;
+        }
+        File file = fileFor(url);
+        //Write to a temporary file first so a crash never leaves a half written entry behind
+        File tempFile = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            writeEntry(out, entry);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing cached earthquakes", e);
+            tempFile.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        trimToSize();
+    }
+
+    /**
+     * Mark the entry for this query URL as revalidated just now and most recently used, e.g.
+     * after a 304 response
+     */
+    public synchronized void touch(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(file, "rw");
+            out.seek(VALIDATED_AT_OFFSET);
+            out.writeLong(now);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem updating cached earthquakes", e);
+        } finally {
+            closeQuietly(out);
+        }
+        file.setLastModified(now);
+    }
+
+    /** Delete least recently used entries until the total size fits under the cap */
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= mMaxBytes) {
+            return;
+        }
+        List<File> byLastUse = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(byLastUse, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (File file : byLastUse) {
+            if (totalBytes <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, sha1Hex(normalizeUrl(url)));
+    }
+
+    /**
+     * Normalize a query URL so the same query always maps to the same entry: the host is
+     * lower-cased and the query parameters are sorted by name.
+     */
+    static String normalizeUrl(String url) {
+        Uri uri = Uri.parse(url);
+        List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        Collections.sort(names);
+        StringBuilder normalized = new StringBuilder();
+        normalized.append(uri.getScheme()).append("://");
+        if (uri.getEncodedAuthority() != null) {
+            normalized.append(uri.getEncodedAuthority().toLowerCase());
+        }
+        if (uri.getEncodedPath() != null) {
+            normalized.append(uri.getEncodedPath());
+        }
+        char separator = '?';
+        for (String name : names) {
+            for (String value : uri.getQueryParameters(name)) {
+                normalized.append(separator).append(name).append('=').append(value);
+                separator = '&';
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static String sha1Hex(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every Android device ships SHA-1, fall back to the plain hash just in case
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeInt(ENTRY_VERSION);
+        out.writeLong(entry.getValidatedAtMillis());
+        out.writeUTF(entry.getETag() == null ? "" : entry.getETag());
+        out.writeUTF(entry.getLastModified() == null ? "" : entry.getLastModified());
+        byte[] snapshot = EarthquakeSnapshot.encode(entry.getEarthquakes());
+        out.writeInt(snapshot.length);
+        out.write(snapshot);
+    }
+
+    /** Read an entry, returning null if it was written by a different version or is corrupt */
+    private static Entry readEntry(DataInputStream in, long fileLength) throws IOException {
+        if (in.readInt() != ENTRY_VERSION) {
+            return null;
+        }
+        long validatedAtMillis = in.readLong();
+        String eTag = in.readUTF();
+        String lastModified = in.readUTF();
+        int snapshotLength = in.readInt();
+        if (snapshotLength < 0 || snapshotLength > fileLength) {
+            return null;
+        }
+        //Read the snapshot in one go and decode it straight from memory
+        byte[] snapshot = new byte[snapshotLength];
+        in.readFully(snapshot);
+        List<Earthquake> earthquakes = EarthquakeSnapshot.decode(snapshot, 0, snapshotLength);
+        if (earthquakes == null) {
+            return null;
+        }
+        return new Entry(earthquakes, eTag.isEmpty() ? null : eTag,
+                lastModified.isEmpty() ? null : lastModified, validatedAtMillis);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem closing cache file", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pre-aggregated clusters of events for zoomed-out map views. Events are binned into the
+ * standard web map tile grid at every zoom level from 0 to {@link #MAX_ZOOM}, and each tile
+ * keeps its event count, strongest magnitude, latest time and centroid, so a view of the whole
+ * world draws a few hundred clusters instead of every event.
+ *
+ * Only the deepest level holds the events themselves. Adding an event folds it into its tile
+ * at every level, and removing one subtracts it again. Only a tile whose strongest magnitude or
+ * latest time came from the removed event is recomputed, the deepest from its events and each
+ * coarser one from its four children. A copy that changes nothing clustered is not refolded.
+ * Clusters are colored by their strongest magnitude with
+ * {@link EarthquakeRowFormatter#getMagnitudeColor(double)}.
+ *
+ * Each event is held once, keyed by its USGS id (or its url when it has none). Events without
+ * coordinates are not clustered. Not thread-safe.
+ */
+public final class EarthquakeClusterTiles {
+
+    /** Deepest zoom level aggregated, its tiles are about 1.4 degrees wide */
+    public static final int MAX_ZOOM = 8;
+
+    /** Web map tiles stop short of the poles at this latitude */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    //Tiles holding at least one event at each zoom level, keyed by tileKey(x, y)
+    private final List<Map<Long, Cluster>> mLevels = new ArrayList<>(MAX_ZOOM + 1);
+
+    //Every clustered event by id, or by url for events without one
+    private final Map<String, Earthquake> mEarthquakesByKey = new HashMap<>();
+
+    public EarthquakeClusterTiles() {
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            mLevels.add(new HashMap<Long, Cluster>());
+        }
+    }
+
+    /**
+     * Cluster an event, replacing the clustered copy of the same event. Returns false if the
+     * event has no coordinates and was left out.
+     */
+    public boolean put(Earthquake earthquake) {
+        String key = keyOf(earthquake);
+        if (Double.isNaN(earthquake.getLatitude()) || Double.isNaN(earthquake.getLongitude())) {
+            remove(key);
+            return false;
+        }
+        Earthquake held = mEarthquakesByKey.put(key, earthquake);
+        if (held != null) {
+            if (held.getLatitude() == earthquake.getLatitude()
+                    && held.getLongitude() == earthquake.getLongitude()
+                    && held.getMagnitude() == earthquake.getMagnitude()
+                    && held.getTimeInMilliseconds() == earthquake.getTimeInMilliseconds()) {
+                //Nothing the clusters hold changed, only the copy kept in the leaf
+                Cluster leaf = clusterAt(MAX_ZOOM, tileX(held.getLongitude(), MAX_ZOOM),
+                        tileY(held.getLatitude(), MAX_ZOOM), false);
+                leaf.mEarthquakes.remove(held);
+                leaf.mEarthquakes.add(earthquake);
+                return true;
+            }
+            unlink(held);
+        }
+        int x = tileX(earthquake.getLongitude(), MAX_ZOOM);
+        int y = tileY(earthquake.getLatitude(), MAX_ZOOM);
+        for (int zoom = MAX_ZOOM; zoom >= 0; zoom--) {
+            int shift = MAX_ZOOM - zoom;
+            Cluster cluster = clusterAt(zoom, x >> shift, y >> shift, true);
+            cluster.add(earthquake);
+            if (zoom == MAX_ZOOM) {
+                cluster.mEarthquakes.add(earthquake);
+            }
+        }
+        return true;
+    }
+
+    /** Cluster every event of a batch, see {@link #put(Earthquake)} */
+    public void putAll(List<Earthquake> earthquakes) {
+        for (int i = 0; i < earthquakes.size(); i++) {
+            put(earthquakes.get(i));
+        }
+    }
+
+    /** Remove the event with this id or url, returns false if it was not clustered */
+    public boolean remove(String key) {
+        Earthquake removed = mEarthquakesByKey.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        unlink(removed);
+        return true;
+    }
+
+    /**
+     * Take an event out of its tile at every level. Count and centroid are updated by
+     * subtracting it; strongest magnitude and latest time can't be taken back out of a total,
+     * so they are only recomputed in the tiles where the event set them.
+     */
+    private void unlink(Earthquake earthquake) {
+        int x = tileX(earthquake.getLongitude(), MAX_ZOOM);
+        int y = tileY(earthquake.getLatitude(), MAX_ZOOM);
+        double magnitude = earthquake.getMagnitude();
+        long time = earthquake.getTimeInMilliseconds();
+        for (int zoom = MAX_ZOOM; zoom >= 0; zoom--) {
+            int shift = MAX_ZOOM - zoom;
+            int tileX = x >> shift;
+            int tileY = y >> shift;
+            Cluster cluster = clusterAt(zoom, tileX, tileY, false);
+            boolean extremeChanged = cluster.mMaxMagnitude == magnitude
+                    || cluster.mLatestTime == time;
+            cluster.subtract(earthquake);
+            if (zoom == MAX_ZOOM) {
+                cluster.mEarthquakes.remove(earthquake);
+            }
+            if (cluster.mCount == 0) {
+                mLevels.get(zoom).remove(tileKey(tileX, tileY));
+            } else if (extremeChanged) {
+                //Deepest tiles from their events, coarser ones from their four children
+                cluster.mMaxMagnitude = Double.NEGATIVE_INFINITY;
+                cluster.mLatestTime = Long.MIN_VALUE;
+                if (zoom == MAX_ZOOM) {
+                    for (Earthquake held : cluster.mEarthquakes) {
+                        cluster.takeExtremes(held.getMagnitude(), held.getTimeInMilliseconds());
+                    }
+                } else {
+                    for (int child = 0; child < 4; child++) {
+                        Cluster childCluster = clusterAt(zoom + 1, tileX * 2 + (child & 1),
+                                tileY * 2 + (child >> 1), false);
+                        if (childCluster != null) {
+                            cluster.takeExtremes(childCluster.mMaxMagnitude,
+                                    childCluster.mLatestTime);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Remove every event */
+    public void clear() {
+        for (Map<Long, Cluster> level : mLevels) {
+            level.clear();
+        }
+        mEarthquakesByKey.clear();
+    }
+
+    /**
+     * Return the clusters of a zoom level inside a viewport, bounds in degrees. A viewport
+     * crossing the antimeridian has a minLongitude greater than its maxLongitude. Zoom levels
+     * past {@link #MAX_ZOOM} return the deepest clusters.
+     */
+    public List<Cluster> query(int zoom, double minLatitude, double maxLatitude,
+                               double minLongitude, double maxLongitude) {
+        zoom = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        Map<Long, Cluster> level = mLevels.get(zoom);
+        int minX = tileX(minLongitude, zoom);
+        int maxX = tileX(maxLongitude, zoom);
+        int minY = tileY(maxLatitude, zoom);
+        int maxY = tileY(minLatitude, zoom);
+        boolean wraps = minLongitude > maxLongitude;
+        int tiles = 1 << zoom;
+        long columns = wraps ? tiles - minX + maxX + 1 : maxX - minX + 1;
+
+        List<Cluster> clusters = new ArrayList<>();
+        //Walk whichever is smaller, the viewport's tiles or the tiles holding events
+        if (columns * (maxY - minY + 1) > level.size()) {
+            for (Cluster cluster : level.values()) {
+                boolean inColumns = wraps
+                        ? cluster.mX >= minX || cluster.mX <= maxX
+                        : cluster.mX >= minX && cluster.mX <= maxX;
+                if (inColumns && cluster.mY >= minY && cluster.mY <= maxY) {
+                    clusters.add(cluster);
+                }
+            }
+            return clusters;
+        }
+        for (long column = 0; column < columns; column++) {
+            int x = (int) ((minX + column) % tiles);
+            for (int y = minY; y <= maxY; y++) {
+                Cluster cluster = level.get(tileKey(x, y));
+                if (cluster != null) {
+                    clusters.add(cluster);
+                }
+            }
+        }
+        return clusters;
+    }
+
+    private Cluster clusterAt(int zoom, int x, int y, boolean create) {
+        Map<Long, Cluster> level = mLevels.get(zoom);
+        long key = tileKey(x, y);
+        Cluster cluster = level.get(key);
+        if (cluster == null && create) {
+            cluster = new Cluster(zoom, x, y);
+            level.put(key, cluster);
+        }
+        return cluster;
+    }
+
+    private static int tileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        int x = (int) Math.floor((longitude + 180) / 360 * tiles);
+        return Math.max(0, Math.min(tiles - 1, x));
+    }
+
+    private static int tileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double clamped = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        double mercator = Math.log(Math.tan(clamped) + 1 / Math.cos(clamped));
+        int y = (int) Math.floor((1 - mercator / Math.PI) / 2 * tiles);
+        return Math.max(0, Math.min(tiles - 1, y));
+    }
+
+    private static long tileKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static String keyOf(Earthquake earthquake) {
+        return earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+    }
+
+    /** Aggregate of the events inside one tile */
+    public static final class Cluster {
+        private final int mZoom;
+        private final int mX;
+        private final int mY;
+        private int mCount;
+        private double mMaxMagnitude;
+        private long mLatestTime;
+        private double mLatitudeSum;
+        private double mLongitudeSum;
+        //Events inside the tile, only kept at the deepest level
+        private final Set<Earthquake> mEarthquakes = new HashSet<>();
+
+        Cluster(int zoom, int x, int y) {
+            mZoom = zoom;
+            mX = x;
+            mY = y;
+            reset();
+        }
+
+        public int getZoom() {
+            return mZoom;
+        }
+
+        /** Return the tile column, counted eastwards from the antimeridian */
+        public int getX() {
+            return mX;
+        }
+
+        /** Return the tile row, counted southwards from the top of the map */
+        public int getY() {
+            return mY;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+
+        public long getLatestTimeInMilliseconds() {
+            return mLatestTime;
+        }
+
+        /** Return the mean latitude of the events, where the cluster is drawn */
+        public double getLatitude() {
+            return mLatitudeSum / mCount;
+        }
+
+        /** Return the mean longitude of the events, where the cluster is drawn */
+        public double getLongitude() {
+            return mLongitudeSum / mCount;
+        }
+
+        private void reset() {
+            mCount = 0;
+            mMaxMagnitude = Double.NEGATIVE_INFINITY;
+            mLatestTime = Long.MIN_VALUE;
+            mLatitudeSum = 0;
+            mLongitudeSum = 0;
+        }
+
+        private void add(Earthquake earthquake) {
+            mCount++;
+            mLatitudeSum += earthquake.getLatitude();
+            mLongitudeSum += earthquake.getLongitude();
+            takeExtremes(earthquake.getMagnitude(), earthquake.getTimeInMilliseconds());
+        }
+
+        /** Take an event out of the count and centroid, leaving the extremes to the caller */
+        private void subtract(Earthquake earthquake) {
+            mCount--;
+            mLatitudeSum -= earthquake.getLatitude();
+            mLongitudeSum -= earthquake.getLongitude();
+        }
+
+        private void takeExtremes(double magnitude, long time) {
+            mMaxMagnitude = Math.max(mMaxMagnitude, magnitude);
+            mLatestTime = Math.max(mLatestTime, time);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Helpers for delta sync: instead of fetching the whole feed again, ask USGS only for events
+ * updated since the newest update already held, and merge them into the held events by id.
+ */
+public final class EarthquakeDeltaSync {
+
+    /** Timestamp format accepted by the USGS "starttime" and "updatedafter" parameters */
+    private static final String USGS_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS";
+
+    private EarthquakeDeltaSync() {
+    }
+
+    /**
+     * Build the delta query for events already held from queryUrl. The query keeps the same
+     * filters, drops paging, and adds "starttime" at the oldest held event and "updatedafter"
+     * just past the newest held update. Returns null if the held events can't be merged by id.
+     */
+    public static String buildDeltaUrl(String queryUrl, List<Earthquake> held) {
+        if (held == null || held.isEmpty()) {
+            return null;
+        }
+        long minTime = Long.MAX_VALUE;
+        long maxUpdated = Long.MIN_VALUE;
+        for (Earthquake earthquake : held) {
+            if (earthquake.getId() == null) {
+                return null;
+            }
+            minTime = Math.min(minTime, earthquake.getTimeInMilliseconds());
+            maxUpdated = Math.max(maxUpdated, earthquake.getUpdatedInMilliseconds());
+        }
+
+        Uri uri = Uri.parse(queryUrl);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if ("offset".equals(name) || "limit".equals(name)
+                    || "starttime".equals(name) || "updatedafter".equals(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter("starttime", formatUsgsTime(minTime));
+        builder.appendQueryParameter("updatedafter", formatUsgsTime(maxUpdated + 1));
+        return builder.build().toString();
+    }
+
+    /**
+     * Merge delta into held and sort the result by the USGS orderBy value. Held events are the
+     * leading part of the server's answer in that order, so the merge keeps them exactly that:
+     * events with a known id replace the held copy, and any event, new or updated, is only kept
+     * if it sorts no later than the last held event. If held is the complete answer every delta
+     * event is kept. Neither input list is modified.
+     */
+    public static List<Earthquake> merge(List<Earthquake> held, List<Earthquake> delta,
+                                         String orderBy, boolean complete) {
+        List<Earthquake> merged = new ArrayList<>(held);
+        if (delta.isEmpty() || held.isEmpty()) {
+            return merged;
+        }
+        Comparator<Earthquake> comparator = comparatorFor(orderBy);
+        //Last held event in the server's order, anything sorting after it is on a later page
+        Earthquake last = held.get(0);
+        Map<String, Integer> indexById = new HashMap<>();
+        for (int i = 0; i < merged.size(); i++) {
+            Earthquake earthquake = merged.get(i);
+            indexById.put(earthquake.getId(), i);
+            if (comparator.compare(earthquake, last) > 0) {
+                last = earthquake;
+            }
+        }
+        boolean replaced = false;
+        for (Earthquake earthquake : delta) {
+            boolean inRange = complete || comparator.compare(earthquake, last) <= 0;
+            Integer index = indexById.get(earthquake.getId());
+            if (index != null) {
+                //An update may move the event past the last held one, it is paged in again there
+                merged.set(index, inRange ? earthquake : null);
+                replaced |= !inRange;
+            } else if (inRange) {
+                indexById.put(earthquake.getId(), merged.size());
+                merged.add(earthquake);
+            }
+        }
+        if (replaced) {
+            merged.removeAll(Collections.singleton(null));
+        }
+        Collections.sort(merged, comparator);
+        return merged;
+    }
+
+    /** Return the comparator matching a USGS "orderby" value, newest first by default */
+    public static Comparator<Earthquake> comparatorFor(String orderBy) {
+        if ("magnitude".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return Double.compare(b.getMagnitude(), a.getMagnitude());
+                }
+            };
+        } else if ("magnitude-asc".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return Double.compare(a.getMagnitude(), b.getMagnitude());
+                }
+            };
+        } else if ("time-asc".equals(orderBy)) {
+            return new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake a, Earthquake b) {
+                    return compareLongs(a.getTimeInMilliseconds(), b.getTimeInMilliseconds());
+                }
+            };
+        }
+        return new Comparator<Earthquake>() {
+            @Override
+            public int compare(Earthquake a, Earthquake b) {
+                return compareLongs(b.getTimeInMilliseconds(), a.getTimeInMilliseconds());
+            }
+        };
+    }
+
+    /** Format epoch milliseconds as a UTC timestamp USGS accepts in its query parameters */
+    public static String formatUsgsTime(long timeInMilliseconds) {
+        SimpleDateFormat format = new SimpleDateFormat(USGS_TIME_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Parse a UTC timestamp as written in USGS query parameters, with or without a time of day,
+     * into epoch milliseconds. Returns defaultValue if it can't be parsed.
+     */
+    public static long parseUsgsTime(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        String[] patterns = {USGS_TIME_FORMAT, "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd"};
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date.getTime();
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * What the in-app detail view shows for one event, read from the USGS per-event detail GeoJSON.
+ * That document also lists every product USGS holds for the event (ShakeMap, PAGER, phase
+ * data...), often hundreds of kilobytes for a large event, which {@link #read(InputStream)}
+ * skips without building it.
+ */
+public final class EarthquakeDetail {
+
+    private String mId;
+    private String mTitle;
+    private String mPlace;
+    private double mMagnitude = Double.NaN;
+    private String mMagnitudeType;
+    private long mTimeInMilliseconds;
+    private long mUpdatedInMilliseconds;
+    //Epicenter in degrees and depth in kilometers, NaN if unknown
+    private double mLatitude = Double.NaN;
+    private double mLongitude = Double.NaN;
+    private double mDepth = Double.NaN;
+    //Number of "Did You Feel It?" reports, -1 if unknown
+    private int mFeltReports = -1;
+    //Highest reported (DYFI) and ShakeMap estimated intensity on the MMI scale, NaN if unknown
+    private double mReportedIntensity = Double.NaN;
+    private double mEstimatedIntensity = Double.NaN;
+    //PAGER alert level, i.e. "green" or "red", null if none was issued
+    private String mAlert;
+    //"automatic" or "reviewed"
+    private String mStatus;
+    private boolean mTsunami;
+    private int mSignificance;
+    //url of the USGS event page
+    private String mUrl;
+
+    private EarthquakeDetail() {
+    }
+
+    /** Return the URL of the detail GeoJSON of the event with this USGS id */
+    public static String detailUrl(String id) {
+        //The "detail" url USGS puts in every feature is this query, so it is built from the id
+        //instead of being stored with every event
+        return Uri.parse(EarthquakeQuery.USGS_QUERY_URL).buildUpon()
+                .appendQueryParameter("eventid", id)
+                .appendQueryParameter("format", "geojson")
+                .build().toString();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /** Return the USGS title, i.e. "M 6.1 - 120 km NNE of Neiafu, Tonga" */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getPlace() {
+        return mPlace;
+    }
+
+    /** Return the magnitude, NaN if unknown */
+    public double getMagnitude() {
+        return mMagnitude;
+    }
+
+    /** Return the magnitude type, i.e. "mww" or "ml", null if unknown */
+    public String getMagnitudeType() {
+        return mMagnitudeType;
+    }
+
+    public long getTimeInMilliseconds() {
+        return mTimeInMilliseconds;
+    }
+
+    public long getUpdatedInMilliseconds() {
+        return mUpdatedInMilliseconds;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /** Return the number of "Did You Feel It?" reports, -1 if unknown */
+    public int getFeltReports() {
+        return mFeltReports;
+    }
+
+    /** Return the highest intensity people reported, MMI, NaN if unknown */
+    public double getReportedIntensity() {
+        return mReportedIntensity;
+    }
+
+    /** Return the highest intensity ShakeMap estimates, MMI, NaN if unknown */
+    public double getEstimatedIntensity() {
+        return mEstimatedIntensity;
+    }
+
+    /** Return the PAGER alert level, i.e. "green" or "red", null if none was issued */
+    public String getAlert() {
+        return mAlert;
+    }
+
+    /** Return "automatic" or "reviewed", null if unknown */
+    public String getStatus() {
+        return mStatus;
+    }
+
+    /** Return true if the event may have caused a tsunami */
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+
+    /** Return the USGS significance, higher is more significant */
+    public int getSignificance() {
+        return mSignificance;
+    }
+
+    /** Return the url of the USGS event page */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /** Return roughly how many bytes this detail holds on the heap */
+    int estimateBytes() {
+        //Object header and fields, plus two bytes per character of each string
+        return 128 + 2 * (length(mId) + length(mTitle) + length(mPlace) + length(mMagnitudeType)
+                + length(mAlert) + length(mStatus) + length(mUrl));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /** Read a detail GeoJSON document, a single feature */
+    static EarthquakeDetail read(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        EarthquakeDetail detail = new EarthquakeDetail();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader, detail);
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, detail);
+            } else if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                detail.mId = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return detail;
+    }
+
+    /** Read the fields shown from the properties object, skipping "products" */
+    private static void readProperties(JsonReader reader, EarthquakeDetail detail)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            //USGS sends null for fields it does not know, keep the defaults for those
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("title".equals(name)) {
+                detail.mTitle = reader.nextString();
+            } else if ("place".equals(name)) {
+                detail.mPlace = reader.nextString();
+            } else if ("mag".equals(name)) {
+                detail.mMagnitude = reader.nextDouble();
+            } else if ("magType".equals(name)) {
+                detail.mMagnitudeType = reader.nextString();
+            } else if ("time".equals(name)) {
+                detail.mTimeInMilliseconds = reader.nextLong();
+            } else if ("updated".equals(name)) {
+                detail.mUpdatedInMilliseconds = reader.nextLong();
+            } else if ("felt".equals(name)) {
+                detail.mFeltReports = reader.nextInt();
+            } else if ("cdi".equals(name)) {
+                detail.mReportedIntensity = reader.nextDouble();
+            } else if ("mmi".equals(name)) {
+                detail.mEstimatedIntensity = reader.nextDouble();
+            } else if ("alert".equals(name)) {
+                detail.mAlert = reader.nextString();
+            } else if ("status".equals(name)) {
+                detail.mStatus = reader.nextString();
+            } else if ("tsunami".equals(name)) {
+                detail.mTsunami = reader.nextInt() != 0;
+            } else if ("sig".equals(name)) {
+                detail.mSignificance = reader.nextInt();
+            } else if ("url".equals(name)) {
+                detail.mUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /** Read longitude, latitude and depth from the Point geometry "coordinates" */
+    private static void readGeometry(JsonReader reader, EarthquakeDetail detail)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                int index = 0;
+                while (reader.hasNext()) {
+                    if (reader.peek() != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if (index == 0) {
+                        detail.mLongitude = reader.nextDouble();
+                    } else if (index == 1) {
+                        detail.mLatitude = reader.nextDouble();
+                    } else if (index == 2) {
+                        detail.mDepth = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                    index++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.GradientDrawable;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.TextView;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Detail screen of one earthquake, filled from the USGS detail GeoJSON held by the
+ * {@link EarthquakeDetailCache}. What the list row already knows is shown at once, the rest as
+ * soon as the detail is loaded, which for a prefetched event is right away. The loaded events
+ * nearest the epicenter are listed from the {@link EarthquakeQueryEngine}'s spatial index, the
+ * region around it summarized from its cluster tiles, and the imported history around it read
+ * from the {@link EarthquakeArchive} in the background. The USGS web page is one tap away for
+ * anything the screen does not show.
+ */
+public class EarthquakeDetailActivity extends AppCompatActivity
+        implements EarthquakeDetailCache.Listener {
+
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_PLACE = "place";
+    private static final String EXTRA_MAGNITUDE = "magnitude";
+    private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_LATITUDE = "latitude";
+    private static final String EXTRA_LONGITUDE = "longitude";
+
+    /** Most nearby events listed */
+    private static final int NEARBY_COUNT = 5;
+
+    /** Events further away than this are not listed as nearby */
+    private static final double NEARBY_RADIUS_KM = 500;
+
+    /** Map zoom level of the region summarized, its tiles are about 11 degrees wide */
+    private static final int REGION_ZOOM = 5;
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("LLL dd, yyyy hh:mm a");
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+
+    private String mId;
+    private String mUrl;
+
+    //Lines about the loaded events around the epicenter, and about the imported history
+    private String mNearbyLines = "";
+    private String mHistoryLine = "";
+
+    //Epicenter the history was read around, and the token of the read in progress
+    private double mHistoryLatitude = Double.NaN;
+    private double mHistoryLongitude = Double.NaN;
+    private CancellationToken mHistoryRead;
+
+    /** Return an intent showing the detail of an earthquake, which must have an id */
+    public static Intent newIntent(Context context, Earthquake earthquake) {
+        return new Intent(context, EarthquakeDetailActivity.class)
+                .putExtra(EXTRA_ID, earthquake.getId())
+                .putExtra(EXTRA_URL, earthquake.getUrl())
+                .putExtra(EXTRA_PLACE, earthquake.getLocation())
+                .putExtra(EXTRA_MAGNITUDE, earthquake.getMagnitude())
+                .putExtra(EXTRA_TIME, earthquake.getTimeInMilliseconds())
+                .putExtra(EXTRA_LATITUDE, earthquake.getLatitude())
+                .putExtra(EXTRA_LONGITUDE, earthquake.getLongitude());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.detail_activity);
+
+        //Show what the list row knew while the detail loads
+        Intent intent = getIntent();
+        mId = intent.getStringExtra(EXTRA_ID);
+        mUrl = intent.getStringExtra(EXTRA_URL);
+        showSummary(intent.getStringExtra(EXTRA_PLACE),
+                intent.getDoubleExtra(EXTRA_MAGNITUDE, 0),
+                intent.getLongExtra(EXTRA_TIME, 0));
+        showNearby(intent.getDoubleExtra(EXTRA_LATITUDE, Double.NaN),
+                intent.getDoubleExtra(EXTRA_LONGITUDE, Double.NaN));
+
+        findViewById(R.id.detail_web_button).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (mUrl != null) {
+                    startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(mUrl)));
+                }
+            }
+        });
+
+        //Answered at once if the detail was prefetched or opened before
+        EarthquakeDetailCache.getInstance().load(mId, this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        EarthquakeDetailCache.getInstance().removeListener(this);
+        if (mHistoryRead != null) {
+            mHistoryRead.cancel();
+        }
+    }
+
+    @Override
+    public void onDetailLoaded(String id, EarthquakeDetail detail) {
+        if (isFinishing()) {
+            return;
+        }
+        findViewById(R.id.detail_progress).setVisibility(View.GONE);
+        TextView fieldsView = (TextView) findViewById(R.id.detail_fields);
+        if (detail == null) {
+            fieldsView.setText(R.string.detail_unavailable);
+            return;
+        }
+        //USGS may have updated the event since the list was loaded
+        showSummary(detail.getPlace(), detail.getMagnitude(), detail.getTimeInMilliseconds());
+        if (detail.getUrl() != null) {
+            mUrl = detail.getUrl();
+        }
+        fieldsView.setText(formatFields(detail));
+        showNearby(detail.getLatitude(), detail.getLongitude());
+    }
+
+    /**
+     * List the loaded events nearest the epicenter and summarize the region and the imported
+     * history around it, if the epicenter is known
+     */
+    private void showNearby(double latitude, double longitude) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return;
+        }
+        EarthquakeQueryEngine engine = EarthquakeQueryEngine.getInstance();
+        StringBuilder lines = new StringBuilder();
+        //The tile holding the epicenter, already aggregated
+        List<EarthquakeClusterTiles.Cluster> region =
+                engine.queryClusters(REGION_ZOOM, latitude, latitude, longitude, longitude);
+        if (!region.isEmpty() && region.get(0).getCount() > 1) {
+            appendLine(lines, getString(R.string.detail_region, region.get(0).getCount(),
+                    mMagnitudeFormat.format(region.get(0).getMaxMagnitude())));
+        }
+        //One more than listed, the event shown is usually the nearest
+        List<Earthquake> nearest = engine.nearest(latitude, longitude, NEARBY_COUNT + 1);
+        int listed = 0;
+        for (int i = 0; i < nearest.size() && listed < NEARBY_COUNT; i++) {
+            Earthquake earthquake = nearest.get(i);
+            double distanceKm = EarthquakeSpatialIndex.distanceKm(latitude, longitude,
+                    earthquake.getLatitude(), earthquake.getLongitude());
+            if (distanceKm > NEARBY_RADIUS_KM) {
+                break;
+            }
+            if (mId != null && mId.equals(earthquake.getId())) {
+                continue;
+            }
+            appendLine(lines, getString(R.string.detail_nearby_event,
+                    mMagnitudeFormat.format(earthquake.getMagnitude()), distanceKm,
+                    earthquake.getLocation()));
+            listed++;
+        }
+        mNearbyLines = lines.toString();
+        updateNearby();
+        readHistory(latitude, longitude);
+    }
+
+    /**
+     * Summarize the imported history around the epicenter on a background thread, the event
+     * shown itself included if it was imported. Nothing is read again for the same epicenter.
+     */
+    private void readHistory(final double latitude, final double longitude) {
+        if (latitude == mHistoryLatitude && longitude == mHistoryLongitude) {
+            return;
+        }
+        mHistoryLatitude = latitude;
+        mHistoryLongitude = longitude;
+        if (mHistoryRead != null) {
+            mHistoryRead.cancel();
+        }
+        final CancellationToken token = new CancellationToken();
+        mHistoryRead = token;
+        final EarthquakeArchive archive = EarthquakeArchive.getInstance(this);
+        new Thread("EarthquakeDetailActivity") {
+            @Override
+            public void run() {
+                final EarthquakeArchive.Summary history =
+                        archive.summarizeRadius(latitude, longitude, NEARBY_RADIUS_KM, token);
+                if (history == null) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (token.isCanceled()) {
+                            return;
+                        }
+                        mHistoryLine = history.getCount() == 0 ? ""
+                                : getString(R.string.detail_history, history.getCount(),
+                                mMagnitudeFormat.format(history.getMaxMagnitude()));
+                        updateNearby();
+                    }
+                });
+            }
+        }.start();
+    }
+
+    /** Show the nearby lines and the history line, hiding the section if both are empty */
+    private void updateNearby() {
+        StringBuilder lines = new StringBuilder(mNearbyLines);
+        if (!mHistoryLine.isEmpty()) {
+            appendLine(lines, mHistoryLine);
+        }
+        int visibility = lines.length() > 0 ? View.VISIBLE : View.GONE;
+        findViewById(R.id.detail_nearby_title).setVisibility(visibility);
+        TextView nearbyView = (TextView) findViewById(R.id.detail_nearby);
+        nearbyView.setVisibility(visibility);
+        nearbyView.setText(lines.toString());
+    }
+
+    /** Show the place, magnitude and time of the event */
+    private void showSummary(String place, double magnitude, long timeInMilliseconds) {
+        ((TextView) findViewById(R.id.detail_place)).setText(place);
+        ((TextView) findViewById(R.id.detail_time))
+                .setText(mDateFormat.format(new Date(timeInMilliseconds)));
+        TextView magnitudeView = (TextView) findViewById(R.id.detail_magnitude);
+        if (Double.isNaN(magnitude)) {
+            magnitudeView.setText("");
+            return;
+        }
+        magnitudeView.setText(mMagnitudeFormat.format(magnitude));
+        ((GradientDrawable) magnitudeView.getBackground())
+                .setColor(new EarthquakeRowFormatter(this).getMagnitudeColor(magnitude));
+    }
+
+    /** Return one line for each field USGS knows, leaving out the ones it does not */
+    private String formatFields(EarthquakeDetail detail) {
+        StringBuilder fields = new StringBuilder();
+        if (!Double.isNaN(detail.getMagnitude())) {
+            appendLine(fields, getString(R.string.detail_magnitude,
+                    mMagnitudeFormat.format(detail.getMagnitude()),
+                    detail.getMagnitudeType() == null ? "" : detail.getMagnitudeType()));
+        }
+        if (!Double.isNaN(detail.getLatitude()) && !Double.isNaN(detail.getLongitude())) {
+            appendLine(fields, getString(R.string.detail_coordinates,
+                    detail.getLatitude(), detail.getLongitude()));
+        }
+        if (!Double.isNaN(detail.getDepth())) {
+            appendLine(fields, getString(R.string.detail_depth, detail.getDepth()));
+        }
+        if (detail.getFeltReports() >= 0) {
+            appendLine(fields, getString(R.string.detail_felt, detail.getFeltReports()));
+        }
+        if (!Double.isNaN(detail.getReportedIntensity())) {
+            appendLine(fields, getString(R.string.detail_reported_intensity,
+                    detail.getReportedIntensity()));
+        }
+        if (!Double.isNaN(detail.getEstimatedIntensity())) {
+            appendLine(fields, getString(R.string.detail_estimated_intensity,
+                    detail.getEstimatedIntensity()));
+        }
+        if (detail.getAlert() != null) {
+            appendLine(fields, getString(R.string.detail_alert, detail.getAlert()));
+        }
+        if (detail.isTsunami()) {
+            appendLine(fields, getString(R.string.detail_tsunami));
+        }
+        appendLine(fields, getString(R.string.detail_significance, detail.getSignificance()));
+        if (detail.getStatus() != null) {
+            appendLine(fields, getString(R.string.detail_status, detail.getStatus()));
+        }
+        if (detail.getUpdatedInMilliseconds() > 0) {
+            appendLine(fields, getString(R.string.detail_updated,
+                    mDateFormat.format(new Date(detail.getUpdatedInMilliseconds()))));
+        }
+        return fields.toString();
+    }
+
+    private static void appendLine(StringBuilder lines, String line) {
+        if (lines.length() > 0) {
+            lines.append('\n');
+        }
+        lines.append(line);
+    }
+}
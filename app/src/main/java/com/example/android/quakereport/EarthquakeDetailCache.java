@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory cache of {@link EarthquakeDetail}s by USGS event id, least recently used first out
+ * once their estimated size passes {@link #MAX_BYTES}. Details of the rows on screen are
+ * prefetched on a background priority thread, see {@link #prefetch(List)}, so opening an event
+ * is usually answered from memory and opening it again never goes to the network.
+ *
+ * A detail that is being fetched is only fetched once, however many callers ask for it. When an
+ * event being prefetched is opened its fetch is raised to normal priority.
+ *
+ * One cache is shared by the whole process, see {@link #getInstance()}, and gives details back
+ * to the {@link MemoryBudget} least recently used first.
+ */
+public final class EarthquakeDetailCache implements MemoryBudget.Trimmable {
+
+    /** Most bytes of details held, by {@link EarthquakeDetail#estimateBytes()} */
+    static final int MAX_BYTES = 512 * 1024;
+
+    /** Receives a requested detail on the main thread */
+    public interface Listener {
+        /** Called with the detail of the event with this id, null if it could not be loaded */
+        void onDetailLoaded(String id, EarthquakeDetail detail);
+    }
+
+    private static EarthquakeDetailCache sInstance;
+
+    private final LruCache<String, EarthquakeDetail> mDetails =
+            new LruCache<String, EarthquakeDetail>(MAX_BYTES) {
+                @Override
+                protected int sizeOf(String id, EarthquakeDetail detail) {
+                    return detail.estimateBytes();
+                }
+            };
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Details asked for by an open, fetched at normal priority
+    private final ExecutorService mLoadExecutor = Executors.newCachedThreadPool();
+
+    //Drains mPrefetchQueue one detail at a time at background priority
+    private final ExecutorService mPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    //Guarded by this: ids waiting to be prefetched, oldest request first
+    private final Deque<String> mPrefetchQueue = new ArrayDeque<>();
+    private boolean mPrefetching;
+
+    //Guarded by this: ids being fetched and the listeners waiting on each
+    private final Map<String, List<Listener>> mInFlight = new HashMap<>();
+
+    //Guarded by this: id the prefetch thread is fetching and that thread's id, 0 if none
+    private String mPrefetchingId;
+    private int mPrefetchThreadId;
+
+    /** Return the process-wide cache */
+    public static synchronized EarthquakeDetailCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakeDetailCache();
+        }
+        return sInstance;
+    }
+
+    EarthquakeDetailCache() {
+    }
+
+    /** Return the detail held for this event id, or null if none is, without fetching it */
+    public EarthquakeDetail get(String id) {
+        return mDetails.get(id);
+    }
+
+    /**
+     * Prefetch the details of these events, i.e. the rows on screen, at background priority.
+     * They replace events queued by an earlier call that are not fetched yet, since those rows
+     * were scrolled away. Events without an id, or whose detail is held, are skipped.
+     */
+    public synchronized void prefetch(List<Earthquake> earthquakes) {
+        mPrefetchQueue.clear();
+        //Checked on a copy, get() would make every row on screen the most recently used
+        Map<String, EarthquakeDetail> held = mDetails.snapshot();
+        for (Earthquake earthquake : earthquakes) {
+            String id = earthquake.getId();
+            if (id != null && !held.containsKey(id) && !mInFlight.containsKey(id)) {
+                mPrefetchQueue.add(id);
+            }
+        }
+        if (!mPrefetching && !mPrefetchQueue.isEmpty()) {
+            mPrefetching = true;
+            mPrefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainPrefetchQueue();
+                }
+            });
+        }
+    }
+
+    /**
+     * Hand the detail of the event with this id to the listener on the main thread, at once if
+     * it is held, otherwise once it is fetched. Must be called on the main thread.
+     */
+    public void load(final String id, Listener listener) {
+        EarthquakeDetail detail = mDetails.get(id);
+        if (detail != null) {
+            listener.onDetailLoaded(id, detail);
+            return;
+        }
+        synchronized (this) {
+            mPrefetchQueue.remove(id);
+            List<Listener> listeners = mInFlight.get(id);
+            if (listeners != null) {
+                //Already on its way, i.e. being prefetched, wait for it at normal priority
+                listeners.add(listener);
+                if (id.equals(mPrefetchingId)) {
+                    Process.setThreadPriority(mPrefetchThreadId, Process.THREAD_PRIORITY_DEFAULT);
+                }
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            mInFlight.put(id, listeners);
+        }
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fetch(id);
+            }
+        });
+    }
+
+    /** Stop handing details to this listener, i.e. when its screen is closed */
+    public synchronized void removeListener(Listener listener) {
+        for (List<Listener> listeners : mInFlight.values()) {
+            listeners.remove(listener);
+        }
+    }
+
+    /** Forget every held detail */
+    public void clear() {
+        mDetails.evictAll();
+    }
+
+    /** Drop the least recently used details until about fraction of them is left */
+    @Override
+    public void trimTo(float fraction) {
+        mDetails.trimToSize((int) (mDetails.size() * fraction));
+    }
+
+    @Override
+    public long estimateBytes() {
+        //Sizes are counted in estimated bytes, see sizeOf
+        return mDetails.size();
+    }
+
+    private void drainPrefetchQueue() {
+        while (true) {
+            String id;
+            synchronized (this) {
+                id = mPrefetchQueue.poll();
+                if (id == null) {
+                    mPrefetching = false;
+                    mPrefetchingId = null;
+                    return;
+                }
+                //An open may have raised the priority of the previous fetch
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                mPrefetchingId = id;
+                mPrefetchThreadId = Process.myTid();
+                mInFlight.put(id, new ArrayList<Listener>());
+            }
+            fetch(id);
+        }
+    }
+
+    /** Fetch one detail, then hold it and hand it to everyone waiting on it */
+    private void fetch(final String id) {
+        final EarthquakeDetail detail =
+                QueryUtils.fetchEarthquakeDetail(EarthquakeDetail.detailUrl(id), null);
+        final List<Listener> listeners;
+        synchronized (this) {
+            if (detail != null) {
+                mDetails.put(id, detail);
+            }
+            listeners = mInFlight.remove(id);
+        }
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onDetailLoaded(id, detail);
+                }
+            }
+        });
+    }
+}
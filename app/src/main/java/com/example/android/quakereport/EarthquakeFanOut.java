@@ -0,0 +1,97 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several USGS queries at once and merges their results into one list. Each query is
+ * fetched and parsed on its own thread of a bounded pool, so the whole fetch takes about as
+ * long as its slowest query rather than the sum of all of them.
+ */
+public final class EarthquakeFanOut {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeFanOut.class.getSimpleName();
+
+    /** Most queries in flight at once, further queries wait for a free thread */
+    private static final int MAX_CONCURRENT_QUERIES = 4;
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(MAX_CONCURRENT_QUERIES);
+
+    /** Fetches and parses the events of one query URL */
+    interface Fetcher {
+        /** Return the events of the query, null if it failed */
+        List<Earthquake> fetch(String queryUrl);
+    }
+
+    private static final Fetcher NETWORK_FETCHER = new Fetcher() {
+        @Override
+        public List<Earthquake> fetch(String queryUrl) {
+            return QueryUtils.fetchEarthquakeData(queryUrl);
+        }
+    };
+
+    private EarthquakeFanOut() {
+    }
+
+    /**
+     * Fetch every query URL concurrently and return the merged events, each event once,
+     * sorted by the USGS orderBy value. Queries that fail are left out. Returns null only if
+     * every query failed. Blocks until all queries have finished.
+     */
+    public static List<Earthquake> fetchAll(List<String> queryUrls, String orderBy) {
+        return fetchAll(queryUrls, orderBy, NETWORK_FETCHER);
+    }
+
+    /** Fetch every query URL concurrently through fetcher, see {@link #fetchAll(List, String)} */
+    static List<Earthquake> fetchAll(List<String> queryUrls, String orderBy,
+                                     final Fetcher fetcher) {
+        List<Future<List<Earthquake>>> futures = new ArrayList<>(queryUrls.size());
+        for (final String queryUrl : queryUrls) {
+            futures.add(EXECUTOR.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    return fetcher.fetch(queryUrl);
+                }
+            }));
+        }
+
+        //Merge by event id, an event returned by several queries keeps its latest update
+        EarthquakeStore merged = new EarthquakeStore();
+        boolean anySucceeded = false;
+        for (Future<List<Earthquake>> future : futures) {
+            List<Earthquake> earthquakes;
+            try {
+                earthquakes = future.get();
+            } catch (InterruptedException e) {
+                //Stop waiting, cancel whatever is still running
+                for (Future<List<Earthquake>> pending : futures) {
+                    pending.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | CancellationException e) {
+                Log.e(LOG_TAG, "Problem fetching one of the queries", e);
+                continue;
+            }
+            if (earthquakes == null) {
+                continue;
+            }
+            anySucceeded = true;
+            merged.putAll(earthquakes);
+        }
+        if (!anySucceeded) {
+            return null;
+        }
+        return merged.get(merged.sortedRows(orderBy));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.quakereport;
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//  Loads the merged events of several query URLs, see {@link EarthquakeFanOut}. Unlike
+//  {@link EarthquakeLoader} there is no paging, each query is capped at its own "limit".
+public class EarthquakeFanOutLoader extends AsyncTaskLoader<List<EarthquakeRow>> {
+
+    // Query URLs to run together
+    private final List<String> mQueryUrls;
+
+    // USGS "orderby" value the merged list is sorted by
+    private final String mOrderBy;
+
+    // Formats events into rows, only used on the loader thread
+    private final EarthquakeRowFormatter mFormatter;
+
+    // Last merged result, handed straight back after a configuration change
+    private List<EarthquakeRow> mRows;
+
+    /** Constructs new {@link EarthquakeFanOutLoader}
+     * @param context of the activity
+     * @param queryUrls to run concurrently
+     * @param orderBy USGS "orderby" value, i.e. "time" or "magnitude"
+     */
+    public EarthquakeFanOutLoader(Context context, List<String> queryUrls, String orderBy) {
+        super(context);
+        mQueryUrls = new ArrayList<>(queryUrls);
+        mOrderBy = orderBy;
+        mFormatter = new EarthquakeRowFormatter(context);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mRows != null) {
+            deliverResult(mRows);
+        } else {
+            forceLoad();
+        }
+    }
+
+    /**This is to be done on a background thread*/
+    @Override
+    public List<EarthquakeRow> loadInBackground() {
+        List<Earthquake> earthquakes = EarthquakeFanOut.fetchAll(mQueryUrls, mOrderBy);
+        if (earthquakes == null) {
+            return null;
+        }
+        return mFormatter.format(earthquakes);
+    }
+
+    @Override
+    public void deliverResult(List<EarthquakeRow> rows) {
+        mRows = rows;
+        super.deliverResult(rows);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        mRows = null;
+    }
+}
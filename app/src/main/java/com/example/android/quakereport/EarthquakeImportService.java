@@ -0,0 +1,104 @@
+package com.example.android.quakereport;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+
+/**
+ * Runs an {@link EarthquakeBulkImport} of event history into the {@link EarthquakeArchive}, in
+ * the foreground with its progress shown in a notification, so a long import keeps going
+ * while the app is in the background. Stopping the service cancels the import mid-window;
+ * starting the same import again resumes it from the windows already stored.
+ */
+public class EarthquakeImportService extends IntentService {
+
+    private static final String EXTRA_START_TIME = "start_time";
+    private static final String EXTRA_END_TIME = "end_time";
+    private static final String EXTRA_MIN_MAGNITUDE = "min_magnitude";
+
+    /** Id of the progress notification, also used for the final result */
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Least time between progress notification updates, the system drops faster ones */
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    //Canceled when the service is stopped, a new one for each import
+    private volatile CancellationToken mCancellation;
+
+    public EarthquakeImportService() {
+        super("EarthquakeImportService");
+    }
+
+    /**
+     * Import every event between two epoch milliseconds, of at least minMagnitude or of every
+     * magnitude when it is NaN. Imports queue up behind each other.
+     */
+    public static void start(Context context, long startTime, long endTime,
+                             double minMagnitude) {
+        context.startService(new Intent(context, EarthquakeImportService.class)
+                .putExtra(EXTRA_START_TIME, startTime)
+                .putExtra(EXTRA_END_TIME, endTime)
+                .putExtra(EXTRA_MIN_MAGNITUDE, minMagnitude));
+    }
+
+    /** Stop the running import and drop the queued ones */
+    public static void cancel(Context context) {
+        context.stopService(new Intent(context, EarthquakeImportService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+        EarthquakeArchive archive = EarthquakeArchive.getInstance(this);
+        EarthquakeBulkImport bulkImport = new EarthquakeBulkImport.Builder(archive,
+                intent.getLongExtra(EXTRA_START_TIME, 0),
+                intent.getLongExtra(EXTRA_END_TIME, 0))
+                .setMinMagnitude(intent.getDoubleExtra(EXTRA_MIN_MAGNITUDE, Double.NaN))
+                .build();
+
+        final NotificationCompat.Builder notification = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.import_title))
+                .setOngoing(true)
+                .setProgress(0, 0, true);
+        startForeground(NOTIFICATION_ID, notification.build());
+
+        final long[] lastUpdate = {0};
+        final long[] imported = {0};
+        boolean complete = bulkImport.run(cancellation, new EarthquakeBulkImport.Listener() {
+            @Override
+            public void onProgress(int windowsDone, int windowsTotal, long eventsImported) {
+                imported[0] = eventsImported;
+                long now = SystemClock.elapsedRealtime();
+                if (now - lastUpdate[0] < PROGRESS_INTERVAL_MILLIS) {
+                    return;
+                }
+                lastUpdate[0] = now;
+                notification.setProgress(windowsTotal, windowsDone, false)
+                        .setContentText(getString(R.string.import_progress, eventsImported));
+                NotificationManagerCompat.from(EarthquakeImportService.this)
+                        .notify(NOTIFICATION_ID, notification.build());
+            }
+        });
+
+        stopForeground(true);
+        notification.setOngoing(false)
+                .setProgress(0, 0, false)
+                .setContentText(complete ? getString(R.string.import_done, imported[0])
+                        : getString(R.string.import_stopped, imported[0]));
+        NotificationManagerCompat.from(this).notify(NOTIFICATION_ID, notification.build());
+    }
+
+    @Override
+    public void onDestroy() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        super.onDestroy();
+    }
+}
@@ -1,46 +1,411 @@
 package com.example.android.quakereport;
 import android.content.AsyncTaskLoader;
 import android.content.Context;
-import android.util.Log;
+import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 //  Loads list of events by using an AsyncTask to perform network request to given URL.
-public class EarthquakeLoader extends AsyncTaskLoader<List<Earthquake>> {
+//  Events are fetched one page at a time using the USGS "offset" parameter, each delivery
+//  carries every page loaded so far so the list can render before the whole feed is fetched.
+//  Pages found in the {@link EarthquakeCache} are delivered at once and then revalidated in a
+//  follow-up load: the first page with a delta query merged by event id, later pages with a
+//  conditional request. Rows are formatted for display here too, off the main thread.
+//  Given a filter, the first load is answered from the {@link EarthquakeQueryEngine} when it
+//  already holds the events, and every page fetched afterwards is recorded there. USGS can't
+//  search by place, so a filter with place text only searches the events the engine holds.
+//  Restarting the loader hands back the rows already loaded, or leaves a first load that is
+//  still running alone, instead of fetching again. Canceling a load, i.e. when the query
+//  changes, stops its download and parse mid-stream. On a cold start the first page comes
+//  from the prefetch started by {@link EarthquakeApplication}.
+public class EarthquakeLoader extends AsyncTaskLoader<List<EarthquakeRow>> {
 
-    // Tag for log messages
-    private static final String LOG_TAG = EarthquakeLoader.class.getName();
+    // Cached pages confirmed by the server more recently than this are shown without
+    // revalidating them, background sync keeps the saved queries inside this window
+    static final long FRESH_MILLIS = 30 * 60 * 1000;
 
-    // Query URL
+    // Query URL, already carrying the "limit" parameter used as page size
     private String mUrl;
 
+    // Number of events requested per page
+    private int mPageSize;
+
+    // False once the server returns a short page
+    private volatile boolean mHasMorePages = true;
+
+    // True while a next page request is in flight
+    private boolean mPageLoading;
+
+    // Every event loaded so far, in server order, formatted for display
+    private volatile List<EarthquakeRow> mRows;
+
+    // Formats new events into rows, only used on the loader thread
+    private final EarthquakeRowFormatter mFormatter;
+
+    // Persistent cache of pages, keyed by page URL
+    private final EarthquakeCache mCache;
+
+    // What the query URL asks for, null to always go to the server
+    private final EarthquakeQueryEngine.Filter mFilter;
+
+    // Local answers to filters, shared with every other loader
+    private final EarthquakeQueryEngine mQueryEngine;
+
+    // Page served from the cache that still has to be revalidated, null if none
+    private volatile EarthquakeCache.Entry mStaleEntry;
+    private volatile String mStaleUrl;
+    private volatile int mStaleOffset;
+
+    // Token of the load running in the background, null while none is
+    private volatile CancellationToken mCancellation;
+
+    // Events the last load appended after those already loaded, null if it replaced them.
+    // Only used on the loader thread.
+    private List<Earthquake> mAppendedPage;
+
     /** Constructs new {@link EarthquakeLoader}
      * @param context of the activity
      *
      * @param url to load data from
+     * @param pageSize number of events the url asks for with its "limit" parameter
      */
-    public EarthquakeLoader(Context context, String url){
+    public EarthquakeLoader(Context context, String url, int pageSize){
+        this(context, url, pageSize, null);
+    }
+
+    /** Constructs new {@link EarthquakeLoader} that answers locally when it can
+     * @param context of the activity
+     *
+     * @param url to load data from
+     * @param pageSize number of events the url asks for with its "limit" parameter
+     * @param filter the magnitude threshold, time window and order the url asks for
+     */
+    public EarthquakeLoader(Context context, String url, int pageSize,
+                            EarthquakeQueryEngine.Filter filter){
         super(context);
         mUrl=url;
+        mPageSize=pageSize;
+        mFilter=filter;
+        mQueryEngine=EarthquakeQueryEngine.getInstance();
+        mCache=EarthquakeCache.getInstance(context);
+        mFormatter=new EarthquakeRowFormatter(context);
     }
 
     @Override
     protected void onStartLoading(){
+        //Pages already loaded survive a configuration change, hand them straight back
+        if (mRows != null) {
+            deliverResult(mRows);
+        } else if (mCancellation == null) {
+            //A first load still running from before the loader stopped delivers when done
+            forceLoad();
+        }
+    }
+
+    // isLoadInBackgroundCanceled() and cancelLoadInBackground() need API 16, so cancellation
+    // is hooked here instead. forceLoad() also comes through here to drop any running load.
+    @Override
+    public boolean cancelLoad() {
+        CancellationToken cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+        return super.cancelLoad();
+    }
+
+    /**
+     * Request the next page of events, if there is one and none is already loading.
+     * Must be called on the main thread.
+     */
+    public void loadNextPage() {
+        if (mPageLoading || !mHasMorePages || mRows == null) {
+            return;
+        }
+        mPageLoading = true;
         forceLoad();
-        Log.i(LOG_TAG,"TEST: Loader onStart");
+    }
+
+    /**
+     * Drop the loaded rows past the first keep to give memory back while the list is hidden,
+     * and return the rows left. The dropped rows are paged in again as the user scrolls.
+     * Returns null, keeping every row, while the loader is started or a load is running.
+     * Must be called on the main thread.
+     */
+    public List<EarthquakeRow> trimRows(int keep) {
+        List<EarthquakeRow> rows = mRows;
+        if (isStarted() || mCancellation != null || mPageLoading
+                || rows == null || rows.size() <= keep) {
+            return null;
+        }
+        List<EarthquakeRow> trimmed = new ArrayList<>(rows.subList(0, keep));
+        mHasMorePages = true;
+        if (mStaleEntry != null && mStaleOffset > keep) {
+            //The stale page was dropped with the rows, it is fetched fresh when scrolled to
+            mStaleEntry = null;
+        }
+        //The loader manager holds on to the last result too, hand it the shorter list
+        deliverResult(trimmed);
+        return trimmed;
+    }
+
+    /** Return true if the server may still have events past the pages loaded so far */
+    public boolean hasMorePages() {
+        return mHasMorePages;
     }
 
     /**This is to be done on a background thread*/
     @Override
-    public List<Earthquake> loadInBackground(){
+    public List<EarthquakeRow> loadInBackground(){
         if (mUrl==null){
-            Log.i(LOG_TAG,"TEST: loadInBackground Method Started");
             return null;
         }
+        CancellationToken cancellation = new CancellationToken();
+        mCancellation = cancellation;
+        try {
+            return loadInBackground(cancellation);
+        } finally {
+            if (mCancellation == cancellation) {
+                mCancellation = null;
+            }
+        }
+    }
+
+    private List<EarthquakeRow> loadInBackground(CancellationToken cancellation) {
+        List<EarthquakeRow> loadedRows = mRows;
+        List<Earthquake> loaded = null;
+        if (loadedRows != null) {
+            loaded = new ArrayList<>(loadedRows.size());
+            for (EarthquakeRow row : loadedRows) {
+                loaded.add(row.getEarthquake());
+            }
+        }
+
+        List<Earthquake> earthquakes = null;
+        if (loaded == null && mFilter != null) {
+            earthquakes = queryLocally();
+        }
+        if (earthquakes == null) {
+            earthquakes = loadEarthquakes(loaded, cancellation);
+            if (earthquakes == null || cancellation.isCanceled()) {
+                //A canceled load's result is thrown away, don't record or format it
+                return null;
+            }
+            if (earthquakes == loaded) {
+                //Nothing changed, keep the rows already delivered
+                return loadedRows;
+            }
+            //A page appended to those recorded only adds its own events, anything else records
+            //every event loaded
+            if (mFilter != null && (mAppendedPage == null
+                    || !mQueryEngine.recordPage(mFilter, mAppendedPage, !mHasMorePages))) {
+                mQueryEngine.record(mFilter, earthquakes, !mHasMorePages);
+            }
+        }
+        //Format new events here, rows already built for carried over events are reused
+        return mFormatter.format(earthquakes, loadedRows);
+    }
+
+    /**
+     * Answer the filter from events already held by the query engine. Returns null if it does
+     * not hold them, otherwise they stand in for the first pages and any further pages are
+     * fetched from the server after them. A place search is always answered here, in full.
+     */
+    private List<Earthquake> queryLocally() {
+        if (mFilter.getPlaceText() != null) {
+            //Server pages aren't filtered by place, so none are fetched after these
+            mHasMorePages = false;
+            return mQueryEngine.query(mFilter);
+        }
+        int coverage = mQueryEngine.coverage(mFilter);
+        if (coverage == EarthquakeQueryEngine.COVERAGE_NONE) {
+            return null;
+        }
+        if (coverage == EarthquakeQueryEngine.COVERAGE_ALL) {
+            mHasMorePages = false;
+        }
+        return mQueryEngine.query(mFilter);
+    }
+
+    /**
+     * Load the next page, or revalidate the page last served from the cache, and return every
+     * event now held. Returns loaded itself if nothing changed.
+     */
+    private List<Earthquake> loadEarthquakes(List<Earthquake> loaded,
+                                             CancellationToken cancellation) {
+        mAppendedPage = null;
+        //Append the offset of the page to fetch to the query URL, USGS "offset" is 1-based
+        if (mStaleEntry != null && loaded != null) {
+            return revalidateStalePage(loaded, cancellation);
+        }
+        int nextOffset = (loaded == null ? 0 : loaded.size()) + 1;
+        String pageUrl = pageUrl(mUrl, nextOffset);
+
+        //A cached page is shown right away and, unless it is fresh, revalidated by the next load
+        List<Earthquake> page;
+        //On a cold start the first page was already read or fetched while the app started
+        EarthquakeCache.Entry cached = nextOffset == 1
+                ? EarthquakeApplication.takePrefetched(pageUrl, cancellation) : null;
+        if (cached == null && !cancellation.isCanceled()) {
+            cached = mCache.get(pageUrl);
+        }
+        if (cached != null) {
+            LoadMetrics.recordCacheHit();
+            page = cached.getEarthquakes();
+            if (System.currentTimeMillis() - cached.getValidatedAtMillis() > FRESH_MILLIS) {
+                mStaleUrl = pageUrl;
+                mStaleOffset = nextOffset;
+                mStaleEntry = cached;
+            }
+        } else {
+            LoadMetrics.recordCacheMiss();
+            //Perform network request, parse the response, and extract list of earthquakes
+            EarthquakeCache.Entry response =
+                    QueryUtils.fetchEarthquakeData(pageUrl, null, cancellation);
+            if (response == null) {
+                //Keep whatever was already loaded, a later scroll may retry this page
+                return loaded;
+            }
+            mCache.put(pageUrl, response);
+            page = response.getEarthquakes();
+        }
+        if (page.size() < mPageSize) {
+            mHasMorePages = false;
+        }
 
-        //Perform network request, parse the response, and extract list of earthquakes
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
+        if (loaded == null) {
+            return new ArrayList<>(page);
+        }
+        Set<String> loadedIds = new HashSet<>();
+        for (Earthquake earthquake : loaded) {
+            loadedIds.add(earthquake.getId());
+        }
+        //A delta merge shifts server offsets, skip events that are already held
+        List<Earthquake> appended = new ArrayList<>(page.size());
+        for (Earthquake earthquake : page) {
+            if (earthquake.getId() == null || !loadedIds.contains(earthquake.getId())) {
+                appended.add(earthquake);
+            }
+        }
+        List<Earthquake> earthquakes = new ArrayList<>(loaded.size() + appended.size());
+        earthquakes.addAll(loaded);
+        earthquakes.addAll(appended);
+        mAppendedPage = appended;
         return earthquakes;
     }
 
+    /** Return the URL of one page of a query, USGS "offset" is 1-based */
+    static String pageUrl(String url, int offset) {
+        return Uri.parse(url).buildUpon()
+                .appendQueryParameter("offset", String.valueOf(offset))
+                .build().toString();
+    }
+
+    /**
+     * Send a conditional request for the page last served from the cache. A 304 keeps the loaded
+     * events as they are, new content replaces that page and drops the pages after it, since
+     * their offsets no longer line up with the server's ordering.
+     */
+    private List<Earthquake> revalidateStalePage(List<Earthquake> loaded,
+                                                 CancellationToken cancellation) {
+        EarthquakeCache.Entry stale = mStaleEntry;
+        String staleUrl = mStaleUrl;
+        int staleOffset = mStaleOffset;
+        mStaleEntry = null;
+
+        //The first page holds the newest events, bring it up to date with a delta query
+        if (staleOffset == 1) {
+            String deltaUrl = EarthquakeDeltaSync.buildDeltaUrl(mUrl, loaded);
+            if (deltaUrl != null) {
+                List<Earthquake> synced = syncDelta(loaded, staleUrl, deltaUrl, cancellation);
+                if (cancellation.isCanceled()) {
+                    //The page is still stale, leave it for the next load to revalidate
+                    mStaleEntry = stale;
+                }
+                return synced;
+            }
+        }
+
+        EarthquakeCache.Entry response =
+                QueryUtils.fetchEarthquakeData(staleUrl, stale, cancellation);
+        if (cancellation.isCanceled()) {
+            //The page is still stale, leave it for the next load to revalidate
+            mStaleEntry = stale;
+            return loaded;
+        }
+        if (response == null) {
+            //Keep showing the cached events if the server can't be reached
+            return loaded;
+        }
+        if (response == stale) {
+            mCache.touch(staleUrl);
+            return loaded;
+        }
+        mCache.put(staleUrl, response);
+        List<Earthquake> page = response.getEarthquakes();
+        mHasMorePages = page.size() >= mPageSize;
+        List<Earthquake> earthquakes = new ArrayList<>(loaded.subList(0, staleOffset - 1));
+        earthquakes.addAll(page);
+        return earthquakes;
+    }
+
+    /**
+     * Fetch only the events updated since the newest update held and merge them by id into the
+     * loaded events. The first page of the merged events replaces the cached first page, so the
+     * next cold start shows them at once.
+     */
+    private List<Earthquake> syncDelta(List<Earthquake> loaded, String firstPageUrl,
+                                       String deltaUrl, CancellationToken cancellation) {
+        EarthquakeCache.Entry response =
+                QueryUtils.fetchEarthquakeData(deltaUrl, null, cancellation);
+        List<Earthquake> delta = response == null ? null : response.getEarthquakes();
+        if (delta == null) {
+            //Keep showing the cached events if the server can't be reached
+            return loaded;
+        }
+        if (delta.isEmpty()) {
+            mCache.touch(firstPageUrl);
+            return loaded;
+        }
+        String orderBy = Uri.parse(mUrl).getQueryParameter("orderby");
+        List<Earthquake> merged =
+                EarthquakeDeltaSync.merge(loaded, delta, orderBy, !mHasMorePages);
+        //Loaded may span several pages, the entry only holds what the first page URL returns,
+        //so paging on from the cache lines up with the server's offsets
+        List<Earthquake> firstPage = merged.size() > mPageSize
+                ? new ArrayList<>(merged.subList(0, mPageSize)) : merged;
+        mCache.put(firstPageUrl, new EarthquakeCache.Entry(firstPage, null, null));
+        return merged;
+    }
+
+    @Override
+    public void deliverResult(List<EarthquakeRow> rows) {
+        mRows = rows;
+        mPageLoading = false;
+        super.deliverResult(rows);
+        //Revalidate a page that just came from the cache in the background
+        if (mStaleEntry != null && rows != null && isStarted()) {
+            mPageLoading = true;
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void onCanceled(List<EarthquakeRow> rows) {
+        super.onCanceled(rows);
+        mPageLoading = false;
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        mRows = null;
+        mStaleEntry = null;
+        mHasMorePages = true;
+        mPageLoading = false;
+    }
+
 }
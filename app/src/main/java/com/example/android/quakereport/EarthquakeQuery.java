@@ -0,0 +1,125 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+/**
+ * One USGS event query: an optional area (bounding box or radius around a point), time window
+ * and magnitude band. Unset parts are left out of the request, so USGS applies its defaults.
+ * Build instances with {@link Builder}.
+ */
+public final class EarthquakeQuery {
+
+    /** USGS event query endpoint */
+    public static final String USGS_QUERY_URL =
+            "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mMaxRadiusKm;
+    private final long mStartTime;
+    private final long mEndTime;
+    private final double mMinMagnitude;
+    private final double mMaxMagnitude;
+
+    private EarthquakeQuery(Builder builder) {
+        mMinLatitude = builder.mMinLatitude;
+        mMaxLatitude = builder.mMaxLatitude;
+        mMinLongitude = builder.mMinLongitude;
+        mMaxLongitude = builder.mMaxLongitude;
+        mLatitude = builder.mLatitude;
+        mLongitude = builder.mLongitude;
+        mMaxRadiusKm = builder.mMaxRadiusKm;
+        mStartTime = builder.mStartTime;
+        mEndTime = builder.mEndTime;
+        mMinMagnitude = builder.mMinMagnitude;
+        mMaxMagnitude = builder.mMaxMagnitude;
+    }
+
+    /** Return the GeoJSON query URL for this query, ordered by orderBy and capped at limit */
+    public String toUrl(String orderBy, int limit) {
+        Uri.Builder uriBuilder = Uri.parse(USGS_QUERY_URL).buildUpon();
+        uriBuilder.appendQueryParameter("format", "geojson");
+        if (!Double.isNaN(mMinLatitude)) {
+            uriBuilder.appendQueryParameter("minlatitude", String.valueOf(mMinLatitude));
+            uriBuilder.appendQueryParameter("maxlatitude", String.valueOf(mMaxLatitude));
+            uriBuilder.appendQueryParameter("minlongitude", String.valueOf(mMinLongitude));
+            uriBuilder.appendQueryParameter("maxlongitude", String.valueOf(mMaxLongitude));
+        }
+        if (!Double.isNaN(mMaxRadiusKm)) {
+            uriBuilder.appendQueryParameter("latitude", String.valueOf(mLatitude));
+            uriBuilder.appendQueryParameter("longitude", String.valueOf(mLongitude));
+            uriBuilder.appendQueryParameter("maxradiuskm", String.valueOf(mMaxRadiusKm));
+        }
+        if (mStartTime != Long.MIN_VALUE) {
+            uriBuilder.appendQueryParameter("starttime",
+                    EarthquakeDeltaSync.formatUsgsTime(mStartTime));
+        }
+        if (mEndTime != Long.MIN_VALUE) {
+            uriBuilder.appendQueryParameter("endtime", EarthquakeDeltaSync.formatUsgsTime(mEndTime));
+        }
+        if (!Double.isNaN(mMinMagnitude)) {
+            uriBuilder.appendQueryParameter("minmagnitude", String.valueOf(mMinMagnitude));
+        }
+        if (!Double.isNaN(mMaxMagnitude)) {
+            uriBuilder.appendQueryParameter("maxmagnitude", String.valueOf(mMaxMagnitude));
+        }
+        uriBuilder.appendQueryParameter("orderby", orderBy);
+        uriBuilder.appendQueryParameter("limit", String.valueOf(limit));
+        return uriBuilder.build().toString();
+    }
+
+    /** Builds an {@link EarthquakeQuery}, every part is optional */
+    public static final class Builder {
+        private double mMinLatitude = Double.NaN;
+        private double mMaxLatitude = Double.NaN;
+        private double mMinLongitude = Double.NaN;
+        private double mMaxLongitude = Double.NaN;
+        private double mLatitude = Double.NaN;
+        private double mLongitude = Double.NaN;
+        private double mMaxRadiusKm = Double.NaN;
+        private long mStartTime = Long.MIN_VALUE;
+        private long mEndTime = Long.MIN_VALUE;
+        private double mMinMagnitude = Double.NaN;
+        private double mMaxMagnitude = Double.NaN;
+
+        /** Only events inside this rectangle, in degrees */
+        public Builder setBoundingBox(double minLatitude, double maxLatitude,
+                                      double minLongitude, double maxLongitude) {
+            mMinLatitude = minLatitude;
+            mMaxLatitude = maxLatitude;
+            mMinLongitude = minLongitude;
+            mMaxLongitude = maxLongitude;
+            return this;
+        }
+
+        /** Only events within maxRadiusKm kilometers of a point */
+        public Builder setRadius(double latitude, double longitude, double maxRadiusKm) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mMaxRadiusKm = maxRadiusKm;
+            return this;
+        }
+
+        /** Only events between two times, in epoch milliseconds */
+        public Builder setTimeWindow(long startTime, long endTime) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+            return this;
+        }
+
+        /** Only events with a magnitude between min and max, pass NaN to leave one open */
+        public Builder setMagnitudeBand(double minMagnitude, double maxMagnitude) {
+            mMinMagnitude = minMagnitude;
+            mMaxMagnitude = maxMagnitude;
+            return this;
+        }
+
+        public EarthquakeQuery build() {
+            return new EarthquakeQuery(this);
+        }
+    }
+}
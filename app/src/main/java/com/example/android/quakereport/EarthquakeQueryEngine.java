@@ -0,0 +1,524 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory query engine over the events loaded so far, so changing the minimum magnitude or
+ * the sort order re-queries locally instead of fetching everything again. Events are held in an
+ * {@link EarthquakeStore} with one row index pre-sorted by time and one by magnitude; a query
+ * binary searches the index matching its order for its bounds and only scans that slice.
+ *
+ * The engine also remembers which part of the USGS catalog it holds completely: every event at
+ * or above a magnitude floor inside a time window. {@link #coverage(Filter)} tells a loader
+ * whether a filter can be answered locally, entirely or as the leading part of the server's
+ * answer, and the server is only asked for what is not covered.
+ *
+ * Held events are also kept in an {@link EarthquakeSpatialIndex} and in
+ * {@link EarthquakeClusterTiles}, both updated as each batch is recorded, for viewport, radius
+ * and nearest event lookups and for zoomed-out cluster views. Their locations are kept in an
+ * {@link EarthquakeTextIndex} for a filter's place text, and folded into
+ * {@link EarthquakeStatistics} for per-day counts, magnitude histograms and energy release,
+ * see {@link #getStatistics()}.
+ *
+ * One engine is shared by the whole process, see {@link #getInstance()}. Under memory pressure
+ * it drops the weakest events first, see {@link #trimTo(float)}, but keeps counting them in its
+ * statistics.
+ */
+public final class EarthquakeQueryEngine implements MemoryBudget.Trimmable {
+
+    /** Nothing held locally is known to match, the server has to be asked */
+    public static final int COVERAGE_NONE = 0;
+
+    /**
+     * The local answer is the start of the server's answer in the filter's order, the rest
+     * has to be paged in from the server after it
+     */
+    public static final int COVERAGE_PREFIX = 1;
+
+    /** The local answer is the whole answer */
+    public static final int COVERAGE_ALL = 2;
+
+    /** Held events older than this may miss newer server events and are not used */
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+    /** Rough heap cost of one event's entries in the indexes kept next to the store */
+    private static final long INDEX_BYTES_PER_EVENT = 320;
+
+    /** Rough heap cost of an event only the statistics still count, its key and map entry */
+    private static final long COUNTED_BYTES_PER_EVENT = 96;
+
+    private static EarthquakeQueryEngine sInstance;
+
+
+    private final EarthquakeStore mStore = new EarthquakeStore();
+
+    private final EarthquakeSpatialIndex mSpatialIndex = new EarthquakeSpatialIndex();
+
+    private final EarthquakeClusterTiles mClusterTiles = new EarthquakeClusterTiles();
+
+    private final EarthquakeTextIndex mTextIndex = new EarthquakeTextIndex();
+
+    private final EarthquakeStatistics mStatistics = new EarthquakeStatistics();
+
+    //Row indexes ordered newest first and strongest first
+    private int[] mByTime = new int[0];
+    private int[] mByMagnitude = new int[0];
+
+    //Every event with magnitude >= mCoveredMinMagnitude and time inside
+    //[mCoveredStartTime, mCoveredEndTime] is held, nothing is covered until the first load
+    private double mCoveredMinMagnitude = Double.POSITIVE_INFINITY;
+    private long mCoveredStartTime = Long.MAX_VALUE;
+    private long mCoveredEndTime = Long.MIN_VALUE;
+    private long mLoadedAtMillis;
+
+    //Filter whose pages were recorded last, its next page only adds its own events. Cleared
+    //whenever held events are dropped.
+    private Filter mRecordedFilter;
+
+    /** Return the process-wide engine */
+    public static synchronized EarthquakeQueryEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new EarthquakeQueryEngine();
+        }
+        return sInstance;
+    }
+
+    EarthquakeQueryEngine() {
+    }
+
+    /**
+     * Record events the server returned for a filter. If the server has no more events for it,
+     * complete is true and the filter's whole range is covered. Otherwise the events are the
+     * first pages of the server's answer, and only the range those pages span is covered.
+     */
+    public synchronized void record(Filter filter, List<Earthquake> earthquakes, boolean complete) {
+        Range range = coveredRange(filter, earthquakes, complete);
+        if (range == null) {
+            return;
+        }
+        //A range inside the one already covered only refreshes events, anything else
+        //replaces what is held so memory stays bounded by one result set
+        if (!isFresh() || !isCovered(range)) {
+            clearEvents();
+            mCoveredMinMagnitude = range.mMinMagnitude;
+            mCoveredStartTime = range.mStartTime;
+            mCoveredEndTime = range.mEndTime;
+            mLoadedAtMillis = System.currentTimeMillis();
+        }
+        mRecordedFilter = filter;
+        putAll(earthquakes);
+    }
+
+    /**
+     * Record the next page the server returned for the filter recorded last, see
+     * {@link #record}. Only the page's events are added, and the covered range grows to the
+     * last of them. Returns false if the earlier pages are no longer held as recorded, i.e.
+     * another filter was recorded or events were trimmed since; the caller then records every
+     * event loaded with {@link #record} instead.
+     */
+    public synchronized boolean recordPage(Filter filter, List<Earthquake> page,
+                                           boolean complete) {
+        if (filter != mRecordedFilter || !isFresh()) {
+            return false;
+        }
+        Range range = coveredRange(filter, page, complete);
+        if (range == null) {
+            return true;
+        }
+        if (!isCovered(range)) {
+            //Every event of the filter up to the page's last one is held now
+            mCoveredMinMagnitude = range.mMinMagnitude;
+            mCoveredStartTime = range.mStartTime;
+            mCoveredEndTime = range.mEndTime;
+        }
+        putAll(page);
+        return true;
+    }
+
+    /**
+     * Return the range of the catalog a filter's events cover, null if they cover none. Unless
+     * complete, earthquakes end with the last event the server returned so far.
+     */
+    private static Range coveredRange(Filter filter, List<Earthquake> earthquakes,
+                                      boolean complete) {
+        Range range = new Range(filter.getMinMagnitude(), filter.getStartTime(),
+                filter.getEndTime());
+        if (complete) {
+            return range;
+        }
+        if (earthquakes.isEmpty()) {
+            return null;
+        }
+        //Events tied with the last one held may still be on the next page, so the edge of
+        //the covered range sits just past it
+        Earthquake last = earthquakes.get(earthquakes.size() - 1);
+        String orderBy = filter.getOrderBy();
+        if ("magnitude".equals(orderBy)) {
+            range.mMinMagnitude = Math.max(range.mMinMagnitude,
+                    Math.nextUp(last.getMagnitude()));
+        } else if ("magnitude-asc".equals(orderBy)) {
+            //Weakest first never covers a range of its own
+            return null;
+        } else if ("time-asc".equals(orderBy)) {
+            range.mEndTime = Math.min(range.mEndTime, last.getTimeInMilliseconds() - 1);
+        } else {
+            range.mStartTime = Math.max(range.mStartTime, last.getTimeInMilliseconds() + 1);
+        }
+        return range;
+    }
+
+    private boolean isCovered(Range range) {
+        return range.mMinMagnitude >= mCoveredMinMagnitude
+                && range.mStartTime >= mCoveredStartTime && range.mEndTime <= mCoveredEndTime;
+    }
+
+    /**
+     * Add or refresh events in the store and every index. Each index is fed the copy the store
+     * kept, and events the store already held unchanged are skipped.
+     */
+    private void putAll(List<Earthquake> earthquakes) {
+        int[] addedRows = new int[earthquakes.size()];
+        int added = 0;
+        boolean reordered = false;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            int held = mStore.rowOf(earthquake.getId() != null
+                    ? earthquake.getId() : earthquake.getUrl());
+            long heldUpdated = held < 0 ? 0 : mStore.getUpdatedInMilliseconds(held);
+            long heldTime = held < 0 ? 0 : mStore.getTimeInMilliseconds(held);
+            double heldMagnitude = held < 0 ? 0 : mStore.getMagnitude(held);
+            int row = mStore.put(earthquake);
+            if (held >= 0) {
+                if (mStore.getUpdatedInMilliseconds(row) == heldUpdated) {
+                    //The store kept the copy it held, nothing changed
+                    continue;
+                }
+                reordered |= mStore.getTimeInMilliseconds(row) != heldTime
+                        || mStore.getMagnitude(row) != heldMagnitude;
+            } else {
+                addedRows[added++] = row;
+            }
+            Earthquake kept = mStore.get(row);
+            mTextIndex.put(row, kept.getLocation());
+            String key = kept.getId() != null ? kept.getId() : kept.getUrl();
+            mStatistics.put(key, kept.getTimeInMilliseconds(), kept.getMagnitude());
+            mSpatialIndex.put(kept);
+            mClusterTiles.put(kept);
+        }
+        if (reordered) {
+            mByTime = mStore.sortedRows("time");
+            mByMagnitude = mStore.sortedRows("magnitude");
+        } else if (added > 0) {
+            //Only new rows moved, merge them into the orders already built
+            int[] rows = Arrays.copyOf(addedRows, added);
+            mByTime = mStore.mergeRows(mByTime, rows, "time");
+            mByMagnitude = mStore.mergeRows(mByMagnitude, rows, "magnitude");
+        }
+    }
+
+    private void clearEvents() {
+        dropEvents();
+        mStatistics.clear();
+    }
+
+    /** Drop every held event from the store and the indexes, leaving the statistics alone */
+    private void dropEvents() {
+        mRecordedFilter = null;
+        mStore.clear();
+        mSpatialIndex.clear();
+        mClusterTiles.clear();
+        mTextIndex.clear();
+        mByTime = new int[0];
+        mByMagnitude = new int[0];
+    }
+
+    /** Return how much of the answer to this filter is held locally, a COVERAGE_ constant */
+    public synchronized int coverage(Filter filter) {
+        if (!isFresh() || mStore.size() == 0) {
+            return COVERAGE_NONE;
+        }
+        boolean magnitudeCovered = filter.getMinMagnitude() >= mCoveredMinMagnitude;
+        boolean startCovered = filter.getStartTime() >= mCoveredStartTime;
+        boolean endCovered = filter.getEndTime() <= mCoveredEndTime;
+        if (magnitudeCovered && startCovered && endCovered) {
+            return COVERAGE_ALL;
+        }
+        //Held events lead the server's answer if the range is only cut off on the side the
+        //filter's order runs towards
+        String orderBy = filter.getOrderBy();
+        if ("magnitude".equals(orderBy)) {
+            return startCovered && endCovered ? COVERAGE_PREFIX : COVERAGE_NONE;
+        } else if ("magnitude-asc".equals(orderBy)) {
+            return COVERAGE_NONE;
+        } else if ("time-asc".equals(orderBy)) {
+            return magnitudeCovered && startCovered ? COVERAGE_PREFIX : COVERAGE_NONE;
+        }
+        return magnitudeCovered && endCovered ? COVERAGE_PREFIX : COVERAGE_NONE;
+    }
+
+    /**
+     * Return the held events matching the filter inside the covered range, in the filter's
+     * order. With {@link #COVERAGE_PREFIX} these are the leading events of the server's answer.
+     */
+    public synchronized List<Earthquake> query(Filter filter) {
+        double minMagnitude = Math.max(filter.getMinMagnitude(), mCoveredMinMagnitude);
+        long startTime = Math.max(filter.getStartTime(), mCoveredStartTime);
+        long endTime = Math.min(filter.getEndTime(), mCoveredEndTime);
+        //Rows whose location matches the place text, ascending, null to match every row
+        int[] placeRows = filter.getPlaceText() == null
+                ? null : mTextIndex.search(filter.getPlaceText());
+        String orderBy = filter.getOrderBy();
+        boolean byMagnitude = "magnitude".equals(orderBy) || "magnitude-asc".equals(orderBy);
+        boolean ascending = "time-asc".equals(orderBy) || "magnitude-asc".equals(orderBy);
+
+        //Narrow the pre-sorted index to the rows inside the bound it is sorted on
+        int[] index;
+        int from;
+        int to;
+        if (byMagnitude) {
+            index = mByMagnitude;
+            from = 0;
+            to = firstMagnitudeBelow(minMagnitude);
+        } else {
+            index = mByTime;
+            from = firstTimeAtOrBefore(endTime);
+            to = startTime == Long.MIN_VALUE ? index.length : firstTimeAtOrBefore(startTime - 1);
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>();
+        for (int i = 0; i < to - from; i++) {
+            int row = index[ascending ? to - 1 - i : from + i];
+            long time = mStore.getTimeInMilliseconds(row);
+            if (mStore.getMagnitude(row) >= minMagnitude && time >= startTime && time <= endTime
+                    && (placeRows == null || Arrays.binarySearch(placeRows, row) >= 0)) {
+                earthquakes.add(mStore.get(row));
+            }
+        }
+        return earthquakes;
+    }
+
+    /** Return the held events inside a map viewport, see {@link EarthquakeSpatialIndex} */
+    public synchronized List<Earthquake> queryBoundingBox(double minLatitude, double maxLatitude,
+                                                          double minLongitude,
+                                                          double maxLongitude) {
+        return mSpatialIndex.queryBoundingBox(minLatitude, maxLatitude, minLongitude,
+                maxLongitude);
+    }
+
+    /** Return the held events within radiusKm of a point */
+    public synchronized List<Earthquake> queryRadius(double latitude, double longitude,
+                                                     double radiusKm) {
+        return mSpatialIndex.queryRadius(latitude, longitude, radiusKm);
+    }
+
+    /** Return up to k held events closest to a point, nearest first */
+    public synchronized List<Earthquake> nearest(double latitude, double longitude, int k) {
+        return mSpatialIndex.nearest(latitude, longitude, k);
+    }
+
+    /** Return the clusters of held events at a map zoom level inside a viewport */
+    public synchronized List<EarthquakeClusterTiles.Cluster> queryClusters(
+            int zoom, double minLatitude, double maxLatitude, double minLongitude,
+            double maxLongitude) {
+        return mClusterTiles.query(zoom, minLatitude, maxLatitude, minLongitude, maxLongitude);
+    }
+
+    /**
+     * Return the statistics of the recorded events, including those dropped by
+     * {@link #trimTo(float)} since, so trimming doesn't leave only the strongest events
+     * counted. They are updated as each batch is recorded, cleared along with the events when
+     * a new range replaces them, and can be queried from any thread without holding up the
+     * engine.
+     */
+    public EarthquakeStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Give back memory by dropping the weakest events first, keeping about fraction of them.
+     * The covered magnitude floor is raised past the events dropped, so a filter asking for
+     * weaker events goes back to the server. The statistics keep counting the dropped events,
+     * which cost far less than holding them.
+     */
+    @Override
+    public synchronized void trimTo(float fraction) {
+        int size = mStore.size();
+        int keep = (int) (size * fraction);
+        if (keep >= size) {
+            return;
+        }
+        //Events as strong as the first one dropped may be dropped too, so they aren't covered
+        double floor = keep == 0
+                ? Double.POSITIVE_INFINITY : Math.nextUp(mStore.getMagnitude(mByMagnitude[keep]));
+        List<Earthquake> kept = new ArrayList<>(keep);
+        for (int i = 0; i < keep && mStore.getMagnitude(mByMagnitude[i]) >= floor; i++) {
+            kept.add(mStore.get(mByMagnitude[i]));
+        }
+        dropEvents();
+        mStore.trimToSize();
+        if (kept.isEmpty()) {
+            clearCoverage();
+            return;
+        }
+        mCoveredMinMagnitude = Math.max(mCoveredMinMagnitude, floor);
+        putAll(kept);
+    }
+
+    /**
+     * Return roughly how many bytes the held events take: the store plus, per event, its
+     * entries in the spatial, cluster, text and statistics indexes, plus the statistics of the
+     * events trimmed since they were recorded
+     */
+    @Override
+    public synchronized long estimateBytes() {
+        int trimmed = Math.max(0, mStatistics.size() - mStore.size());
+        return mStore.estimateBytes() + INDEX_BYTES_PER_EVENT * mStore.size()
+                + COUNTED_BYTES_PER_EVENT * trimmed;
+    }
+
+    /** Forget every held event */
+    public synchronized void clear() {
+        clearEvents();
+        clearCoverage();
+    }
+
+    private void clearCoverage() {
+        mCoveredMinMagnitude = Double.POSITIVE_INFINITY;
+        mCoveredStartTime = Long.MAX_VALUE;
+        mCoveredEndTime = Long.MIN_VALUE;
+    }
+
+    private boolean isFresh() {
+        return System.currentTimeMillis() - mLoadedAtMillis < MAX_AGE_MILLIS;
+    }
+
+    /** Return the position in mByMagnitude of the first row weaker than magnitude */
+    private int firstMagnitudeBelow(double magnitude) {
+        int low = 0;
+        int high = mByMagnitude.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mStore.getMagnitude(mByMagnitude[middle]) >= magnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Return the position in mByTime of the first row at or before time */
+    private int firstTimeAtOrBefore(long time) {
+        int low = 0;
+        int high = mByTime.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mStore.getTimeInMilliseconds(mByTime[middle]) > time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /** Part of the catalog: a magnitude floor and an inclusive time window */
+    private static final class Range {
+        double mMinMagnitude;
+        long mStartTime;
+        long mEndTime;
+
+        Range(double minMagnitude, long startTime, long endTime) {
+            mMinMagnitude = minMagnitude;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+    }
+
+    /**
+     * What to show: a magnitude threshold, a time window, words the place has to match and a
+     * USGS "orderby" value. Build instances with {@link Builder}.
+     */
+    public static final class Filter {
+        private final double mMinMagnitude;
+        private final long mStartTime;
+        private final long mEndTime;
+        private final String mPlaceText;
+        private final String mOrderBy;
+
+        private Filter(Builder builder) {
+            mMinMagnitude = builder.mMinMagnitude;
+            mStartTime = builder.mStartTime;
+            mEndTime = builder.mEndTime;
+            mPlaceText = builder.mPlaceText;
+            mOrderBy = builder.mOrderBy;
+        }
+
+        /** Return the smallest magnitude shown, negative infinity if there is no threshold */
+        public double getMinMagnitude() {
+            return mMinMagnitude;
+        }
+
+        /** Return the earliest time shown, Long.MIN_VALUE if the window is open */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /** Return the latest time shown, Long.MAX_VALUE if the window is open */
+        public long getEndTime() {
+            return mEndTime;
+        }
+
+        /**
+         * Return the words the place has to match, null to match every place. Each word matches
+         * the start of a word in the place, ignoring case and accents and allowing typos in
+         * longer words, see {@link EarthquakeTextIndex}.
+         */
+        public String getPlaceText() {
+            return mPlaceText;
+        }
+
+        public String getOrderBy() {
+            return mOrderBy;
+        }
+
+        /** Builds a {@link Filter}, every part is optional and it orders newest first */
+        public static final class Builder {
+            private double mMinMagnitude = Double.NEGATIVE_INFINITY;
+            private long mStartTime = Long.MIN_VALUE;
+            private long mEndTime = Long.MAX_VALUE;
+            private String mPlaceText;
+            private String mOrderBy = "time";
+
+            /** Only show events of at least this magnitude, NaN for no threshold */
+            public Builder setMinMagnitude(double minMagnitude) {
+                mMinMagnitude = Double.isNaN(minMagnitude)
+                        ? Double.NEGATIVE_INFINITY : minMagnitude;
+                return this;
+            }
+
+            /** Only show events between these epoch milliseconds, inclusive */
+            public Builder setTimeWindow(long startTime, long endTime) {
+                mStartTime = startTime;
+                mEndTime = endTime;
+                return this;
+            }
+
+            public Builder setPlaceText(String placeText) {
+                mPlaceText = placeText == null || placeText.isEmpty() ? null : placeText;
+                return this;
+            }
+
+            public Builder setOrderBy(String orderBy) {
+                mOrderBy = orderBy;
+                return this;
+            }
+
+            public Filter build() {
+                return new Filter(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.quakereport;
+
+/**
+ * Everything a list segment shows for one {@link Earthquake}, formatted ahead of time by an
+ * {@link EarthquakeRowFormatter} on the loader thread so binding a row only sets text and color.
+ */
+public final class EarthquakeRow {
+
+    private final Earthquake mEarthquake;
+    //Location split at LOCATION_SEPARATOR, i.e. "89 km WNW of" and "Lanford"
+    private final String mLocationOffset;
+    private final String mPrimaryLocation;
+    //Date and time of event, i.e. "Mar 03, 1984" and "04:30 PM"
+    private final String mFormattedDate;
+    private final String mFormattedTime;
+    //Magnitude with 1 decimal place, i.e. "4.5"
+    private final String mFormattedMagnitude;
+    //Resolved color int for the magnitude circle
+    private final int mMagnitudeColor;
+
+    EarthquakeRow(Earthquake earthquake, String locationOffset, String primaryLocation,
+                  String formattedDate, String formattedTime, String formattedMagnitude,
+                  int magnitudeColor) {
+        mEarthquake = earthquake;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mFormattedDate = formattedDate;
+        mFormattedTime = formattedTime;
+        mFormattedMagnitude = formattedMagnitude;
+        mMagnitudeColor = magnitudeColor;
+    }
+
+    public Earthquake getEarthquake() {
+        return mEarthquake;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getFormattedDate() {
+        return mFormattedDate;
+    }
+
+    public String getFormattedTime() {
+        return mFormattedTime;
+    }
+
+    public String getFormattedMagnitude() {
+        return mFormattedMagnitude;
+    }
+
+    public int getMagnitudeColor() {
+        return mMagnitudeColor;
+    }
+}
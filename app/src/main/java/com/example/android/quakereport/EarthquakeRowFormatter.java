@@ -0,0 +1,141 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds {@link EarthquakeRow}s. The date, time and magnitude formats and the magnitude colors
+ * are created once per formatter rather than once per row. Like the formats it holds, a
+ * formatter is not thread safe, use one per thread.
+ */
+public final class EarthquakeRowFormatter {
+
+    private static final String LOCATION_SEPARATOR = "of";
+
+    //Highest magnitude floor with its own color, anything above uses mag10plus
+    private static final int MAX_MAGNITUDE_FLOOR = 9;
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("LLL dd, yyyy");
+    private final SimpleDateFormat mTimeFormat = new SimpleDateFormat("hh:mm a");
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final Date mDate = new Date();
+    private final String mNearThe;
+    //Color int for each magnitude floor 0..9, and for everything above
+    private final int[] mMagnitudeColors = new int[MAX_MAGNITUDE_FLOOR + 2];
+
+    public EarthquakeRowFormatter(Context context) {
+        this(context.getString(R.string.near_the), magnitudeColors(context));
+    }
+
+    /**
+     * Create a formatter from resolved resources: the text shown before a location without an
+     * offset, and the color of each magnitude floor 0..9 followed by the one for everything above
+     */
+    EarthquakeRowFormatter(String nearThe, int[] magnitudeColors) {
+        mNearThe = nearThe;
+        System.arraycopy(magnitudeColors, 0, mMagnitudeColors, 0, mMagnitudeColors.length);
+    }
+
+    private static int[] magnitudeColors(Context context) {
+        int[] colors = new int[MAX_MAGNITUDE_FLOOR + 2];
+        for (int floor = 0; floor < colors.length; floor++) {
+            colors[floor] = ContextCompat.getColor(context, getMagnitudeColorResourceId(floor));
+        }
+        return colors;
+    }
+
+    /** Format every earthquake in the list */
+    public List<EarthquakeRow> format(List<Earthquake> earthquakes) {
+        return format(earthquakes, null);
+    }
+
+    /**
+     * Format every earthquake in the list, reusing the row already built for an earthquake
+     * found in previousRows so events carried over from an earlier load aren't formatted twice.
+     */
+    public List<EarthquakeRow> format(List<Earthquake> earthquakes,
+                                      List<EarthquakeRow> previousRows) {
+        Map<Earthquake, EarthquakeRow> previousByEarthquake = new IdentityHashMap<>();
+        if (previousRows != null) {
+            for (EarthquakeRow row : previousRows) {
+                previousByEarthquake.put(row.getEarthquake(), row);
+            }
+        }
+        List<EarthquakeRow> rows = new ArrayList<>(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            EarthquakeRow row = previousByEarthquake.get(earthquake);
+            rows.add(row != null ? row : format(earthquake));
+        }
+        return rows;
+    }
+
+    /** Format one earthquake */
+    public EarthquakeRow format(Earthquake earthquake) {
+        //get string original location and store as variable
+        String originalLocation = earthquake.getLocation();
+
+        //Check if LOCATION_SEPARATOR exists, if not treat as location_offset, and use text "Near.."
+        // Split string at word "of" (LOCATION_SEPARATOR)
+        String locationOffset;
+        String primaryLocation;
+        if (originalLocation.contains(LOCATION_SEPARATOR)) {
+            String[] parts = originalLocation.split(LOCATION_SEPARATOR);
+            locationOffset = parts[0] + LOCATION_SEPARATOR;
+            primaryLocation = parts.length > 1 ? parts[1] : "";
+        }else{
+            locationOffset = mNearThe;
+            primaryLocation = originalLocation;
+        }
+
+        mDate.setTime(earthquake.getTimeInMilliseconds());
+        return new EarthquakeRow(earthquake, locationOffset, primaryLocation,
+                mDateFormat.format(mDate), mTimeFormat.format(mDate),
+                mMagnitudeFormat.format(earthquake.getMagnitude()),
+                getMagnitudeColor(earthquake.getMagnitude()));
+    }
+
+    /** Return the color int of the magnitude circle for this magnitude */
+    public int getMagnitudeColor(double magnitude) {
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        if (magnitudeFloor < 0 || magnitudeFloor > MAX_MAGNITUDE_FLOOR) {
+            return mMagnitudeColors[MAX_MAGNITUDE_FLOOR + 1];
+        }
+        return mMagnitudeColors[magnitudeFloor];
+    }
+
+    private static int getMagnitudeColorResourceId(int magnitudeFloor) {
+        int magnitudeColorResourceId;
+        switch (magnitudeFloor){
+            case 0:
+            case 1:
+                magnitudeColorResourceId=R.color.mag1;break;
+            case 2:
+                magnitudeColorResourceId=R.color.mag2;break;
+            case 3:
+                magnitudeColorResourceId=R.color.mag3;break;
+            case 4:
+                magnitudeColorResourceId=R.color.mag4;break;
+            case 5:
+                magnitudeColorResourceId=R.color.mag5;break;
+            case 6:
+                magnitudeColorResourceId=R.color.mag6;break;
+            case 7:
+                magnitudeColorResourceId=R.color.mag7;break;
+            case 8:
+                magnitudeColorResourceId=R.color.mag8;break;
+            case 9:
+                magnitudeColorResourceId=R.color.mag9;break;
+            default:
+                magnitudeColorResourceId=R.color.mag10plus;break;
+        }
+        return magnitudeColorResourceId;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Query URLs the user has opened recently, most recent first, kept so
+ * {@link EarthquakeSyncService} knows which queries to refresh in the background.
+ */
+public final class EarthquakeSavedQueries {
+
+    /** Name of the preferences file holding the saved queries */
+    private static final String PREFS_NAME = "saved_queries";
+
+    private static final String KEY_URLS = "urls";
+
+    /** Most queries kept, older ones are forgotten */
+    private static final int MAX_SAVED_QUERIES = 5;
+
+    //Query URLs never contain a newline, so it separates them in the stored value
+    private static final String SEPARATOR = "\n";
+
+    private EarthquakeSavedQueries() {
+    }
+
+    /** Save a query URL as the most recently used one */
+    public static synchronized void add(Context context, String url) {
+        List<String> urls = getAll(context);
+        urls.remove(url);
+        urls.add(0, url);
+        while (urls.size() > MAX_SAVED_QUERIES) {
+            urls.remove(urls.size() - 1);
+        }
+        getPreferences(context).edit()
+                .putString(KEY_URLS, TextUtils.join(SEPARATOR, urls))
+                .apply();
+    }
+
+    /** Return every saved query URL, most recently used first */
+    public static synchronized List<String> getAll(Context context) {
+        String stored = getPreferences(context).getString(KEY_URLS, "");
+        if (stored.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(stored.split(SEPARATOR)));
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.quakereport;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of a list of {@link Earthquake}s, read back in one bulk read instead
+ * of re-parsing GeoJSON. Magnitudes and times are stored as fixed-width columns, and locations
+ * and urls as indexes into a table holding each distinct string once.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic
+ *   int    version
+ *   int    event count
+ *   int    string table size
+ *   long   CRC32 of everything below
+ *   double magnitude[count]
+ *   long   time[count]
+ *   long   updated time[count]
+ *   int    location index[count]
+ *   int    url index[count]
+ *   int    id index[count], -1 for events without an id
+ *   double latitude[count]
+ *   double longitude[count]
+ *   double depth[count]
+ *   string table: for each string an int byte length followed by its UTF-8 bytes
+ * </pre>
+ */
+public final class EarthquakeSnapshot {
+
+    /** "QKSN" */
+    private static final int MAGIC = 0x514B534E;
+
+    /** Bumped whenever the layout changes, snapshots of other versions are discarded */
+    private static final int VERSION = 3;
+
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+
+    /** Width of one event across all fixed-width columns */
+    private static final int EVENT_BYTES = 8 + 8 + 8 + 4 + 4 + 4 + 8 + 8 + 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private EarthquakeSnapshot() {
+    }
+
+    /** Encode the list of earthquakes as a snapshot */
+    public static byte[] encode(List<Earthquake> earthquakes) {
+        int count = earthquakes.size();
+
+        //Build the deduplicated string table and each event's indexes into it
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] locationIndexes = new int[count];
+        int[] urlIndexes = new int[count];
+        int[] idIndexes = new int[count];
+        int stringBytes = 0;
+        for (int i = 0; i < count; i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            locationIndexes[i] = indexOf(earthquake.getLocation(), stringIndexes, strings);
+            urlIndexes[i] = indexOf(earthquake.getUrl(), stringIndexes, strings);
+            idIndexes[i] = earthquake.getId() == null
+                    ? -1 : indexOf(earthquake.getId(), stringIndexes, strings);
+        }
+        for (byte[] string : strings) {
+            stringBytes += 4 + string.length;
+        }
+
+        int payloadBytes = count * EVENT_BYTES + stringBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payloadBytes);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        buffer.putInt(strings.size());
+        //Checksum is filled in once the payload is written
+        buffer.putLong(0);
+
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(earthquakes.get(i).getMagnitude());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(earthquakes.get(i).getTimeInMilliseconds());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(earthquakes.get(i).getUpdatedInMilliseconds());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(locationIndexes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(urlIndexes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(idIndexes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(earthquakes.get(i).getLatitude());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(earthquakes.get(i).getLongitude());
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(earthquakes.get(i).getDepth());
+        }
+        for (byte[] string : strings) {
+            buffer.putInt(string.length);
+            buffer.put(string);
+        }
+
+        byte[] snapshot = buffer.array();
+        buffer.putLong(HEADER_BYTES - 8, checksum(snapshot, HEADER_BYTES, payloadBytes));
+        return snapshot;
+    }
+
+    /**
+     * Decode a snapshot. Returns null if the bytes are not a snapshot of this version, are
+     * truncated, or fail the checksum, so a corrupt file is simply thrown away.
+     */
+    public static List<Earthquake> decode(byte[] data, int offset, int length) {
+        if (length < HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt();
+            int stringCount = buffer.getInt();
+            long expectedChecksum = buffer.getLong();
+            int payloadBytes = length - HEADER_BYTES;
+            //Reject sizes that cannot fit before allocating anything for them
+            if (count < 0 || stringCount < 0
+                    || (long) count * EVENT_BYTES + (long) stringCount * 4 > payloadBytes) {
+                return null;
+            }
+            if (checksum(data, offset + HEADER_BYTES, payloadBytes) != expectedChecksum) {
+                return null;
+            }
+
+            double[] magnitudes = new double[count];
+            long[] times = new long[count];
+            long[] updatedTimes = new long[count];
+            int[] locationIndexes = new int[count];
+            int[] urlIndexes = new int[count];
+            int[] idIndexes = new int[count];
+            double[] latitudes = new double[count];
+            double[] longitudes = new double[count];
+            double[] depths = new double[count];
+            for (int i = 0; i < count; i++) {
+                magnitudes[i] = buffer.getDouble();
+            }
+            for (int i = 0; i < count; i++) {
+                times[i] = buffer.getLong();
+            }
+            for (int i = 0; i < count; i++) {
+                updatedTimes[i] = buffer.getLong();
+            }
+            for (int i = 0; i < count; i++) {
+                locationIndexes[i] = buffer.getInt();
+            }
+            for (int i = 0; i < count; i++) {
+                urlIndexes[i] = buffer.getInt();
+            }
+            for (int i = 0; i < count; i++) {
+                idIndexes[i] = buffer.getInt();
+            }
+            for (int i = 0; i < count; i++) {
+                latitudes[i] = buffer.getDouble();
+            }
+            for (int i = 0; i < count; i++) {
+                longitudes[i] = buffer.getDouble();
+            }
+            for (int i = 0; i < count; i++) {
+                depths[i] = buffer.getDouble();
+            }
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int stringLength = buffer.getInt();
+                if (stringLength < 0 || stringLength > buffer.remaining()) {
+                    return null;
+                }
+                strings[i] = new String(data, buffer.position(), stringLength, UTF_8);
+                buffer.position(buffer.position() + stringLength);
+            }
+
+            List<Earthquake> earthquakes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (locationIndexes[i] < 0 || locationIndexes[i] >= stringCount
+                        || urlIndexes[i] < 0 || urlIndexes[i] >= stringCount
+                        || idIndexes[i] < -1 || idIndexes[i] >= stringCount) {
+                    return null;
+                }
+                String id = idIndexes[i] < 0 ? null : strings[idIndexes[i]];
+                earthquakes.add(new Earthquake(id, magnitudes[i], strings[locationIndexes[i]],
+                        times[i], updatedTimes[i], strings[urlIndexes[i]],
+                        latitudes[i], longitudes[i], depths[i]));
+            }
+            return earthquakes;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static int indexOf(String value, Map<String, Integer> stringIndexes,
+                               List<byte[]> strings) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            stringIndexes.put(value, index);
+            strings.add(value.getBytes(UTF_8));
+        }
+        return index;
+    }
+
+    private static long checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid index over event epicenters for map viewport, radius and nearest event lookups. The
+ * globe is cut into one degree cells, each holding the points inside it, so a query only looks
+ * at the cells its area overlaps instead of every event. Points are kept in parallel arrays and
+ * can be added, replaced and removed one at a time as delta batches arrive.
+ *
+ * Each event is held once, keyed by its USGS id (or its url when it has none). Events without
+ * coordinates are not indexed. Not thread-safe.
+ */
+public final class EarthquakeSpatialIndex {
+
+    /** Mean earth radius, as used by the haversine distance */
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    /** Half the earth's circumference, no two points are further apart than this */
+    private static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    /** Radius the nearest event search starts from, doubled until enough events are found */
+    private static final double NEAREST_START_RADIUS_KM = 50;
+
+    private static final double KM_PER_DEGREE = MAX_DISTANCE_KM / 180;
+
+    private static final double CELL_DEGREES = 1.0;
+    private static final int ROWS = (int) (180 / CELL_DEGREES);
+    private static final int COLUMNS = (int) (360 / CELL_DEGREES);
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    //Points in each cell, by cell number row * COLUMNS + column, allocated on first use
+    private final int[][] mCells = new int[ROWS * COLUMNS][];
+    private final int[] mCellSizes = new int[ROWS * COLUMNS];
+
+    private int mSize;
+    private Earthquake[] mEarthquakes = new Earthquake[INITIAL_CAPACITY];
+    private double[] mLatitudes = new double[INITIAL_CAPACITY];
+    private double[] mLongitudes = new double[INITIAL_CAPACITY];
+    //Cell of each point and its position in that cell, so removal is constant time
+    private int[] mCellOfPoint = new int[INITIAL_CAPACITY];
+    private int[] mSlotOfPoint = new int[INITIAL_CAPACITY];
+
+    //Point of each event by id, or by url for events without one
+    private final Map<String, Integer> mPointsByKey = new HashMap<>();
+
+    /** Return the number of events indexed */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Index an event, replacing the indexed copy of the same event. Returns false if the event
+     * has no coordinates and was left out.
+     */
+    public boolean put(Earthquake earthquake) {
+        String key = keyOf(earthquake);
+        double latitude = earthquake.getLatitude();
+        double longitude = earthquake.getLongitude();
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            remove(key);
+            return false;
+        }
+        int cell = cellOf(latitude, longitude);
+        Integer held = mPointsByKey.get(key);
+        int point;
+        if (held != null) {
+            point = held;
+            if (mCellOfPoint[point] != cell) {
+                removeFromCell(point);
+                addToCell(point, cell);
+            }
+        } else {
+            ensureCapacity(mSize + 1);
+            point = mSize++;
+            mPointsByKey.put(key, point);
+            addToCell(point, cell);
+        }
+        mEarthquakes[point] = earthquake;
+        mLatitudes[point] = latitude;
+        mLongitudes[point] = longitude;
+        return true;
+    }
+
+    /** Index every event of a batch, see {@link #put(Earthquake)} */
+    public void putAll(List<Earthquake> earthquakes) {
+        ensureCapacity(mSize + earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            put(earthquakes.get(i));
+        }
+    }
+
+    /** Remove the event with this id or url, returns false if it was not indexed */
+    public boolean remove(String key) {
+        Integer removed = mPointsByKey.remove(key);
+        if (removed == null) {
+            return false;
+        }
+        int point = removed;
+        removeFromCell(point);
+
+        //Move the last point into the freed slot so the arrays stay dense
+        int last = --mSize;
+        if (point != last) {
+            mEarthquakes[point] = mEarthquakes[last];
+            mLatitudes[point] = mLatitudes[last];
+            mLongitudes[point] = mLongitudes[last];
+            mCellOfPoint[point] = mCellOfPoint[last];
+            mSlotOfPoint[point] = mSlotOfPoint[last];
+            mCells[mCellOfPoint[point]][mSlotOfPoint[point]] = point;
+            mPointsByKey.put(keyOf(mEarthquakes[point]), point);
+        }
+        mEarthquakes[last] = null;
+        return true;
+    }
+
+    /** Remove every event */
+    public void clear() {
+        Arrays.fill(mCellSizes, 0);
+        Arrays.fill(mEarthquakes, 0, mSize, null);
+        mPointsByKey.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Return the events inside a viewport, bounds in degrees and inclusive. A viewport crossing
+     * the antimeridian has a minLongitude greater than its maxLongitude.
+     */
+    public List<Earthquake> queryBoundingBox(double minLatitude, double maxLatitude,
+                                             double minLongitude, double maxLongitude) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        if (minLongitude > maxLongitude) {
+            collectBoundingBox(minLatitude, maxLatitude, minLongitude, 180, earthquakes);
+            collectBoundingBox(minLatitude, maxLatitude, -180, maxLongitude, earthquakes);
+        } else {
+            collectBoundingBox(minLatitude, maxLatitude, minLongitude, maxLongitude, earthquakes);
+        }
+        return earthquakes;
+    }
+
+    /** Return the events within radiusKm of a point, in no particular order */
+    public List<Earthquake> queryRadius(double latitude, double longitude, double radiusKm) {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        collectRadius(latitude, longitude, radiusKm, earthquakes, null);
+        return earthquakes;
+    }
+
+    /** Return up to k events closest to a point, nearest first */
+    public List<Earthquake> nearest(double latitude, double longitude, int k) {
+        int wanted = Math.min(k, mSize);
+        if (wanted <= 0) {
+            return new ArrayList<>();
+        }
+        //Every event inside a radius holding at least k of them is a candidate, and none
+        //outside it can be closer, so widen the radius until it holds enough
+        List<Earthquake> candidates = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        double radiusKm = NEAREST_START_RADIUS_KM;
+        while (true) {
+            candidates.clear();
+            distances.clear();
+            collectRadius(latitude, longitude, radiusKm, candidates, distances);
+            if (candidates.size() >= wanted || radiusKm >= MAX_DISTANCE_KM) {
+                break;
+            }
+            radiusKm *= 2;
+        }
+
+        Integer[] order = new Integer[candidates.size()];
+        final double[] candidateDistances = new double[candidates.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            candidateDistances[i] = distances.get(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(candidateDistances[a], candidateDistances[b]);
+            }
+        });
+        List<Earthquake> nearest = new ArrayList<>(wanted);
+        for (int i = 0; i < wanted; i++) {
+            nearest.add(candidates.get(order[i]));
+        }
+        return nearest;
+    }
+
+    /** Return the great circle distance in km between two points, in degrees */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2,
+                                    double longitude2) {
+        double lat1 = Math.toRadians(latitude1);
+        double lat2 = Math.toRadians(latitude2);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private void collectBoundingBox(double minLatitude, double maxLatitude, double minLongitude,
+                                    double maxLongitude, List<Earthquake> out) {
+        int firstRow = rowOf(minLatitude);
+        int lastRow = rowOf(maxLatitude);
+        int firstColumn = columnOf(minLongitude);
+        int lastColumn = columnOf(maxLongitude);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * COLUMNS + column;
+                int[] points = mCells[cell];
+                for (int i = 0; i < mCellSizes[cell]; i++) {
+                    int point = points[i];
+                    double latitude = mLatitudes[point];
+                    double longitude = mLongitudes[point];
+                    if (latitude >= minLatitude && latitude <= maxLatitude
+                            && longitude >= minLongitude && longitude <= maxLongitude) {
+                        out.add(mEarthquakes[point]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add the events within radiusKm to out, and their distances to distancesOut if given */
+    private void collectRadius(double latitude, double longitude, double radiusKm,
+                               List<Earthquake> out, List<Double> distancesOut) {
+        //Latitude band of the circle, widened to every longitude if it reaches a pole
+        double latitudeSpan = radiusKm / KM_PER_DEGREE;
+        double minLatitude = latitude - latitudeSpan;
+        double maxLatitude = latitude + latitudeSpan;
+        int firstColumn = 0;
+        int lastColumn = COLUMNS - 1;
+        boolean wraps = false;
+        if (minLatitude > -90 && maxLatitude < 90) {
+            double longitudeSpan = Math.toDegrees(Math.asin(Math.min(1,
+                    Math.sin(radiusKm / EARTH_RADIUS_KM) / Math.cos(Math.toRadians(latitude)))));
+            if (radiusKm < MAX_DISTANCE_KM / 2 && longitudeSpan < 180) {
+                double minLongitude = longitude - longitudeSpan;
+                double maxLongitude = longitude + longitudeSpan;
+                wraps = minLongitude < -180 || maxLongitude > 180;
+                firstColumn = columnOf(wrapLongitude(minLongitude));
+                lastColumn = columnOf(wrapLongitude(maxLongitude));
+            }
+        }
+        int firstRow = rowOf(Math.max(-90, minLatitude));
+        int lastRow = rowOf(Math.min(90, maxLatitude));
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (wraps) {
+                collectRadiusInRow(row, firstColumn, COLUMNS - 1, latitude, longitude, radiusKm,
+                        out, distancesOut);
+                collectRadiusInRow(row, 0, lastColumn, latitude, longitude, radiusKm,
+                        out, distancesOut);
+            } else {
+                collectRadiusInRow(row, firstColumn, lastColumn, latitude, longitude, radiusKm,
+                        out, distancesOut);
+            }
+        }
+    }
+
+    private void collectRadiusInRow(int row, int firstColumn, int lastColumn, double latitude,
+                                    double longitude, double radiusKm, List<Earthquake> out,
+                                    List<Double> distancesOut) {
+        for (int column = firstColumn; column <= lastColumn; column++) {
+            int cell = row * COLUMNS + column;
+            int[] points = mCells[cell];
+            for (int i = 0; i < mCellSizes[cell]; i++) {
+                int point = points[i];
+                double distance = distanceKm(latitude, longitude, mLatitudes[point],
+                        mLongitudes[point]);
+                if (distance <= radiusKm) {
+                    out.add(mEarthquakes[point]);
+                    if (distancesOut != null) {
+                        distancesOut.add(distance);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addToCell(int point, int cell) {
+        int[] points = mCells[cell];
+        if (points == null) {
+            points = new int[INITIAL_CELL_CAPACITY];
+            mCells[cell] = points;
+        } else if (mCellSizes[cell] == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+            mCells[cell] = points;
+        }
+        int slot = mCellSizes[cell]++;
+        points[slot] = point;
+        mCellOfPoint[point] = cell;
+        mSlotOfPoint[point] = slot;
+    }
+
+    private void removeFromCell(int point) {
+        int cell = mCellOfPoint[point];
+        int slot = mSlotOfPoint[point];
+        int[] points = mCells[cell];
+        int lastSlot = --mCellSizes[cell];
+        if (slot != lastSlot) {
+            int moved = points[lastSlot];
+            points[slot] = moved;
+            mSlotOfPoint[moved] = slot;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mEarthquakes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mEarthquakes.length * 2);
+        mEarthquakes = Arrays.copyOf(mEarthquakes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mCellOfPoint = Arrays.copyOf(mCellOfPoint, newCapacity);
+        mSlotOfPoint = Arrays.copyOf(mSlotOfPoint, newCapacity);
+    }
+
+    private static int cellOf(double latitude, double longitude) {
+        return rowOf(latitude) * COLUMNS + columnOf(longitude);
+    }
+
+    private static int rowOf(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    private static int columnOf(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / CELL_DEGREES);
+        return Math.max(0, Math.min(COLUMNS - 1, column));
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        } else if (longitude > 180) {
+            return longitude - 360;
+        }
+        return longitude;
+    }
+
+    private static String keyOf(Earthquake earthquake) {
+        return earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+    }
+}
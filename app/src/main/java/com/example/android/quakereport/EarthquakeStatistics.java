@@ -0,0 +1,275 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Running aggregates of a set of events for trend views: counts per day, magnitude histograms,
+ * energy release and the Gutenberg-Richter b-value. Events are folded into one bucket per UTC
+ * day holding the day's count, total energy and a histogram of 0.1 magnitude bins, so adding
+ * a batch costs time in the batch size, and a query over a time range only combines the
+ * buckets of its days instead of going over every event.
+ *
+ * Each event is counted once, keyed by its USGS id (or its url when it has none); putting a
+ * newer copy of an event moves its contribution. Safe to use from several threads.
+ */
+public final class EarthquakeStatistics {
+
+    /** Length of a bucket */
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Width of a magnitude bin, the precision USGS reports most magnitudes with */
+    public static final double BIN_WIDTH = 0.1;
+
+    /** Lower edge of the first magnitude bin, weaker events are counted in it */
+    public static final double MIN_BIN_MAGNITUDE = -1.0;
+
+    /** Number of magnitude bins, stronger events than the last bin are counted in it */
+    public static final int BIN_COUNT = 111;
+
+    /** Fewest events at or above the completeness magnitude for a b-value estimate */
+    private static final int MIN_B_VALUE_EVENTS = 50;
+
+    //Bucket of every day holding at least one event, by days since the epoch
+    private final TreeMap<Long, Bucket> mBuckets = new TreeMap<>();
+
+    //Day and magnitude each event was counted with, by id or url, so it can be taken back out
+    private final Map<String, Long> mContributions = new HashMap<>();
+
+    /** Count an event, replacing the counted copy of the same event */
+    public synchronized void put(Earthquake earthquake) {
+        String key = earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+        put(key, earthquake.getTimeInMilliseconds(), earthquake.getMagnitude());
+    }
+
+    /** Count the event with this id or url, replacing what was counted for it */
+    public synchronized void put(String key, long timeInMilliseconds, double magnitude) {
+        Long held = mContributions.get(key);
+        if (held != null) {
+            subtract(held);
+        }
+        long contribution = pack(dayOf(timeInMilliseconds), (float) magnitude);
+        mContributions.put(key, contribution);
+        add(contribution);
+    }
+
+    /** Count every event of a batch, see {@link #put(Earthquake)} */
+    public synchronized void putAll(List<Earthquake> earthquakes) {
+        for (int i = 0; i < earthquakes.size(); i++) {
+            put(earthquakes.get(i));
+        }
+    }
+
+    /** Stop counting the event with this id or url, returns false if it was not counted */
+    public synchronized boolean remove(String key) {
+        Long held = mContributions.remove(key);
+        if (held == null) {
+            return false;
+        }
+        subtract(held);
+        return true;
+    }
+
+    /** Return the number of events counted */
+    public synchronized int size() {
+        return mContributions.size();
+    }
+
+    /** Forget every event */
+    public synchronized void clear() {
+        mBuckets.clear();
+        mContributions.clear();
+    }
+
+    /** Return the number of events between two epoch milliseconds, by whole UTC days */
+    public synchronized int count(long startTime, long endTime) {
+        int count = 0;
+        for (Bucket bucket : bucketsBetween(startTime, endTime).values()) {
+            count += bucket.mCount;
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of events on each UTC day from the day of startTime to the day of
+     * endTime, both included
+     */
+    public synchronized int[] countsPerDay(long startTime, long endTime) {
+        long firstDay = dayOf(startTime);
+        int[] counts = new int[dayCount(startTime, endTime)];
+        for (Map.Entry<Long, Bucket> entry : bucketsBetween(startTime, endTime).entrySet()) {
+            counts[(int) (entry.getKey() - firstDay)] = entry.getValue().mCount;
+        }
+        return counts;
+    }
+
+    /**
+     * Return the magnitude histogram of the events between two times. Bin i counts magnitudes
+     * from {@link #binMagnitude(int)} up to the next bin's.
+     */
+    public synchronized int[] magnitudeHistogram(long startTime, long endTime) {
+        int[] histogram = new int[BIN_COUNT];
+        for (Bucket bucket : bucketsBetween(startTime, endTime).values()) {
+            for (int bin = 0; bin < BIN_COUNT; bin++) {
+                histogram[bin] += bucket.mBins[bin];
+            }
+        }
+        return histogram;
+    }
+
+    /** Return the lower edge of a magnitude bin */
+    public static double binMagnitude(int bin) {
+        return MIN_BIN_MAGNITUDE + bin * BIN_WIDTH;
+    }
+
+    /** Return the seismic energy released between two times, in joules */
+    public synchronized double energyJoules(long startTime, long endTime) {
+        double energy = 0;
+        for (Bucket bucket : bucketsBetween(startTime, endTime).values()) {
+            energy += bucket.mEnergy;
+        }
+        return energy;
+    }
+
+    /**
+     * Return, for each UTC day from the day of startTime to the day of endTime, the energy
+     * released over the windowDays days ending with it, in joules. A window of no days
+     * releases none.
+     */
+    public synchronized double[] rollingEnergyJoules(long startTime, long endTime,
+                                                     int windowDays) {
+        long firstDay = dayOf(startTime);
+        int days = dayCount(startTime, endTime);
+        if (windowDays <= 0 || days == 0) {
+            return new double[days];
+        }
+        //Daily totals from windowDays - 1 days before the first day shown
+        double[] daily = new double[days + windowDays - 1];
+        long from = firstDay - (windowDays - 1);
+        for (Map.Entry<Long, Bucket> entry
+                : mBuckets.subMap(from, true, dayOf(endTime), true).entrySet()) {
+            daily[(int) (entry.getKey() - from)] = entry.getValue().mEnergy;
+        }
+        double[] rolling = new double[days];
+        double sum = 0;
+        for (int i = 0; i < daily.length; i++) {
+            sum += daily[i];
+            if (i >= windowDays) {
+                sum -= daily[i - windowDays];
+            }
+            if (i >= windowDays - 1) {
+                rolling[i - (windowDays - 1)] = sum;
+            }
+        }
+        return rolling;
+    }
+
+    /**
+     * Return the Gutenberg-Richter b-value of the events between two times, or NaN if fewer
+     * than 50 events are at or above the completeness magnitude. The completeness magnitude is
+     * the most populated bin (maximum curvature), and b is Aki's maximum likelihood estimate
+     * with Utsu's correction for binned magnitudes.
+     */
+    public synchronized double bValue(long startTime, long endTime) {
+        int[] histogram = magnitudeHistogram(startTime, endTime);
+        int completenessBin = 0;
+        for (int bin = 1; bin < BIN_COUNT; bin++) {
+            if (histogram[bin] > histogram[completenessBin]) {
+                completenessBin = bin;
+            }
+        }
+        long count = 0;
+        double magnitudeSum = 0;
+        for (int bin = completenessBin; bin < BIN_COUNT; bin++) {
+            count += histogram[bin];
+            //Magnitudes sit on the bin edges, i.e. 4.3 is counted in the bin starting at 4.3
+            magnitudeSum += histogram[bin] * binMagnitude(bin);
+        }
+        if (count < MIN_B_VALUE_EVENTS) {
+            return Double.NaN;
+        }
+        double meanMagnitude = magnitudeSum / count;
+        double completeness = binMagnitude(completenessBin);
+        return Math.log10(Math.E) / (meanMagnitude - (completeness - BIN_WIDTH / 2));
+    }
+
+    /** Return the energy released by an event of this magnitude, in joules */
+    public static double energyJoules(double magnitude) {
+        //Gutenberg-Richter energy relation, log10 E = 1.5 M + 4.8
+        return Math.pow(10, 1.5 * magnitude + 4.8);
+    }
+
+    private SortedMap<Long, Bucket> bucketsBetween(long startTime, long endTime) {
+        long firstDay = dayOf(startTime);
+        long lastDay = dayOf(endTime);
+        if (lastDay < firstDay) {
+            return new TreeMap<>();
+        }
+        return mBuckets.subMap(firstDay, true, lastDay, true);
+    }
+
+    private void add(long contribution) {
+        long day = unpackDay(contribution);
+        Bucket bucket = mBuckets.get(day);
+        if (bucket == null) {
+            bucket = new Bucket();
+            mBuckets.put(day, bucket);
+        }
+        float magnitude = unpackMagnitude(contribution);
+        bucket.mCount++;
+        bucket.mEnergy += energyJoules(magnitude);
+        bucket.mBins[binOf(magnitude)]++;
+    }
+
+    private void subtract(long contribution) {
+        long day = unpackDay(contribution);
+        Bucket bucket = mBuckets.get(day);
+        float magnitude = unpackMagnitude(contribution);
+        bucket.mCount--;
+        bucket.mBins[binOf(magnitude)]--;
+        if (bucket.mCount == 0) {
+            //Also drops the rounding error left in the energy total
+            mBuckets.remove(day);
+        } else {
+            bucket.mEnergy -= energyJoules(magnitude);
+        }
+    }
+
+    private static int binOf(double magnitude) {
+        //Round first so 4.3, stored as 4.29999..., lands in the bin starting at 4.3
+        long tenths = Math.round((magnitude - MIN_BIN_MAGNITUDE) / BIN_WIDTH * 1000) / 1000;
+        return (int) Math.max(0, Math.min(BIN_COUNT - 1, tenths));
+    }
+
+    /** Return the UTC day of epoch milliseconds, days before 1970 are negative */
+    private static long dayOf(long time) {
+        long day = time / DAY_MILLIS;
+        return time % DAY_MILLIS < 0 ? day - 1 : day;
+    }
+
+    private static int dayCount(long startTime, long endTime) {
+        return (int) Math.max(0, dayOf(endTime) - dayOf(startTime) + 1);
+    }
+
+    private static long pack(long day, float magnitude) {
+        return (day << 32) | (Float.floatToIntBits(magnitude) & 0xFFFFFFFFL);
+    }
+
+    private static long unpackDay(long contribution) {
+        return contribution >> 32;
+    }
+
+    private static float unpackMagnitude(long contribution) {
+        return Float.intBitsToFloat((int) contribution);
+    }
+
+    /** Aggregates of one UTC day */
+    private static final class Bucket {
+        int mCount;
+        double mEnergy;
+        final int[] mBins = new int[BIN_COUNT];
+    }
+}
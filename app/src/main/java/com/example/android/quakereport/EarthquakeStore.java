@@ -0,0 +1,378 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented store for large sets of events. Each field lives in its own primitive array
+ * indexed by row, and locations, urls and ids are interned into one string pool, so ten
+ * thousand events cost a handful of arrays instead of ten thousand objects. Sorting and
+ * filtering run over the columns directly and hand back row indexes, {@link Earthquake}
+ * objects are only built for the rows that are actually shown.
+ *
+ * Each event is held once, keyed by its USGS id (or its url when it has none). Pooled strings
+ * are counted by the rows using them, so the strings of a replaced copy are dropped with it.
+ * Not thread-safe.
+ */
+public final class EarthquakeStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    //Row orderings, one per USGS "orderby" value
+    private static final int ORDER_TIME = 0;
+    private static final int ORDER_TIME_ASC = 1;
+    private static final int ORDER_MAGNITUDE = 2;
+    private static final int ORDER_MAGNITUDE_ASC = 3;
+
+    private int mSize;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private long[] mUpdatedTimes;
+    private float[] mLatitudes;
+    private float[] mLongitudes;
+    private float[] mDepths;
+    private int[] mLocationIndexes;
+    private int[] mUrlIndexes;
+    //-1 for events without an id
+    private int[] mIdIndexes;
+
+    //Interned strings and the index of each one in the pool, null for a free slot
+    private final List<String> mStrings = new ArrayList<>();
+    private final Map<String, Integer> mStringIndexes = new HashMap<>();
+    //Number of row fields using each pooled string, and the free slots of the pool
+    private int[] mStringRefCounts = new int[INITIAL_CAPACITY];
+    private int[] mFreeStrings = new int[INITIAL_CAPACITY];
+    private int mFreeStringCount;
+
+    //Row of each event by id, or by url for events without one
+    private final Map<String, Integer> mRowsByKey = new HashMap<>();
+
+    public EarthquakeStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EarthquakeStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdatedTimes = new long[capacity];
+        mLatitudes = new float[capacity];
+        mLongitudes = new float[capacity];
+        mDepths = new float[capacity];
+        mLocationIndexes = new int[capacity];
+        mUrlIndexes = new int[capacity];
+        mIdIndexes = new int[capacity];
+    }
+
+    /** Return the number of events held */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Add an event, or replace the held copy of the same event if this one was updated more
+     * recently. Returns the event's row.
+     */
+    public int put(Earthquake earthquake) {
+        String key = keyOf(earthquake);
+        Integer held = mRowsByKey.get(key);
+        if (held != null) {
+            if (mUpdatedTimes[held] < earthquake.getUpdatedInMilliseconds()) {
+                int location = mLocationIndexes[held];
+                int url = mUrlIndexes[held];
+                int id = mIdIndexes[held];
+                write(held, earthquake);
+                //Released after the new copy is interned, so strings it shares are kept
+                release(location);
+                release(url);
+                release(id);
+            }
+            return held;
+        }
+        ensureCapacity(mSize + 1);
+        int row = mSize++;
+        write(row, earthquake);
+        mRowsByKey.put(key, row);
+        return row;
+    }
+
+    /** Put every event of the list, see {@link #put(Earthquake)} */
+    public void putAll(List<Earthquake> earthquakes) {
+        ensureCapacity(mSize + earthquakes.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            put(earthquakes.get(i));
+        }
+    }
+
+    /** Return the row holding the event with this id or url, or -1 if none does */
+    public int rowOf(String key) {
+        Integer row = mRowsByKey.get(key);
+        return row == null ? -1 : row;
+    }
+
+    public double getMagnitude(int row) {
+        return mMagnitudes[row];
+    }
+
+    public long getTimeInMilliseconds(int row) {
+        return mTimes[row];
+    }
+
+    public long getUpdatedInMilliseconds(int row) {
+        return mUpdatedTimes[row];
+    }
+
+    public double getLatitude(int row) {
+        return mLatitudes[row];
+    }
+
+    public double getLongitude(int row) {
+        return mLongitudes[row];
+    }
+
+    public double getDepth(int row) {
+        return mDepths[row];
+    }
+
+    public String getLocation(int row) {
+        return mStrings.get(mLocationIndexes[row]);
+    }
+
+    public String getUrl(int row) {
+        return mStrings.get(mUrlIndexes[row]);
+    }
+
+    /** Return the USGS id of the event at this row, null if it has none */
+    public String getId(int row) {
+        return mIdIndexes[row] < 0 ? null : mStrings.get(mIdIndexes[row]);
+    }
+
+    /** Build the {@link Earthquake} held at this row */
+    public Earthquake get(int row) {
+        return new Earthquake(getId(row), mMagnitudes[row], getLocation(row), mTimes[row],
+                mUpdatedTimes[row], getUrl(row), mLatitudes[row], mLongitudes[row],
+                mDepths[row]);
+    }
+
+    /** Build the {@link Earthquake}s held at these rows, in the order given */
+    public List<Earthquake> get(int[] rows) {
+        List<Earthquake> earthquakes = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            earthquakes.add(get(row));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Return every row ordered by a USGS "orderby" value, newest first by default. Events
+     * that compare equal keep the order they were added in.
+     */
+    public int[] sortedRows(String orderBy) {
+        int[] rows = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            rows[i] = i;
+        }
+        sortRows(rows, orderBy);
+        return rows;
+    }
+
+    /** Order the given rows in place by a USGS "orderby" value, see {@link #sortedRows} */
+    public void sortRows(int[] rows, String orderBy) {
+        mergeSort(rows, rows.clone(), 0, rows.length, orderOf(orderBy));
+    }
+
+    /**
+     * Return sortedRows, ordered by a USGS "orderby" value, with rows merged in. rows are
+     * sorted here and must all come after every row of sortedRows, so the result is what
+     * {@link #sortedRows} would return for the rows of both.
+     */
+    public int[] mergeRows(int[] sortedRows, int[] rows, String orderBy) {
+        int order = orderOf(orderBy);
+        mergeSort(rows, rows.clone(), 0, rows.length, order);
+        int[] merged = new int[sortedRows.length + rows.length];
+        int left = 0;
+        int right = 0;
+        for (int i = 0; i < merged.length; i++) {
+            //Ties go to the earlier row, as in the stable sort
+            if (right >= rows.length || (left < sortedRows.length
+                    && compareRows(sortedRows[left], rows[right], order) <= 0)) {
+                merged[i] = sortedRows[left++];
+            } else {
+                merged[i] = rows[right++];
+            }
+        }
+        return merged;
+    }
+
+    private static int orderOf(String orderBy) {
+        if ("magnitude".equals(orderBy)) {
+            return ORDER_MAGNITUDE;
+        } else if ("magnitude-asc".equals(orderBy)) {
+            return ORDER_MAGNITUDE_ASC;
+        } else if ("time-asc".equals(orderBy)) {
+            return ORDER_TIME_ASC;
+        }
+        return ORDER_TIME;
+    }
+
+    /**
+     * Return the rows whose magnitude and time fall inside the given inclusive bounds, in row
+     * order. Pass NaN or Long.MIN_VALUE / Long.MAX_VALUE to leave a bound open.
+     */
+    public int[] filterRows(double minMagnitude, double maxMagnitude, long startTime,
+                            long endTime) {
+        double min = Double.isNaN(minMagnitude) ? Double.NEGATIVE_INFINITY : minMagnitude;
+        double max = Double.isNaN(maxMagnitude) ? Double.POSITIVE_INFINITY : maxMagnitude;
+        int[] matches = new int[mSize];
+        int count = 0;
+        for (int row = 0; row < mSize; row++) {
+            double magnitude = mMagnitudes[row];
+            long time = mTimes[row];
+            if (magnitude >= min && magnitude <= max && time >= startTime && time <= endTime) {
+                matches[count++] = row;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /** Forget every event, keeping the allocated columns for reuse */
+    public void clear() {
+        mSize = 0;
+        mStrings.clear();
+        mStringIndexes.clear();
+        mFreeStringCount = 0;
+        mRowsByKey.clear();
+    }
+
+    private int compareRows(int a, int b, int order) {
+        switch (order) {
+            case ORDER_MAGNITUDE:
+                return Double.compare(mMagnitudes[b], mMagnitudes[a]);
+            case ORDER_MAGNITUDE_ASC:
+                return Double.compare(mMagnitudes[a], mMagnitudes[b]);
+            case ORDER_TIME_ASC:
+                return compareLongs(mTimes[a], mTimes[b]);
+            default:
+                return compareLongs(mTimes[b], mTimes[a]);
+        }
+    }
+
+    /** Stable top-down merge sort of rows[from, to), using scratch as working space */
+    private void mergeSort(int[] rows, int[] scratch, int from, int to, int order) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        //Sort each half of scratch into itself, then merge them back into rows
+        mergeSort(scratch, rows, from, middle, order);
+        mergeSort(scratch, rows, middle, to, order);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to
+                    || (left < middle && compareRows(scratch[left], scratch[right], order) <= 0)) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    private void write(int row, Earthquake earthquake) {
+        mMagnitudes[row] = earthquake.getMagnitude();
+        mTimes[row] = earthquake.getTimeInMilliseconds();
+        mUpdatedTimes[row] = earthquake.getUpdatedInMilliseconds();
+        mLatitudes[row] = (float) earthquake.getLatitude();
+        mLongitudes[row] = (float) earthquake.getLongitude();
+        mDepths[row] = (float) earthquake.getDepth();
+        mLocationIndexes[row] = intern(earthquake.getLocation());
+        mUrlIndexes[row] = intern(earthquake.getUrl());
+        mIdIndexes[row] = earthquake.getId() == null ? -1 : intern(earthquake.getId());
+    }
+
+    private int intern(String value) {
+        Integer index = mStringIndexes.get(value);
+        if (index == null) {
+            if (mFreeStringCount > 0) {
+                index = mFreeStrings[--mFreeStringCount];
+                mStrings.set(index, value);
+            } else {
+                index = mStrings.size();
+                mStrings.add(value);
+                if (index == mStringRefCounts.length) {
+                    mStringRefCounts = Arrays.copyOf(mStringRefCounts, index * 2);
+                }
+            }
+            mStringIndexes.put(value, index);
+            mStringRefCounts[index] = 0;
+        }
+        mStringRefCounts[index]++;
+        return index;
+    }
+
+    /** Drop one use of a pooled string, freeing its slot with the last one. -1 is ignored. */
+    private void release(int index) {
+        if (index < 0 || --mStringRefCounts[index] > 0) {
+            return;
+        }
+        mStringIndexes.remove(mStrings.get(index));
+        mStrings.set(index, null);
+        if (mFreeStringCount == mFreeStrings.length) {
+            mFreeStrings = Arrays.copyOf(mFreeStrings, mFreeStringCount * 2);
+        }
+        mFreeStrings[mFreeStringCount++] = index;
+    }
+
+    /** Return the number of distinct strings pooled for the events held */
+    int pooledStringCount() {
+        return mStringIndexes.size();
+    }
+
+    /** Shrink the columns to the events held, giving back what clear() keeps for reuse */
+    public void trimToSize() {
+        resize(Math.max(mSize, 1));
+    }
+
+    /** Return roughly how many bytes the columns and the string pool take on the heap */
+    public long estimateBytes() {
+        //Nine columns of 4 or 8 bytes, 48 bytes per row of capacity
+        long bytes = 48L * mMagnitudes.length;
+        for (int i = 0; i < mStrings.size(); i++) {
+            String string = mStrings.get(i);
+            //String object and chars, plus its pool and index map entries
+            bytes += string == null ? 12 : 40 + 2 * string.length() + 48;
+        }
+        //Row map entries by key
+        return bytes + 48L * mRowsByKey.size();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mMagnitudes.length) {
+            return;
+        }
+        resize(Math.max(capacity, mMagnitudes.length * 2));
+    }
+
+    private void resize(int newCapacity) {
+        mMagnitudes = Arrays.copyOf(mMagnitudes, newCapacity);
+        mTimes = Arrays.copyOf(mTimes, newCapacity);
+        mUpdatedTimes = Arrays.copyOf(mUpdatedTimes, newCapacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, newCapacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, newCapacity);
+        mDepths = Arrays.copyOf(mDepths, newCapacity);
+        mLocationIndexes = Arrays.copyOf(mLocationIndexes, newCapacity);
+        mUrlIndexes = Arrays.copyOf(mUrlIndexes, newCapacity);
+        mIdIndexes = Arrays.copyOf(mIdIndexes, newCapacity);
+    }
+
+    private static String keyOf(Earthquake earthquake) {
+        return earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.quakereport;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based parser that reads a USGS GeoJSON response straight from an {@link InputStream}.
+ * Each {@link Earthquake} is emitted as soon as its feature has been read, and every field the
+ * app does not use is skipped without being built into a String or JSONObject.
+ */
+public final class EarthquakeStreamParser {
+
+    /** Receives each {@link Earthquake} as soon as its feature has been parsed */
+    public interface Listener {
+        void onEarthquakeParsed(Earthquake earthquake);
+    }
+
+    private EarthquakeStreamParser() {
+    }
+
+    /** Parse the whole stream and return the collected list of {@link Earthquake}s */
+    public static List<Earthquake> parse(InputStream inputStream) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<>();
+        parse(inputStream, new Listener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /** Parse the stream, handing each {@link Earthquake} to the listener as it completes */
+    public static void parse(InputStream inputStream, Listener listener) throws IOException {
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            //Only the "features" array is of interest, metadata and bbox are skipped
+            if ("features".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                Feature feature = new Feature();
+                while (reader.hasNext()) {
+                    Earthquake earthquake = readFeature(reader, feature);
+                    if (earthquake != null) {
+                        listener.onEarthquakeParsed(earthquake);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Fields of the feature being read. USGS sends "id" after "properties", so values are
+     * collected here and the {@link Earthquake} is only built once the whole feature is read.
+     */
+    private static final class Feature {
+        boolean hasProperties;
+        String id;
+        double magnitude;
+        String location;
+        long time;
+        long updated;
+        String url;
+        double latitude;
+        double longitude;
+        double depth;
+
+        void reset() {
+            hasProperties = false;
+            id = null;
+            magnitude = 0;
+            location = "";
+            time = 0;
+            updated = 0;
+            url = "";
+            latitude = Double.NaN;
+            longitude = Double.NaN;
+            depth = Double.NaN;
+        }
+    }
+
+    /** Read one element of "features", returning null if it carries no properties */
+    private static Earthquake readFeature(JsonReader reader, Feature feature) throws IOException {
+        feature.reset();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("properties".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader, feature);
+            } else if ("geometry".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, feature);
+            } else if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                feature.id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!feature.hasProperties) {
+            return null;
+        }
+        return new Earthquake(feature.id, feature.magnitude, feature.location, feature.time,
+                feature.updated, feature.url, feature.latitude, feature.longitude, feature.depth);
+    }
+
+    /** Read "mag", "place", "time", "updated" and "url" from a feature's properties object */
+    private static void readProperties(JsonReader reader, Feature feature) throws IOException {
+        feature.hasProperties = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            //USGS sends null for fields it does not know yet, keep the defaults for those
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("mag".equals(name)) {
+                feature.magnitude = reader.nextDouble();
+            } else if ("place".equals(name)) {
+                feature.location = reader.nextString();
+            } else if ("time".equals(name)) {
+                feature.time = reader.nextLong();
+            } else if ("updated".equals(name)) {
+                feature.updated = reader.nextLong();
+            } else if ("url".equals(name)) {
+                feature.url = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /** Read longitude, latitude and depth from a feature's Point geometry "coordinates" */
+    private static void readGeometry(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("coordinates".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                int index = 0;
+                while (reader.hasNext()) {
+                    if (reader.peek() != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if (index == 0) {
+                        feature.longitude = reader.nextDouble();
+                    } else if (index == 1) {
+                        feature.latitude = reader.nextDouble();
+                    } else if (index == 2) {
+                        feature.depth = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                    index++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
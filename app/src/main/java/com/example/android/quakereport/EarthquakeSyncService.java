@@ -0,0 +1,167 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Refreshes the first page of every saved query into the {@link EarthquakeCache} in the
+ * background, so opening the app shows fresh events without waiting on the network. All saved
+ * queries are refreshed in one run, started by an inexact, non-waking alarm the system batches
+ * with other apps' alarms. A run is skipped while roaming or on a low battery, and only the
+ * most recent query is refreshed over mobile data. A failed run is retried with exponential
+ * backoff.
+ */
+public class EarthquakeSyncService extends IntentService {
+
+    /** Tag for log messages*/
+    private static final String LOG_TAG = EarthquakeSyncService.class.getSimpleName();
+
+    private static final String ACTION_SYNC = "com.example.android.quakereport.action.SYNC";
+    private static final String ACTION_RETRY = "com.example.android.quakereport.action.RETRY";
+
+    /** Time between regular runs, well inside the loader's freshness window even when late */
+    private static final long SYNC_INTERVAL_MILLIS = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+    /** Delay before the first retry, doubled by every further failure up to the interval */
+    private static final long BASE_BACKOFF_MILLIS = 60 * 1000;
+
+    /** Below this charge, and not charging, runs are skipped */
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    /** Name of the preferences file holding the number of failed runs in a row */
+    private static final String PREFS_NAME = "sync_state";
+    private static final String KEY_FAILURES = "failures";
+
+    public EarthquakeSyncService() {
+        super("EarthquakeSyncService");
+    }
+
+    /**
+     * Schedule the regular background refresh unless it is already scheduled. The alarm is only
+     * lost to a reboot or a force stop, setting it again on every app start would keep pushing
+     * the next run back.
+     */
+    public static void schedule(Context context) {
+        Intent sync = new Intent(context, EarthquakeSyncService.class).setAction(ACTION_SYNC);
+        if (PendingIntent.getService(context, 0, sync, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        AlarmManager alarmManager =
+                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS,
+                pendingIntent(context, ACTION_SYNC));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        ConnectivityManager cm =
+                (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = cm.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected() || networkInfo.isRoaming()
+                || isBatteryLow()) {
+            //Not a failure, the next regular run tries again
+            return;
+        }
+
+        List<String> queryUrls = EarthquakeSavedQueries.getAll(this);
+        boolean unmetered = networkInfo.getType() == ConnectivityManager.TYPE_WIFI
+                || networkInfo.getType() == ConnectivityManager.TYPE_ETHERNET;
+        if (!unmetered && queryUrls.size() > 1) {
+            queryUrls = queryUrls.subList(0, 1);
+        }
+
+        boolean succeeded = true;
+        EarthquakeCache cache = EarthquakeCache.getInstance(this);
+        for (String queryUrl : queryUrls) {
+            succeeded &= refresh(cache, EarthquakeLoader.pageUrl(queryUrl, 1));
+        }
+        if (succeeded) {
+            onSyncSucceeded();
+        } else {
+            onSyncFailed();
+        }
+    }
+
+    /** Revalidate one cached page, returns false if the server could not be reached */
+    private static boolean refresh(EarthquakeCache cache, String pageUrl) {
+        EarthquakeCache.Entry cached = cache.get(pageUrl);
+        EarthquakeCache.Entry response = QueryUtils.fetchEarthquakeData(pageUrl, cached);
+        if (response == null) {
+            return false;
+        }
+        if (response == cached) {
+            cache.touch(pageUrl);
+        } else {
+            cache.put(pageUrl, response);
+        }
+        return true;
+    }
+
+    private void onSyncSucceeded() {
+        getPreferences(this).edit().putInt(KEY_FAILURES, 0).apply();
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(pendingIntent(this, ACTION_RETRY));
+    }
+
+    private void onSyncFailed() {
+        SharedPreferences preferences = getPreferences(this);
+        int failures = preferences.getInt(KEY_FAILURES, 0) + 1;
+        preferences.edit().putInt(KEY_FAILURES, failures).apply();
+        //1, 2, 4, 8... minutes, never waiting longer than the regular interval
+        long delay = BASE_BACKOFF_MILLIS << Math.min(failures - 1, 10);
+        delay = Math.min(delay, SYNC_INTERVAL_MILLIS);
+        Log.e(LOG_TAG, "Sync failed " + failures + " time(s) in a row, retrying in " + delay
+                + " ms");
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + delay,
+                pendingIntent(this, ACTION_RETRY));
+    }
+
+    private boolean isBatteryLow() {
+        //ACTION_BATTERY_CHANGED is sticky, registering without a receiver just reads it
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        boolean plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (plugged || level < 0 || scale <= 0) {
+            return false;
+        }
+        return level * 100 / scale < LOW_BATTERY_PERCENT;
+    }
+
+    private static PendingIntent pendingIntent(Context context, String action) {
+        Intent intent = new Intent(context, EarthquakeSyncService.class).setAction(action);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Alarms don't survive a reboot, schedules the refresh again once the device is up */
+    public static class BootReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+                schedule(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.android.quakereport;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over event locations for search as you type. Each location is cut into
+ * normalized tokens (lowercase, accents removed, split on anything but letters and digits),
+ * and every token maps to the sorted rows whose location holds it, so "tonga" finds
+ * "120 km NNE of Neiafu, Tonga" without scanning every location.
+ *
+ * Every query token is matched as a prefix of a location token, and tokens of four or more
+ * characters also match with one typo, eight or more with two. A typo is a missing, extra or
+ * wrong character, or two swapped ones. A row matches when each query token matches one of
+ * its tokens. Rows are the caller's, i.e. {@link EarthquakeStore} rows, and can be added,
+ * replaced and removed one at a time. Not thread-safe.
+ */
+public final class EarthquakeTextIndex {
+
+    /** Shortest query token that is allowed one typo */
+    private static final int ONE_TYPO_LENGTH = 4;
+
+    /** Shortest query token that is allowed two typos */
+    private static final int TWO_TYPOS_LENGTH = 8;
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    //Rows holding each token, tokens sorted so a prefix is a contiguous range
+    private final TreeMap<String, Postings> mPostings = new TreeMap<>();
+
+    //Tokens indexed for each row, null for rows without any
+    private final List<String[]> mRowTokens = new ArrayList<>();
+
+    /** Index the location of a row, replacing what was indexed for that row */
+    public void put(int row, String location) {
+        remove(row);
+        String[] tokens = tokenize(location);
+        while (mRowTokens.size() <= row) {
+            mRowTokens.add(null);
+        }
+        mRowTokens.set(row, tokens);
+        for (String token : tokens) {
+            Postings postings = mPostings.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(token, postings);
+            }
+            postings.add(row);
+        }
+    }
+
+    /** Stop finding a row, returns false if it was not indexed */
+    public boolean remove(int row) {
+        String[] tokens = row < mRowTokens.size() ? mRowTokens.get(row) : null;
+        if (tokens == null) {
+            return false;
+        }
+        mRowTokens.set(row, null);
+        for (String token : tokens) {
+            Postings postings = mPostings.get(token);
+            postings.remove(row);
+            if (postings.mSize == 0) {
+                mPostings.remove(token);
+            }
+        }
+        return true;
+    }
+
+    /** Remove every row */
+    public void clear() {
+        mPostings.clear();
+        mRowTokens.clear();
+    }
+
+    /**
+     * Return the rows whose location matches every token of the query, in ascending order.
+     * A query without any tokens matches nothing.
+     */
+    public int[] search(String query) {
+        String[] queryTokens = tokenize(query);
+        if (queryTokens.length == 0) {
+            return new int[0];
+        }
+        BitSet matches = null;
+        for (String queryToken : queryTokens) {
+            BitSet tokenMatches = rowsMatching(queryToken);
+            if (matches == null) {
+                matches = tokenMatches;
+            } else {
+                matches.and(tokenMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        int[] rows = new int[matches.cardinality()];
+        int i = 0;
+        for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            rows[i++] = row;
+        }
+        return rows;
+    }
+
+    /** Return the rows holding a token that starts with queryToken, typos allowed */
+    private BitSet rowsMatching(String queryToken) {
+        BitSet rows = new BitSet();
+        //Tokens with the exact prefix sit next to each other in the sorted map
+        SortedMap<String, Postings> prefixed =
+                mPostings.subMap(queryToken, queryToken + Character.MAX_VALUE);
+        for (Postings postings : prefixed.values()) {
+            postings.addTo(rows);
+        }
+
+        int maxEdits = queryToken.length() >= TWO_TYPOS_LENGTH ? 2
+                : queryToken.length() >= ONE_TYPO_LENGTH ? 1 : 0;
+        if (maxEdits == 0) {
+            return rows;
+        }
+        int[][] scratch = new int[3][queryToken.length() + 1];
+        for (Map.Entry<String, Postings> entry : mPostings.entrySet()) {
+            String token = entry.getKey();
+            if (!token.startsWith(queryToken)
+                    && prefixDistance(queryToken, token, maxEdits, scratch) <= maxEdits) {
+                entry.getValue().addTo(rows);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Return the fewest edits turning query into some prefix of token, or maxEdits + 1 if it
+     * takes more than maxEdits. An edit inserts, deletes or replaces one character or swaps
+     * two adjacent ones. The scratch arrays are three rows of query length + 1.
+     */
+    static int prefixDistance(String query, String token, int maxEdits, int[][] scratch) {
+        int queryLength = query.length();
+        //A prefix longer than the query plus the allowed insertions can't be close enough
+        int tokenLength = Math.min(token.length(), queryLength + maxEdits);
+        int[] beforePrevious = scratch[0];
+        int[] previous = scratch[1];
+        int[] current = scratch[2];
+        for (int i = 0; i <= queryLength; i++) {
+            previous[i] = i;
+        }
+        //previous[i] is the distance from query[0, i) to the token prefix read so far
+        int best = previous[queryLength];
+        for (int j = 1; j <= tokenLength; j++) {
+            char tokenChar = token.charAt(j - 1);
+            current[0] = j;
+            int rowMin = current[0];
+            for (int i = 1; i <= queryLength; i++) {
+                char queryChar = query.charAt(i - 1);
+                int cost = Math.min(previous[i - 1] + (queryChar == tokenChar ? 0 : 1),
+                        Math.min(previous[i] + 1, current[i - 1] + 1));
+                if (i > 1 && j > 1 && queryChar == token.charAt(j - 2)
+                        && query.charAt(i - 2) == tokenChar) {
+                    cost = Math.min(cost, beforePrevious[i - 2] + 1);
+                }
+                current[i] = cost;
+                rowMin = Math.min(rowMin, cost);
+            }
+            best = Math.min(best, current[queryLength]);
+            if (rowMin > maxEdits) {
+                //Every longer prefix only costs more
+                break;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(best, maxEdits + 1);
+    }
+
+    /** Cut text into lowercase tokens of letters and digits, with accents removed */
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return NO_TOKENS;
+        }
+        String normalized = Normalizer.normalize(text.toLowerCase(Locale.US),
+                Normalizer.Form.NFD);
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= normalized.length(); i++) {
+            char c = i < normalized.length() ? normalized.charAt(i) : ' ';
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                //Accent split off its letter by NFD
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            } else if (token.length() > 0) {
+                String value = token.toString();
+                if (!tokens.contains(value)) {
+                    tokens.add(value);
+                }
+                token.setLength(0);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /** Sorted, growable set of rows */
+    private static final class Postings {
+        private int[] mRows = new int[2];
+        private int mSize;
+
+        void add(int row) {
+            //Rows mostly arrive in ascending order, which appends
+            int position = mSize > 0 && mRows[mSize - 1] < row
+                    ? mSize : Arrays.binarySearch(mRows, 0, mSize, row);
+            if (position >= 0 && position < mSize) {
+                return;
+            }
+            if (position < 0) {
+                position = -position - 1;
+            }
+            if (mSize == mRows.length) {
+                mRows = Arrays.copyOf(mRows, mSize * 2);
+            }
+            System.arraycopy(mRows, position, mRows, position + 1, mSize - position);
+            mRows[position] = row;
+            mSize++;
+        }
+
+        void remove(int row) {
+            int position = Arrays.binarySearch(mRows, 0, mSize, row);
+            if (position >= 0) {
+                System.arraycopy(mRows, position + 1, mRows, position, mSize - position - 1);
+                mSize--;
+            }
+        }
+
+        void addTo(BitSet rows) {
+            for (int i = 0; i < mSize; i++) {
+                rows.set(mRows[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Sends the GET requests {@link QueryUtils} makes to USGS. Implementations may be called from
+ * several threads at once, one request per call.
+ */
+public interface HttpTransport {
+
+    /**
+     * Send a GET request for url with the given extra request headers, which may be null.
+     * The returned response must be closed once its body has been read.
+     */
+    Response get(String url, Map<String, String> headers) throws IOException;
+
+    /** Response to a request made through a {@link HttpTransport} */
+    interface Response extends Closeable {
+
+        /** HTTP status code, i.e. 200 */
+        int getResponseCode() throws IOException;
+
+        /** Value of a response header, or null if it wasn't sent */
+        String getHeaderField(String name);
+
+        /** The response body, already decompressed if it was sent compressed */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Close the response without reading the rest of its body, i.e. when the request was
+         * canceled. The connection is dropped rather than returned for reuse.
+         */
+        void abort();
+    }
+}
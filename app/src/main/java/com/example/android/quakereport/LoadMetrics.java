@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Process-wide record of where load latency goes: per-phase timings of every request plus
+ * counters for bytes received, events parsed and cache hits and misses. Recording never
+ * allocates, so it is safe on the bind path. {@link #dump()} renders everything as text for
+ * {@link MetricsActivity} and for {@code adb shell dumpsys activity}.
+ */
+public final class LoadMetrics {
+
+    /** Timed phases of a load, in the order they happen */
+    public enum Phase {
+        CONNECT("connect"),
+        FIRST_BYTE("time to first byte"),
+        DOWNLOAD("download"),
+        PARSE("parse"),
+        BIND("adapter bind"),
+        ALERT("event to alert"),
+        FIRST_ROW("time to first row");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    private static final int PHASE_COUNT = Phase.values().length;
+
+    private static final long[] sCounts = new long[PHASE_COUNT];
+    private static final long[] sTotalNanos = new long[PHASE_COUNT];
+    private static final long[] sMaxNanos = new long[PHASE_COUNT];
+    private static final long[] sLastNanos = new long[PHASE_COUNT];
+
+    private static long sBytesReceived;
+    private static long sEventsParsed;
+    private static long sCacheHits;
+    private static long sCacheMisses;
+    private static long sCoalescedRequests;
+    private static long sCanceledRequests;
+
+    private LoadMetrics() {
+    }
+
+    /** Record one occurrence of a phase that took the given number of nanoseconds */
+    public static synchronized void recordPhase(Phase phase, long nanos) {
+        int index = phase.ordinal();
+        sCounts[index]++;
+        sTotalNanos[index] += nanos;
+        sLastNanos[index] = nanos;
+        if (nanos > sMaxNanos[index]) {
+            sMaxNanos[index] = nanos;
+        }
+    }
+
+    public static synchronized void addBytesReceived(long bytes) {
+        sBytesReceived += bytes;
+    }
+
+    public static synchronized void addEventsParsed(int events) {
+        sEventsParsed += events;
+    }
+
+    public static synchronized void recordCacheHit() {
+        sCacheHits++;
+    }
+
+    public static synchronized void recordCacheMiss() {
+        sCacheMisses++;
+    }
+
+    /** Record a request answered by sharing an identical request already in flight */
+    public static synchronized void recordCoalescedRequest() {
+        sCoalescedRequests++;
+    }
+
+    /** Record a request abandoned mid-flight because it was canceled */
+    public static synchronized void recordCanceledRequest() {
+        sCanceledRequests++;
+    }
+
+    /** Forget everything recorded so far */
+    public static synchronized void reset() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            sCounts[i] = 0;
+            sTotalNanos[i] = 0;
+            sMaxNanos[i] = 0;
+            sLastNanos[i] = 0;
+        }
+        sBytesReceived = 0;
+        sEventsParsed = 0;
+        sCacheHits = 0;
+        sCacheMisses = 0;
+        sCoalescedRequests = 0;
+        sCanceledRequests = 0;
+    }
+
+    /** Return a plain text snapshot of everything recorded so far */
+    public static synchronized String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.US, "%-20s %8s %10s %10s %10s%n",
+                "phase", "count", "last ms", "avg ms", "max ms"));
+        for (Phase phase : Phase.values()) {
+            int index = phase.ordinal();
+            long count = sCounts[index];
+            dump.append(String.format(Locale.US, "%-20s %8d %10.2f %10.2f %10.2f%n",
+                    phase.getLabel(), count, toMillis(sLastNanos[index]),
+                    count == 0 ? 0 : toMillis(sTotalNanos[index]) / count,
+                    toMillis(sMaxNanos[index])));
+        }
+        dump.append(String.format(Locale.US, "%nbytes received      %d%n", sBytesReceived));
+        dump.append(String.format(Locale.US, "events parsed       %d%n", sEventsParsed));
+        dump.append(String.format(Locale.US, "cache hits          %d%n", sCacheHits));
+        dump.append(String.format(Locale.US, "cache misses        %d%n", sCacheMisses));
+        dump.append(String.format(Locale.US, "coalesced requests  %d%n", sCoalescedRequests));
+        dump.append(String.format(Locale.US, "canceled requests   %d%n", sCanceledRequests));
+        return dump.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    /**
+     * Counts the bytes read through it and the time spent blocked in read calls, so the time a
+     * streaming parser spends waiting on the network can be told apart from parsing.
+     */
+    public static class MeteredInputStream extends FilterInputStream {
+        private long mBytesRead;
+        private long mReadNanos;
+
+        public MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int value = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (value != -1) {
+                mBytesRead++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mBytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long start = System.nanoTime();
+            long skipped = super.skip(count);
+            mReadNanos += System.nanoTime() - start;
+            mBytesRead += skipped;
+            return skipped;
+        }
+
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+
+        public long getReadNanos() {
+            return mReadNanos;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.quakereport;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Central record of what the app holds in memory, so it gives memory back before the system
+ * has to kill it. Every structure that can be rebuilt (the event list, the query engine, the
+ * prefetched first page, the detail cache) registers a {@link Trimmable}, and each
+ * onTrimMemory level is turned into the fraction of its memory each one keeps. Each decides
+ * what is cold and sheds that first. {@link #dump()} reports what each one holds.
+ *
+ * One budget is shared by the whole process, {@link EarthquakeApplication} forwards its
+ * memory callbacks to it.
+ */
+public final class MemoryBudget {
+
+    /** Something holding memory it can rebuild, i.e. from the disk cache or the network */
+    public interface Trimmable {
+        /** Return roughly how many bytes it holds on the heap */
+        long estimateBytes();
+
+        /**
+         * Give back memory until about fraction of what is held is left, coldest first. 0 means
+         * drop everything that can be rebuilt. Called on the main thread.
+         */
+        void trimTo(float fraction);
+    }
+
+    private static MemoryBudget sInstance;
+
+    //Registered structures by the name they are reported under, in registration order
+    private final Map<String, Trimmable> mTrimmables = new LinkedHashMap<>();
+
+    //Last onTrimMemory level received, -1 for none, and how often memory was given back
+    private int mLastLevel = -1;
+    private int mTrimCount;
+
+    /** Return the process-wide budget */
+    public static synchronized MemoryBudget getInstance() {
+        if (sInstance == null) {
+            sInstance = new MemoryBudget();
+        }
+        return sInstance;
+    }
+
+    MemoryBudget() {
+    }
+
+    /** Report and trim a structure under name, replacing one registered under it before */
+    public synchronized void register(String name, Trimmable trimmable) {
+        mTrimmables.put(name, trimmable);
+    }
+
+    /** Stop reporting and trimming a structure, if it is still the one registered under name */
+    public synchronized void unregister(String name, Trimmable trimmable) {
+        if (mTrimmables.get(name) == trimmable) {
+            mTrimmables.remove(name);
+        }
+    }
+
+    /** React to {@link ComponentCallbacks2#onTrimMemory(int)} */
+    public void onTrimMemory(int level) {
+        synchronized (this) {
+            mLastLevel = level;
+        }
+        float fraction = fractionFor(level);
+        if (fraction < 1) {
+            trimTo(fraction);
+        }
+    }
+
+    /** React to onLowMemory(), which older platforms send instead of the critical levels */
+    public void onLowMemory() {
+        trimTo(0);
+    }
+
+    /** Trim every registered structure to about fraction of what it holds */
+    public void trimTo(float fraction) {
+        List<Trimmable> trimmables;
+        synchronized (this) {
+            mTrimCount++;
+            trimmables = new ArrayList<>(mTrimmables.values());
+        }
+        //Outside the lock, a structure may take a while or register others
+        for (Trimmable trimmable : trimmables) {
+            trimmable.trimTo(fraction);
+        }
+    }
+
+    /** Return the fraction of memory kept at an onTrimMemory level, 1 to keep everything */
+    static float fractionFor(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            //Next in line to be killed, anything kept is lost with the process anyway
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            //Not a shortage, only the UI went away, keep what reopening it needs
+            return 1;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75f;
+        }
+        return 1;
+    }
+
+    /** Return a plain text report of what each registered structure holds */
+    public String dump() {
+        Map<String, Trimmable> trimmables;
+        int lastLevel;
+        int trimCount;
+        synchronized (this) {
+            trimmables = new LinkedHashMap<>(mTrimmables);
+            lastLevel = mLastLevel;
+            trimCount = mTrimCount;
+        }
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.US, "%-20s %10s%n", "cache", "KB"));
+        long total = 0;
+        for (Map.Entry<String, Trimmable> entry : trimmables.entrySet()) {
+            long bytes = entry.getValue().estimateBytes();
+            total += bytes;
+            dump.append(String.format(Locale.US, "%-20s %10.1f%n", entry.getKey(),
+                    bytes / 1024.0));
+        }
+        dump.append(String.format(Locale.US, "%-20s %10.1f%n", "total", total / 1024.0));
+        Runtime runtime = Runtime.getRuntime();
+        dump.append(String.format(Locale.US, "%nheap used           %.1f of %.1f MB%n",
+                (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0,
+                runtime.maxMemory() / 1048576.0));
+        dump.append(String.format(Locale.US, "last trim level     %d%n", lastLevel));
+        dump.append(String.format(Locale.US, "trims               %d%n", trimCount));
+        return dump.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.quakereport;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * Debug screen showing the {@link LoadMetrics} recorded since the app started, what the
+ * {@link MemoryBudget} reports each cache holds, and the {@link EarthquakeStatistics} of the
+ * loaded events and of the imported history. History is read from the {@link EarthquakeArchive}
+ * in the background and shown once read.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /** Days of statistics shown, ending today */
+    private static final int STATISTICS_DAYS = 30;
+
+    /** Days summed by the rolling energy shown */
+    private static final int ENERGY_WINDOW_DAYS = 7;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState){
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+    }
+
+    @Override
+    protected void onResume(){
+        super.onResume();
+        //Refresh every time the screen is shown so it reflects the latest loads
+        final TextView metricsView = (TextView) findViewById(R.id.metrics_text);
+        final long now = System.currentTimeMillis();
+        final String metrics = LoadMetrics.dump() + "\n" + MemoryBudget.getInstance().dump()
+                + "\n" + dumpStatistics("Loaded events",
+                EarthquakeQueryEngine.getInstance().getStatistics(), now);
+        metricsView.setText(metrics);
+
+        final EarthquakeArchive archive = EarthquakeArchive.getInstance(this);
+        new Thread("MetricsActivity") {
+            @Override
+            public void run() {
+                //Whole days, as the statistics count them
+                long start = now - STATISTICS_DAYS * EarthquakeStatistics.DAY_MILLIS;
+                final String history = dumpStatistics("Imported history",
+                        archive.statistics(start, now + EarthquakeStatistics.DAY_MILLIS), now);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            metricsView.setText(metrics + "\n" + history);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }
+
+    /** Return the counts per day, energy release and b-value of the last STATISTICS_DAYS */
+    private static String dumpStatistics(String name, EarthquakeStatistics statistics,
+                                         long now) {
+        long start = now - (STATISTICS_DAYS - 1) * EarthquakeStatistics.DAY_MILLIS;
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.US, "%s, last %d days: %d events%n", name,
+                STATISTICS_DAYS, statistics.count(start, now)));
+        dump.append("  per day:");
+        for (int count : statistics.countsPerDay(start, now)) {
+            dump.append(' ').append(count);
+        }
+        double[] rolling = statistics.rollingEnergyJoules(now, now, ENERGY_WINDOW_DAYS);
+        double bValue = statistics.bValue(start, now);
+        dump.append(String.format(Locale.US, "%n  energy: %.3g J, last %d days %.3g J%n",
+                statistics.energyJoules(start, now), ENERGY_WINDOW_DAYS, rolling[0]));
+        dump.append(Double.isNaN(bValue) ? "  b-value: too few events\n"
+                : String.format(Locale.US, "  b-value: %.2f%n", bValue));
+        return dump.toString();
+    }
+}
@@ -10,11 +10,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class with helper methods to help perform HTTP request and parse the JSON response.
@@ -24,6 +26,15 @@ public final class QueryUtils {
     /** Tag for log messages*/
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Sends every request, pooled keep-alive connections with gzip by default */
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
+
+    /** How often a caller waiting on another caller's request checks its own token */
+    private static final long COALESCED_POLL_MILLIS = 50;
+
+    /** Streaming requests currently on the network, by normalized URL */
+    private static final Map<String, InFlightRequest> sInFlight = new HashMap<>();
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -34,46 +45,115 @@ public final class QueryUtils {
 
     /** Query USGS dataset and return list of {@link Earthquake} Objects */
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+        EarthquakeCache.Entry response = fetchEarthquakeData(requestUrl, null);
+        return response == null ? null : response.getEarthquakes();
+    }
 
-        //sleep thread for 1 second to show progress indicator
-        try {
-            Thread.sleep(1000);
-        }catch (InterruptedException e){
-            e.printStackTrace();
+    /**
+     * Query USGS dataset, revalidating a previously cached response if one is given. The
+     * cached entry's ETag and Last-Modified are sent as conditional headers, and if the server
+     * answers 304 Not Modified that same entry is returned without parsing anything.
+     * Otherwise a new entry holding the freshly parsed events and validators is returned,
+     * or null if the request failed.
+     */
+    public static EarthquakeCache.Entry fetchEarthquakeData(String requestUrl,
+                                                            EarthquakeCache.Entry cached) {
+        return fetchEarthquakeData(requestUrl, cached, null);
+    }
+
+    /**
+     * Query USGS dataset like {@link #fetchEarthquakeData(String, EarthquakeCache.Entry)}, giving
+     * up as soon as the token is canceled. A call for a URL that is already being fetched waits
+     * for that request and shares its response instead of sending its own, which may then be
+     * a fresh entry or, on a 304, the cached entry the first caller sent. The shared request is
+     * only abandoned once every caller waiting on it is canceled. Returns null if the request
+     * failed or was canceled.
+     */
+    public static EarthquakeCache.Entry fetchEarthquakeData(String requestUrl,
+                                                            EarthquakeCache.Entry cached,
+                                                            CancellationToken token) {
+        if (requestUrl == null) {
+            return null;
         }
+        String key = EarthquakeCache.normalizeUrl(requestUrl);
+        while (!CancellationToken.isCanceled(token)) {
+            InFlightRequest request;
+            boolean owner = false;
+            synchronized (sInFlight) {
+                request = sInFlight.get(key);
+                //A request every caller gave up on is being aborted, start over beside it
+                if (request == null || !request.join(token)) {
+                    request = new InFlightRequest();
+                    sInFlight.put(key, request);
+                    request.join(token);
+                    owner = true;
+                }
+            }
 
-    //Create URL Object
-        URL url = createUrl(requestUrl);
+            if (owner) {
+                //Perform HTTP request to the URL and parse the response as it streams in
+                EarthquakeCache.Entry response = null;
+                try {
+                    response = makeStreamingHttpRequest(requestUrl, cached, request);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Problem making HTTP request.", e);
+                } finally {
+                    synchronized (sInFlight) {
+                        //Unless a newer request for the URL replaced this abandoned one
+                        if (sInFlight.get(key) == request) {
+                            sInFlight.remove(key);
+                        }
+                    }
+                    request.finish(response);
+                }
+                //Return the parsed or revalidated response
+                return response;
+            }
 
-    //Perform HTTP request to the URL and receive JSON response back
-    String jsonResponse = null;
-    try{
-    jsonResponse = makeHttpRequest(url);
-    Log.i(LOG_TAG,"TEST: fetchEarthquakeData Called");
-    }catch (IOException e) {
-        Log.e(LOG_TAG, "Problem making HTTP request.", e);
+            LoadMetrics.recordCoalescedRequest();
+            if (!request.await(token)) {
+                //This caller was canceled while waiting
+                return null;
+            }
+            if (!request.wasAbandoned()) {
+                return request.getResponse();
+            }
+            //Only reached if this caller was canceled too, the loop then ends
+        }
+        return null;
     }
-
-    //Extract relevant fields from JSON response and create list of {@link Earthquake}s
+    /**
+     * Query USGS dataset and parse the whole JSON response as one String. Kept for callers that
+     * already hold the complete document, {@link #fetchEarthquakeData} streams instead.
+     */
+    public static List<Earthquake> fetchEarthquakeDataAsString(String requestUrl) {
+        String jsonResponse = null;
+        try {
+            jsonResponse = makeHttpRequest(requestUrl);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem making HTTP request.", e);
+        }
+        long parseStart = System.nanoTime();
         List<Earthquake> earthquakes = extractFeatureFromJson(jsonResponse);
-
-    //Return list of earthquakes
+        LoadMetrics.recordPhase(LoadMetrics.Phase.PARSE, System.nanoTime() - parseStart);
+        if (earthquakes != null) {
+            LoadMetrics.addEventsParsed(earthquakes.size());
+        }
         return earthquakes;
     }
 
-    /** Returns new URL object from given String URL */
-    private static URL createUrl(String stringUrl){
-        URL url = null;
-        try {
-            url = new URL(stringUrl);
-        }catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Problem building URL", e);
-        }
-        return url;
+    /** Replace the transport used for every request, i.e. one with different timeouts */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+    /** Return the transport used for every request */
+    public static HttpTransport getTransport() {
+        return sTransport;
     }
 
     /** Makes an HTTP request to given URL and returns jsonResponse String */
-    private static String makeHttpRequest(URL url)throws IOException{
+    private static String makeHttpRequest(String url)throws IOException{
         String jsonResponse ="";
 
         // If URL is null, return early
@@ -81,40 +161,235 @@ public final class QueryUtils {
             return jsonResponse;
         }
 
-        HttpURLConnection urlConnection=null;
-        InputStream inputStream=null;
+        HttpTransport.Response response=null;
         try{
-            urlConnection=(HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds*/);
-            urlConnection.setConnectTimeout(15000 /*milliseconds*/);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            long requestStart = System.nanoTime();
+            response=sTransport.get(url, null);
+            int responseCode = response.getResponseCode();
+            LoadMetrics.recordPhase(LoadMetrics.Phase.FIRST_BYTE, System.nanoTime() - requestStart);
 
             //If connection is successful (response code 200) Read input stream and parse response
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                long downloadStart = System.nanoTime();
+                jsonResponse = readFromStream(response.getBody());
+                LoadMetrics.recordPhase(LoadMetrics.Phase.DOWNLOAD,
+                        System.nanoTime() - downloadStart);
             }else{
-                Log.e(LOG_TAG,"Error response code:" + urlConnection.getResponseCode());
+                Log.e(LOG_TAG,"Error response code:" + response.getResponseCode());
             }
         }catch(IOException e){
             Log.e(LOG_TAG,"Problem retrieving earthquake JSON results.", e);
         }finally{
-            if (urlConnection != null){
-                urlConnection.disconnect();
-            }
-        if(inputStream != null){
-            //Closing inputStream could throw an IOException, so makeHttpRequest(URL url) specifies
+        if(response != null){
+            //Closing the response could throw an IOException, so makeHttpRequest specifies
             // an IOException could be thrown
-            inputStream.close();
+            response.close();
             }
         }
             return jsonResponse;
     }
 
+    /**
+     * Makes an HTTP request to given URL and hands the response body to
+     * {@link EarthquakeStreamParser} as it arrives, so the payload is never held as one String.
+     * If a cached entry is given the request is conditional, and that entry is returned as is
+     * when the server answers 304. Reading stops as soon as the token is canceled. Returns null
+     * if the request did not succeed or was canceled.
+     */
+    private static EarthquakeCache.Entry makeStreamingHttpRequest(String url,
+                                                                  EarthquakeCache.Entry cached,
+                                                                  CancellationToken token)
+            throws IOException {
+        // If URL is null, return early
+        if (url == null) {
+            return null;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null && cached.getETag() != null) {
+            headers.put("If-None-Match", cached.getETag());
+        }
+        if (cached != null && cached.getLastModified() != null) {
+            headers.put("If-Modified-Since", cached.getLastModified());
+        }
+
+        HttpTransport.Response httpResponse = null;
+        EarthquakeCache.Entry response = null;
+        try {
+            token.throwIfCanceled();
+            long requestStart = System.nanoTime();
+            httpResponse = sTransport.get(url, headers);
+            int responseCode = httpResponse.getResponseCode();
+            LoadMetrics.recordPhase(LoadMetrics.Phase.FIRST_BYTE, System.nanoTime() - requestStart);
+            token.throwIfCanceled();
+
+            //If connection is successful (response code 200) parse the stream as it is read
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                //Download and parse interleave, time spent blocked reading counts as download
+                //Every read checks the token, which stops both the download and the parser
+                LoadMetrics.MeteredInputStream body = new LoadMetrics.MeteredInputStream(
+                        new CancellationToken.CancelableInputStream(httpResponse.getBody(), token));
+                long parseStart = System.nanoTime();
+                List<Earthquake> earthquakes = EarthquakeStreamParser.parse(body);
+                long streamNanos = System.nanoTime() - parseStart;
+                LoadMetrics.recordPhase(LoadMetrics.Phase.DOWNLOAD, body.getReadNanos());
+                LoadMetrics.recordPhase(LoadMetrics.Phase.PARSE, streamNanos - body.getReadNanos());
+                LoadMetrics.addEventsParsed(earthquakes.size());
+                response = new EarthquakeCache.Entry(earthquakes,
+                        httpResponse.getHeaderField("ETag"),
+                        httpResponse.getHeaderField("Last-Modified"));
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                //Nothing changed since the cached response, no body to read or parse
+                response = cached;
+            } else {
+                Log.e(LOG_TAG, "Error response code:" + responseCode);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            if (token.isCanceled()) {
+                LoadMetrics.recordCanceledRequest();
+            } else {
+                //JsonReader reports malformed JSON as IllegalStateException
+                Log.e(LOG_TAG, "Problem retrieving earthquake JSON results.", e);
+            }
+        } finally {
+            //Closing keeps the connection alive for the next request, unless it was canceled
+            if (httpResponse != null) {
+                if (token.isCanceled()) {
+                    httpResponse.abort();
+                } else {
+                    httpResponse.close();
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Fetch the USGS detail GeoJSON of one event, see {@link EarthquakeDetail#detailUrl}.
+     * Reading stops as soon as the token, which may be null, is canceled. Returns null if the
+     * request did not succeed or was canceled.
+     */
+    public static EarthquakeDetail fetchEarthquakeDetail(String detailUrl,
+                                                         CancellationToken token) {
+        try {
+            return makeDetailHttpRequest(detailUrl,
+                    token == null ? new CancellationToken() : token);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem making HTTP request.", e);
+            return null;
+        }
+    }
+
+    /** Makes an HTTP request to given URL and reads the body as an {@link EarthquakeDetail} */
+    private static EarthquakeDetail makeDetailHttpRequest(String url, CancellationToken token)
+            throws IOException {
+        HttpTransport.Response httpResponse = null;
+        EarthquakeDetail detail = null;
+        try {
+            token.throwIfCanceled();
+            httpResponse = sTransport.get(url, null);
+            int responseCode = httpResponse.getResponseCode();
+            token.throwIfCanceled();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                detail = EarthquakeDetail.read(
+                        new CancellationToken.CancelableInputStream(httpResponse.getBody(), token));
+            } else {
+                Log.e(LOG_TAG, "Error response code:" + responseCode);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            if (token.isCanceled()) {
+                LoadMetrics.recordCanceledRequest();
+            } else {
+                //JsonReader reports malformed JSON as IllegalStateException
+                Log.e(LOG_TAG, "Problem retrieving earthquake detail.", e);
+            }
+        } finally {
+            //Closing keeps the connection alive for the next request, unless it was canceled
+            if (httpResponse != null) {
+                if (token.isCanceled()) {
+                    httpResponse.abort();
+                } else {
+                    httpResponse.close();
+                }
+            }
+        }
+        return detail;
+    }
+
+    /**
+     * A streaming request shared by every caller asking for its URL while it runs. It counts as
+     * canceled, and is abandoned, once every caller that joined it is canceled. That is latched
+     * the first time the stream sees it, since the stream aborts then, and no caller can join
+     * afterwards to wait on the aborted response.
+     */
+    static class InFlightRequest extends CancellationToken {
+        //Tokens of the callers sharing the request, null for a caller that can't cancel
+        private final List<CancellationToken> mTokens = new ArrayList<>();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile EarthquakeCache.Entry mResponse;
+        private volatile boolean mAbandoned;
+
+        /** Share the request with a caller, returns false if it was already abandoned */
+        boolean join(CancellationToken token) {
+            synchronized (mTokens) {
+                if (mAbandoned) {
+                    return false;
+                }
+                mTokens.add(token);
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            synchronized (mTokens) {
+                if (mAbandoned) {
+                    return true;
+                }
+                for (CancellationToken token : mTokens) {
+                    if (token == null || !token.isCanceled()) {
+                        return false;
+                    }
+                }
+                mAbandoned = true;
+                return true;
+            }
+        }
+
+        void finish(EarthquakeCache.Entry response) {
+            //Latches abandonment if every caller gave up since the stream last looked
+            isCanceled();
+            mResponse = response;
+            mDone.countDown();
+        }
+
+        /** Wait for the request to finish, returns false if the token was canceled first */
+        boolean await(CancellationToken token) {
+            try {
+                while (!mDone.await(COALESCED_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (CancellationToken.isCanceled(token)) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        boolean wasAbandoned() {
+            return mAbandoned;
+        }
+
+        EarthquakeCache.Entry getResponse() {
+            return mResponse;
+        }
+    }
+
         /**Converts the {@link InputStream} into a String, named output, that contains entire JSON
          * response from the server */
-        private static String readFromStream (InputStream inputStream) throws IOException {
+        static String readFromStream (InputStream inputStream) throws IOException {
             StringBuilder output = new StringBuilder();
             if (inputStream != null){
                 InputStreamReader inputStreamReader = new InputStreamReader(inputStream,
@@ -133,7 +408,7 @@ public final class QueryUtils {
      * Return a list of {@link Earthquake} objects that has been built up from
      * parsing features from JSON response.
      */
-    private static List<Earthquake> extractFeatureFromJson (String earthquakeJSON) {
+    static List<Earthquake> extractFeatureFromJson (String earthquakeJSON) {
 
         //If JSON string is empty or null, return early
         if (TextUtils.isEmpty(earthquakeJSON)){
@@ -161,25 +436,8 @@ public final class QueryUtils {
                 //extract single earthquake @ index position (i) from list of earthquakes.
                 JSONObject currentEarthquake = earthquakeArray.getJSONObject(i);
 
-                //For a given event, extract JSONObject with key named "properties"
-                // which represents a list of properties for that earthquake
-                JSONObject properties = currentEarthquake.getJSONObject("properties");
-
-                //extract double value for key "mag"
-                double magnitude=properties.getDouble("mag");
-
-                //extract string for key named "place"
-                String location = properties.getString("place");
-
-                //extract long value for key named "time"
-                long time = properties.getLong("time");
-
-                //extract string for key named "url"
-                String url = properties.getString("url");
-
-                //Create a new {@link Earthquake} object with magnitude, location, time, and url
-                //from the JSON Response
-                Earthquake earthquake = new Earthquake (magnitude, location, time, url);
+                //build an {@link Earthquake} from the feature's properties and geometry
+                Earthquake earthquake = extractFeature(currentEarthquake);
 
                 //add the new {@link Earthquake} to list of earthquakes
                 earthquakes.add(earthquake);
@@ -196,4 +454,47 @@ public final class QueryUtils {
         return earthquakes;
     }
 
+    /** Build one {@link Earthquake} from a single GeoJSON feature of a USGS response */
+    static Earthquake extractFeature(JSONObject currentEarthquake) throws JSONException {
+        //For a given event, extract JSONObject with key named "properties"
+        // which represents a list of properties for that earthquake
+        JSONObject properties = currentEarthquake.getJSONObject("properties");
+
+        //extract double value for key "mag"
+        double magnitude=properties.getDouble("mag");
+
+        //extract string for key named "place"
+        String location = properties.getString("place");
+
+        //extract long value for key named "time"
+        long time = properties.getLong("time");
+
+        //extract long value for key named "updated"
+        long updated = properties.optLong("updated", time);
+
+        //extract string for key named "url"
+        String url = properties.getString("url");
+
+        //extract the event id, which sits next to "properties" on the feature
+        String id = currentEarthquake.optString("id", null);
+
+        //extract longitude, latitude and depth from the "geometry" coordinates array
+        double longitude = Double.NaN;
+        double latitude = Double.NaN;
+        double depth = Double.NaN;
+        JSONObject geometry = currentEarthquake.optJSONObject("geometry");
+        JSONArray coordinates =
+                geometry == null ? null : geometry.optJSONArray("coordinates");
+        if (coordinates != null) {
+            longitude = coordinates.optDouble(0);
+            latitude = coordinates.optDouble(1);
+            depth = coordinates.optDouble(2);
+        }
+
+        //Create a new {@link Earthquake} object with id, magnitude, location, time,
+        //update time, url and hypocenter from the JSON Response
+        return new Earthquake (id, magnitude, location, time, updated, url,
+                latitude, longitude, depth);
+    }
+
 }
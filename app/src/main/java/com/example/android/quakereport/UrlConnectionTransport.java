@@ -0,0 +1,155 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} on top of {@link HttpURLConnection}. Responses are requested gzip
+ * compressed, and connections are never disconnected: closing a response drains and closes its
+ * body instead, which returns the keep-alive connection to the platform's pool for the next
+ * request to the same host. Aborting a response is the exception, it disconnects so a canceled
+ * download stops at once.
+ *
+ * HttpURLConnection keeps one connection pool for the whole process, sized from system
+ * properties, so its size is set once at process start with {@link #setMaxIdleConnections(int)}
+ * rather than per transport.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    /** Default time allowed to read from an open connection */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    /** Default time allowed to establish a connection */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /** Default number of idle keep-alive connections kept per host */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    //Leftover body bytes read on close so the connection can be reused, larger bodies
+    //are abandoned instead since reading them would cost more than a new connection
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mReadTimeoutMillis;
+    private final int mConnectTimeoutMillis;
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    public UrlConnectionTransport(int readTimeoutMillis, int connectTimeoutMillis) {
+        mReadTimeoutMillis = readTimeoutMillis;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Keep connections alive and keep up to maxIdleConnections idle ones per host. This sets
+     * the JVM-wide "http.keepAlive" and "http.maxConnections" properties, which every
+     * HttpURLConnection in the process shares, and only takes effect before the first request.
+     * Call it once at process start.
+     */
+    public static void setMaxIdleConnections(int maxIdleConnections) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+    }
+
+    @Override
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setRequestMethod("GET");
+        //Asking for gzip explicitly turns off the platform's transparent gzip, so decompressing
+        //is up to us, see getBody()
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        long connectStart = System.nanoTime();
+        urlConnection.connect();
+        LoadMetrics.recordPhase(LoadMetrics.Phase.CONNECT, System.nanoTime() - connectStart);
+        return new UrlConnectionResponse(urlConnection);
+    }
+
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection mUrlConnection;
+        //Body as it comes off the wire, and as handed out, decompressed
+        private LoadMetrics.MeteredInputStream mRawBody;
+        private InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection urlConnection) {
+            mUrlConnection = urlConnection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mUrlConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mUrlConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            //Count bytes as they come off the wire, before decompressing. Like Content-Length,
+            //that count is of the compressed body when it was sent gzipped.
+            mRawBody = new LoadMetrics.MeteredInputStream(mUrlConnection.getInputStream());
+            if ("gzip".equalsIgnoreCase(mUrlConnection.getContentEncoding())) {
+                mBody = new GZIPInputStream(mRawBody);
+            } else {
+                mBody = mRawBody;
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            LoadMetrics.MeteredInputStream rawBody = mRawBody;
+            if (rawBody == null) {
+                //Body never requested, i.e. an error or 304 response
+                InputStream unreadBody;
+                try {
+                    unreadBody = mUrlConnection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mUrlConnection.getInputStream() : mUrlConnection.getErrorStream();
+                } catch (IOException e) {
+                    unreadBody = null;
+                }
+                if (unreadBody == null) {
+                    return;
+                }
+                rawBody = new LoadMetrics.MeteredInputStream(unreadBody);
+            }
+            try {
+                //Read what is left off the wire so the connection goes back to the pool. A gzip
+                //reader stops at the end of the compressed data, the raw body may still hold its
+                //trailer, so it is the raw body that is drained.
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = rawBody.read(buffer)) != -1) {
+                    drained += read;
+                }
+            } finally {
+                LoadMetrics.addBytesReceived(rawBody.getBytesRead());
+                //Closing the gzip reader also releases its native inflater
+                (mBody != null ? mBody : rawBody).close();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (mRawBody != null) {
+                LoadMetrics.addBytesReceived(mRawBody.getBytesRead());
+            }
+            //Draining a large body would cost more than the connection is worth
+            mUrlConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Release version of the debug build's dumpsys arguments, which ignores them: benchmarks and
+ * replayed or redirected responses are left out of the shipped app.
+ */
+final class DebugCommands {
+
+    private DebugCommands() {
+    }
+
+    static void run(Context context, String prefix, PrintWriter writer, List<String> arguments) {
+    }
+}
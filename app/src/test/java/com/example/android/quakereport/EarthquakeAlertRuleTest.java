@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeAlertRuleTest {
+
+    private static Earthquake event(double magnitude, double latitude, double longitude) {
+        return new Earthquake("a", magnitude, "place", 0, 0, "url", latitude, longitude, 10);
+    }
+
+    @Test
+    public void fromInput_leavesBlankFieldsOut() {
+        EarthquakeAlertRule rule = EarthquakeAlertRule.fromInput(" Home ", "6", " ", "", "");
+
+        assertEquals("Home", rule.getName());
+        assertEquals(6, rule.getMinMagnitude(), 0);
+        assertTrue(Double.isNaN(rule.getRadiusKm()));
+        assertFalse(rule.hasRegion());
+        assertTrue(rule.matches(event(6, 0, 0)));
+
+        rule = EarthquakeAlertRule.fromInput("Home", " ", "35", "139", "100");
+        assertTrue(Double.isInfinite(rule.getMinMagnitude()));
+        assertTrue(rule.matches(event(1, 35, 139)));
+    }
+
+    @Test
+    public void fromInput_readsThresholdAndRadius() {
+        EarthquakeAlertRule rule =
+                EarthquakeAlertRule.fromInput("Tokyo", "5", "35.68", "139.69", "100");
+
+        assertEquals(5, rule.getMinMagnitude(), 0);
+        assertEquals(35.68, rule.getLatitude(), 0);
+        assertEquals(139.69, rule.getLongitude(), 0);
+        assertEquals(100, rule.getRadiusKm(), 0);
+        assertTrue(rule.matches(event(5.5, 35.5, 139.5)));
+        assertFalse(rule.matches(event(4.9, 35.5, 139.5)));
+        //Osaka is about 400 km away
+        assertFalse(rule.matches(event(6, 34.69, 135.5)));
+    }
+
+    @Test
+    public void fromInput_rejectsInvalidInput() {
+        assertNull(EarthquakeAlertRule.fromInput("", "5", "", "", ""));
+        assertNull(EarthquakeAlertRule.fromInput("Home", "five", "", "", ""));
+        //Nothing but a name would match every event
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", " ", "", ""));
+        //Radius without its center, and a center without a radius
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", "", "", "100"));
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", "35", "139", ""));
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", "95", "139", "100"));
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", "35", "200", "100"));
+        assertNull(EarthquakeAlertRule.fromInput("Home", "", "35", "139", "0"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeArchiveTest {
+
+    private File mDirectory;
+    private EarthquakeArchive mArchive;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("archive", "");
+        assertTrue(mDirectory.delete());
+        mArchive = new EarthquakeArchive(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        mArchive.clear();
+        mDirectory.delete();
+    }
+
+    private static Earthquake event(String id, double magnitude, long time, double latitude) {
+        return new Earthquake(id, magnitude, "place " + id, time, time, "url " + id,
+                latitude, 20, 10);
+    }
+
+    @Test
+    public void covers_onlyWindowsImportedAtTheSameOrALowerFloor() throws IOException {
+        mArchive.write(0, 100, 4.5, Arrays.asList(event("a", 5, 10, 10)));
+        mArchive.write(100, 200, Double.NaN, Arrays.asList(event("b", 3, 150, 10)));
+
+        assertTrue(mArchive.covers(0, 100, 4.5));
+        assertTrue(mArchive.covers(0, 200, 5));
+        assertFalse(mArchive.covers(0, 200, 2.5));
+        assertFalse(mArchive.covers(0, 100, Double.NaN));
+        assertTrue(mArchive.covers(100, 200, Double.NaN));
+
+        //Imported again at a lower floor, the window replaces the one at 4.5
+        mArchive.write(0, 100, 2.5, Arrays.asList(event("a", 5, 10, 10), event("c", 3, 20, 10)));
+        assertTrue(mArchive.covers(0, 200, 2.5));
+        assertEquals(2, mDirectory.listFiles().length);
+        assertEquals(3, mArchive.summarizeRadius(10, 20, 100, null).getCount());
+    }
+
+    @Test
+    public void write_keepsWindowsInsideImportedAtALowerFloor() throws IOException {
+        mArchive.write(0, 100, Double.NaN, Arrays.asList(event("a", 3, 10, 10)));
+        mArchive.write(0, 200, 4.5, Arrays.asList(event("b", 5, 150, 10)));
+
+        assertEquals(2, mDirectory.listFiles().length);
+        assertTrue(mArchive.covers(0, 100, Double.NaN));
+        assertFalse(mArchive.covers(0, 200, Double.NaN));
+        assertTrue(mArchive.covers(0, 200, 4.5));
+        assertEquals(2, mArchive.summarizeRadius(10, 20, 100, null).getCount());
+    }
+
+    @Test
+    public void covers_noImportWithWindowsOfUnknownFloor() throws IOException {
+        //Named before the floor was recorded
+        assertTrue(mDirectory.mkdir());
+        OutputStream out = new FileOutputStream(new File(mDirectory, "0_100.snapshot"));
+        try {
+            out.write(EarthquakeSnapshot.encode(Arrays.asList(event("a", 5, 10, 10))));
+        } finally {
+            out.close();
+        }
+
+        assertFalse(mArchive.covers(0, 100, 9));
+        assertEquals(1, mArchive.statistics(0, 100).size());
+        mArchive.write(0, 100, 4.5, Arrays.asList(event("a", 5, 10, 10)));
+        assertEquals(1, mDirectory.listFiles().length);
+        assertTrue(mArchive.covers(0, 100, 4.5));
+    }
+
+    @Test
+    public void summarizeRadius_countsEachStoredEventOnce() throws IOException {
+        mArchive.write(0, 100, Double.NaN,
+                Arrays.asList(event("a", 5, 10, 10), event("b", 6, 50, 10.5)));
+        mArchive.write(100, 200, Double.NaN, Arrays.asList(event("c", 4, 150, -30)));
+        //Overlaps the first window, as an import started at another time would
+        mArchive.write(50, 150, Double.NaN,
+                Arrays.asList(event("b", 6, 50, 10.5), event("d", 6.5, 120, 10)));
+
+        EarthquakeArchive.Summary summary = mArchive.summarizeRadius(10, 20, 100, null);
+
+        assertEquals(3, summary.getCount());
+        assertEquals(6.5, summary.getMaxMagnitude(), 0);
+        assertEquals(0, mArchive.summarizeRadius(0, 20, 100, null).getCount());
+    }
+
+    @Test
+    public void summarizeRadius_returnsNullOnceCanceled() throws IOException {
+        mArchive.write(0, 100, Double.NaN, Arrays.asList(event("a", 5, 10, 10)));
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        assertNull(mArchive.summarizeRadius(10, 20, 100, token));
+    }
+
+    @Test
+    public void statistics_holdOnlyTheRangeAsked() throws IOException {
+        mArchive.write(0, 100, Double.NaN,
+                Arrays.asList(event("a", 5, 10, 10), event("b", 6, 50, 10.5)));
+        mArchive.write(100, 200, Double.NaN, Arrays.asList(event("c", 4, 150, -30)));
+        mArchive.write(200, 300, Double.NaN, Arrays.asList(event("d", 4, 250, -30)));
+
+        EarthquakeStatistics statistics = mArchive.statistics(50, 200);
+
+        assertEquals(2, statistics.size());
+        assertEquals(2, statistics.count(0, 300));
+        //Rewritten windows are read as they are now
+        mArchive.write(0, 200, Double.NaN,
+                Arrays.asList(event("a", 5, 10, 10), event("e", 6, 60, 10)));
+        assertEquals(1, mArchive.statistics(50, 200).size());
+    }
+}
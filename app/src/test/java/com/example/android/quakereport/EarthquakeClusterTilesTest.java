@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeClusterTilesTest {
+
+    private static Earthquake event(String id, double magnitude, long time, double latitude,
+                                    double longitude) {
+        return new Earthquake(id, magnitude, "place " + id, time, time, "url " + id,
+                latitude, longitude, 10);
+    }
+
+    private static List<EarthquakeClusterTiles.Cluster> world(EarthquakeClusterTiles tiles,
+                                                               int zoom) {
+        return tiles.query(zoom, -90, 90, -180, 180);
+    }
+
+    /** Return the clusters of a zoom level keyed by their tile */
+    private static Map<String, EarthquakeClusterTiles.Cluster> byTile(
+            List<EarthquakeClusterTiles.Cluster> clusters) {
+        Map<String, EarthquakeClusterTiles.Cluster> byTile = new HashMap<>();
+        for (EarthquakeClusterTiles.Cluster cluster : clusters) {
+            byTile.put(cluster.getX() + "," + cluster.getY(), cluster);
+        }
+        return byTile;
+    }
+
+    @Test
+    public void put_foldsEventIntoEveryLevel() {
+        EarthquakeClusterTiles tiles = new EarthquakeClusterTiles();
+        tiles.put(event("a", 5, 100, 10, 20));
+        tiles.put(event("b", 6, 50, 10.2, 20.2));
+
+        for (int zoom = 0; zoom <= EarthquakeClusterTiles.MAX_ZOOM; zoom++) {
+            List<EarthquakeClusterTiles.Cluster> clusters = world(tiles, zoom);
+            assertEquals(1, clusters.size());
+            EarthquakeClusterTiles.Cluster cluster = clusters.get(0);
+            assertEquals(2, cluster.getCount());
+            assertEquals(6, cluster.getMaxMagnitude(), 0);
+            assertEquals(100, cluster.getLatestTimeInMilliseconds());
+            assertEquals(10.1, cluster.getLatitude(), 1e-9);
+            assertEquals(20.1, cluster.getLongitude(), 1e-9);
+        }
+    }
+
+    @Test
+    public void put_weakerCopyOfStrongestRecomputesExtremes() {
+        EarthquakeClusterTiles tiles = new EarthquakeClusterTiles();
+        tiles.put(event("a", 7, 300, 10, 20));
+        tiles.put(event("b", 5, 100, 10, 20.1));
+
+        tiles.put(event("a", 4, 200, 10, 20));
+
+        EarthquakeClusterTiles.Cluster cluster = world(tiles, 0).get(0);
+        assertEquals(2, cluster.getCount());
+        assertEquals(5, cluster.getMaxMagnitude(), 0);
+        assertEquals(200, cluster.getLatestTimeInMilliseconds());
+    }
+
+    @Test
+    public void remove_dropsEmptyTiles() {
+        EarthquakeClusterTiles tiles = new EarthquakeClusterTiles();
+        tiles.put(event("a", 5, 100, 10, 20));
+        tiles.put(event("b", 6, 200, -40, -70));
+
+        assertTrue(tiles.remove("b"));
+        assertFalse(tiles.remove("b"));
+
+        assertEquals(1, world(tiles, EarthquakeClusterTiles.MAX_ZOOM).size());
+        EarthquakeClusterTiles.Cluster root = world(tiles, 0).get(0);
+        assertEquals(1, root.getCount());
+        assertEquals(5, root.getMaxMagnitude(), 0);
+        //Events without coordinates take the held copy out
+        assertFalse(tiles.put(new Earthquake("a", 5, "Nowhere", 100, 300, "url a")));
+        assertTrue(world(tiles, 0).isEmpty());
+    }
+
+    @Test
+    public void updates_matchTilesBuiltFromScratch() {
+        Random random = new Random(7);
+        EarthquakeClusterTiles tiles = new EarthquakeClusterTiles();
+        Map<String, Earthquake> held = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            String id = "e" + random.nextInt(800);
+            int operation = random.nextInt(10);
+            if (operation == 0) {
+                tiles.remove(id);
+                held.remove(id);
+            } else if (operation == 1 && held.containsKey(id)) {
+                //The same copy again
+                Earthquake same = held.get(id);
+                tiles.put(event(id, same.getMagnitude(), same.getTimeInMilliseconds(),
+                        same.getLatitude(), same.getLongitude()));
+            } else {
+                //Clustered around a few places so tiles hold many events
+                Earthquake earthquake = event(id, random.nextInt(80) / 10.0,
+                        random.nextInt(100000), random.nextInt(5) * 30 - 60 + random.nextDouble(),
+                        random.nextInt(5) * 60 - 150 + random.nextDouble());
+                tiles.put(earthquake);
+                held.put(id, earthquake);
+            }
+        }
+
+        EarthquakeClusterTiles rebuilt = new EarthquakeClusterTiles();
+        rebuilt.putAll(new ArrayList<>(held.values()));
+        for (int zoom = 0; zoom <= EarthquakeClusterTiles.MAX_ZOOM; zoom++) {
+            Map<String, EarthquakeClusterTiles.Cluster> expected = byTile(world(rebuilt, zoom));
+            Map<String, EarthquakeClusterTiles.Cluster> actual = byTile(world(tiles, zoom));
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String tile : expected.keySet()) {
+                EarthquakeClusterTiles.Cluster want = expected.get(tile);
+                EarthquakeClusterTiles.Cluster got = actual.get(tile);
+                assertEquals(want.getCount(), got.getCount());
+                assertEquals(want.getMaxMagnitude(), got.getMaxMagnitude(), 0);
+                assertEquals(want.getLatestTimeInMilliseconds(),
+                        got.getLatestTimeInMilliseconds());
+                assertEquals(want.getLatitude(), got.getLatitude(), 1e-6);
+                assertEquals(want.getLongitude(), got.getLongitude(), 1e-6);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeDeltaSyncTest {
+
+    private static Earthquake event(String id, double magnitude, long time, long updated) {
+        return new Earthquake(id, magnitude, "place " + id, time, updated, "url " + id);
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void merge_byTime_addsNewerEventsAndReplacesUpdatedOnes() {
+        List<Earthquake> held = Arrays.asList(event("a", 5, 300, 300), event("b", 4, 200, 200));
+        List<Earthquake> delta = Arrays.asList(event("c", 3, 400, 400), event("b", 4.5, 200, 500));
+
+        List<Earthquake> merged = EarthquakeDeltaSync.merge(held, delta, "time", false);
+
+        assertEquals(Arrays.asList("c", "a", "b"), ids(merged));
+        assertEquals(4.5, merged.get(2).getMagnitude(), 0);
+    }
+
+    @Test
+    public void merge_byMagnitude_leavesWeakerEventsForLaterPages() {
+        List<Earthquake> held = Arrays.asList(event("a", 6, 100, 100), event("b", 5, 200, 200));
+        //"c" is new but weaker than every held event, so it belongs on a later page
+        List<Earthquake> delta = Arrays.asList(event("c", 2, 300, 300), event("d", 5.5, 400, 400));
+
+        List<Earthquake> merged = EarthquakeDeltaSync.merge(held, delta, "magnitude", false);
+
+        assertEquals(Arrays.asList("a", "d", "b"), ids(merged));
+    }
+
+    @Test
+    public void merge_byMagnitude_dropsEventsUpdatedPastTheLastHeld() {
+        List<Earthquake> held = Arrays.asList(event("a", 6, 100, 100), event("b", 5, 200, 200),
+                event("c", 4, 300, 300));
+        List<Earthquake> delta = Arrays.asList(event("a", 3, 100, 500));
+
+        List<Earthquake> merged = EarthquakeDeltaSync.merge(held, delta, "magnitude", false);
+
+        assertEquals(Arrays.asList("b", "c"), ids(merged));
+    }
+
+    @Test
+    public void merge_oldestFirst_leavesNewerEventsForLaterPages() {
+        List<Earthquake> held = Arrays.asList(event("a", 5, 100, 100), event("b", 4, 200, 200));
+        List<Earthquake> delta = Arrays.asList(event("c", 3, 150, 400), event("d", 3, 900, 900));
+
+        List<Earthquake> merged = EarthquakeDeltaSync.merge(held, delta, "time-asc", false);
+
+        assertEquals(Arrays.asList("a", "c", "b"), ids(merged));
+    }
+
+    @Test
+    public void merge_completeAnswer_keepsEveryDeltaEvent() {
+        List<Earthquake> held = Arrays.asList(event("a", 6, 100, 100), event("b", 5, 200, 200));
+        List<Earthquake> delta = Arrays.asList(event("c", 2, 300, 300));
+
+        List<Earthquake> merged = EarthquakeDeltaSync.merge(held, delta, "magnitude", true);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merged));
+    }
+
+    @Test
+    public void merge_doesNotModifyInputs() {
+        List<Earthquake> held = new ArrayList<>(Arrays.asList(event("a", 5, 300, 300)));
+        List<Earthquake> delta = new ArrayList<>(Arrays.asList(event("a", 2, 300, 400)));
+
+        EarthquakeDeltaSync.merge(held, delta, "magnitude", false);
+
+        assertEquals(5, held.get(0).getMagnitude(), 0);
+        assertEquals(1, delta.size());
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeFanOutTest {
+
+    private static Earthquake event(String id, double magnitude, long time, long updated) {
+        return new Earthquake(id, magnitude, "place " + id, time, updated, "url " + id);
+    }
+
+    /** Answers each URL with fixed events after a fixed delay, null for unknown URLs */
+    private static class StubFetcher implements EarthquakeFanOut.Fetcher {
+        private final Map<String, List<Earthquake>> mResponses = new HashMap<>();
+        private final Map<String, Long> mDelays = new HashMap<>();
+
+        StubFetcher answer(String url, long delayMillis, Earthquake... earthquakes) {
+            mResponses.put(url, Arrays.asList(earthquakes));
+            mDelays.put(url, delayMillis);
+            return this;
+        }
+
+        @Override
+        public List<Earthquake> fetch(String queryUrl) {
+            Long delay = mDelays.get(queryUrl);
+            if (delay != null) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return mResponses.get(queryUrl);
+        }
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void fetchAll_mergesEachEventOnceKeepingLatestUpdate() {
+        StubFetcher fetcher = new StubFetcher()
+                .answer("a", 0, event("1", 5, 300, 300), event("2", 4, 200, 200))
+                .answer("b", 0, event("2", 4.4, 200, 250), event("3", 6, 100, 100));
+
+        List<Earthquake> merged =
+                EarthquakeFanOut.fetchAll(Arrays.asList("a", "b"), "time", fetcher);
+
+        assertEquals(Arrays.asList("1", "2", "3"), ids(merged));
+        assertEquals(4.4, merged.get(1).getMagnitude(), 0);
+    }
+
+    @Test
+    public void fetchAll_sortsByOrderBy() {
+        StubFetcher fetcher = new StubFetcher()
+                .answer("a", 0, event("1", 5, 300, 300))
+                .answer("b", 0, event("2", 7, 200, 200), event("3", 3, 100, 100));
+
+        List<Earthquake> merged =
+                EarthquakeFanOut.fetchAll(Arrays.asList("a", "b"), "magnitude", fetcher);
+
+        assertEquals(Arrays.asList("2", "1", "3"), ids(merged));
+    }
+
+    @Test
+    public void fetchAll_leavesOutFailedQueries() {
+        StubFetcher fetcher = new StubFetcher().answer("a", 0, event("1", 5, 300, 300));
+
+        List<Earthquake> merged =
+                EarthquakeFanOut.fetchAll(Arrays.asList("a", "missing"), "time", fetcher);
+
+        assertEquals(Collections.singletonList("1"), ids(merged));
+    }
+
+    @Test
+    public void fetchAll_returnsNullIfEveryQueryFailed() {
+        assertNull(EarthquakeFanOut.fetchAll(Arrays.asList("x", "y"), "time",
+                new StubFetcher()));
+    }
+
+    @Test
+    public void fetchAll_runsQueriesConcurrently() {
+        //Every query waits until all four have started, which they only can if they overlap
+        final CountDownLatch started = new CountDownLatch(4);
+        EarthquakeFanOut.Fetcher fetcher = new EarthquakeFanOut.Fetcher() {
+            @Override
+            public List<Earthquake> fetch(String queryUrl) {
+                started.countDown();
+                try {
+                    if (!started.await(10, TimeUnit.SECONDS)) {
+                        return null;
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return Collections.singletonList(event(queryUrl, 5, 100, 100));
+            }
+        };
+
+        List<Earthquake> merged =
+                EarthquakeFanOut.fetchAll(Arrays.asList("a", "b", "c", "d"), "time", fetcher);
+
+        assertEquals(4, merged.size());
+    }
+}
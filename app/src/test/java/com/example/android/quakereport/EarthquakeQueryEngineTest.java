@@ -0,0 +1,138 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeQueryEngineTest {
+
+    private static final EarthquakeQueryEngine.Filter NEWEST_FIRST =
+            new EarthquakeQueryEngine.Filter.Builder().setOrderBy("time").build();
+
+    private static Earthquake event(String id, double magnitude, long time, long updated,
+                                    double latitude) {
+        return new Earthquake(id, magnitude, "place " + id, time, updated, "url " + id,
+                latitude, 20, 10);
+    }
+
+    /** Return count events newest first, from time firstTime down by 10 ms each */
+    private static List<Earthquake> page(String prefix, long firstTime, int count) {
+        List<Earthquake> page = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            page.add(event(prefix + i, 2 + i % 5, firstTime - i * 10, 0, 10));
+        }
+        return page;
+    }
+
+    private static List<String> ids(List<Earthquake> earthquakes) {
+        List<String> ids = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    private static EarthquakeQueryEngine.Filter since(long startTime, String orderBy) {
+        return new EarthquakeQueryEngine.Filter.Builder()
+                .setTimeWindow(startTime, Long.MAX_VALUE)
+                .setOrderBy(orderBy)
+                .build();
+    }
+
+    @Test
+    public void recordPage_extendsCoveredRangeByEachPage() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        engine.record(NEWEST_FIRST, page("a", 1000, 5), false);
+        //Only the events newer than the last one held
+        assertEquals(EarthquakeQueryEngine.COVERAGE_PREFIX,
+                engine.coverage(since(930, "time")));
+
+        assertTrue(engine.recordPage(NEWEST_FIRST, page("b", 950, 5), false));
+
+        assertEquals(EarthquakeQueryEngine.COVERAGE_ALL, engine.coverage(since(930, "time")));
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a3", "a4", "b0", "b1", "b2", "b3"),
+                ids(engine.query(since(911, "time"))));
+    }
+
+    @Test
+    public void recordPage_completeAnswerCoversWholeFilter() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        engine.record(NEWEST_FIRST, page("a", 1000, 5), false);
+
+        assertTrue(engine.recordPage(NEWEST_FIRST, page("b", 950, 2), true));
+
+        assertEquals(EarthquakeQueryEngine.COVERAGE_ALL, engine.coverage(NEWEST_FIRST));
+        assertEquals(7, engine.query(NEWEST_FIRST).size());
+    }
+
+    @Test
+    public void recordPage_refusesPagesNotFollowingTheRecordedOnes() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        assertFalse(engine.recordPage(NEWEST_FIRST, page("a", 1000, 5), false));
+
+        engine.record(NEWEST_FIRST, page("a", 1000, 5), false);
+        assertFalse(engine.recordPage(since(0, "time"), page("b", 950, 5), false));
+
+        //Trimming drops events the earlier pages held
+        engine.trimTo(0.5f);
+        assertFalse(engine.recordPage(NEWEST_FIRST, page("b", 950, 5), false));
+    }
+
+    @Test
+    public void trimTo_keepsCountingDroppedEventsInStatistics() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        List<Earthquake> events = page("a", 1000, 10);
+        engine.record(NEWEST_FIRST, events, false);
+        EarthquakeStatistics statistics = engine.getStatistics();
+        double energy = statistics.energyJoules(0, 2000);
+
+        engine.trimTo(0.5f);
+
+        assertTrue(engine.query(NEWEST_FIRST).size() < events.size());
+        assertEquals(events.size(), statistics.size());
+        assertEquals(events.size(), statistics.count(0, 2000));
+        assertEquals(energy, statistics.energyJoules(0, 2000), 0);
+        //Replacing the events starts the statistics over
+        engine.record(NEWEST_FIRST, page("b", 1000, 3), false);
+        assertEquals(3, statistics.count(0, 2000));
+    }
+
+    @Test
+    public void recordPage_keepsIndexesInEachOrder() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        EarthquakeQueryEngine.Filter byMagnitude = since(Long.MIN_VALUE, "magnitude");
+        engine.record(NEWEST_FIRST, page("a", 1000, 5), false);
+        engine.recordPage(NEWEST_FIRST, page("b", 950, 5), true);
+
+        List<Earthquake> strongest = engine.query(byMagnitude);
+        assertEquals(10, strongest.size());
+        for (int i = 1; i < strongest.size(); i++) {
+            assertTrue(strongest.get(i - 1).getMagnitude() >= strongest.get(i).getMagnitude());
+        }
+        //Equal magnitudes stay in the order they were recorded
+        assertEquals(Arrays.asList("a4", "b4"), ids(strongest.subList(0, 2)));
+    }
+
+    @Test
+    public void record_feedsIndexesTheCopyTheStoreKept() {
+        EarthquakeQueryEngine engine = new EarthquakeQueryEngine();
+        engine.record(NEWEST_FIRST, Arrays.asList(event("a", 5, 1000, 200, 10)), true);
+
+        //An older copy somewhere else is ignored by the store and by every index
+        engine.recordPage(NEWEST_FIRST, Arrays.asList(event("a", 3, 1000, 100, 50)), true);
+        assertEquals(0, engine.queryRadius(50, 20, 100).size());
+        assertEquals(5, engine.nearest(50, 20, 1).get(0).getMagnitude(), 0);
+
+        //A newer one replaces it everywhere
+        engine.recordPage(NEWEST_FIRST, Arrays.asList(event("a", 4, 1000, 300, 50)), true);
+        assertEquals(1, engine.queryRadius(50, 20, 100).size());
+        assertEquals(0, engine.queryRadius(10, 20, 100).size());
+        assertEquals(4, engine.query(NEWEST_FIRST).get(0).getMagnitude(), 0);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeRowFormatterTest {
+
+    //Color of magnitude floors 0..9, then of everything above
+    private static final int[] COLORS = {10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20};
+
+    private static EarthquakeRowFormatter formatter() {
+        return new EarthquakeRowFormatter("Near", COLORS);
+    }
+
+    private static Earthquake event(String id, double magnitude, String location, long time) {
+        return new Earthquake(id, magnitude, location, time, time, "url " + id);
+    }
+
+    @Test
+    public void format_splitsLocationAndFormatsEveryField() {
+        long time = 446966400000L;
+        EarthquakeRow row = formatter().format(event("a", 4.53, "89 km WNW of Lanford", time));
+
+        assertEquals("89 km WNW of", row.getLocationOffset());
+        assertEquals(" Lanford", row.getPrimaryLocation());
+        assertEquals(new SimpleDateFormat("LLL dd, yyyy").format(new Date(time)),
+                row.getFormattedDate());
+        assertEquals(new SimpleDateFormat("hh:mm a").format(new Date(time)),
+                row.getFormattedTime());
+        assertEquals(new DecimalFormat("0.0").format(4.53), row.getFormattedMagnitude());
+        assertEquals(14, row.getMagnitudeColor());
+    }
+
+    @Test
+    public void format_showsLocationWithoutOffsetAsNear() {
+        EarthquakeRow row = formatter().format(event("a", 5, "Fiji region", 0));
+
+        assertEquals("Near", row.getLocationOffset());
+        assertEquals("Fiji region", row.getPrimaryLocation());
+    }
+
+    @Test
+    public void getMagnitudeColor_usesLastColorOutsideZeroToNine() {
+        EarthquakeRowFormatter formatter = formatter();
+
+        assertEquals(10, formatter.getMagnitudeColor(0.4));
+        assertEquals(19, formatter.getMagnitudeColor(9.9));
+        assertEquals(20, formatter.getMagnitudeColor(10));
+        assertEquals(20, formatter.getMagnitudeColor(-0.5));
+    }
+
+    @Test
+    public void format_reusesRowsOfPreviousEarthquakes() {
+        EarthquakeRowFormatter formatter = formatter();
+        Earthquake kept = event("a", 5, "Fiji region", 0);
+        List<EarthquakeRow> previous = formatter.format(Arrays.asList(kept));
+
+        List<EarthquakeRow> rows = formatter.format(
+                Arrays.asList(event("b", 6, "Tonga", 10), kept), previous);
+
+        assertEquals("Tonga", rows.get(0).getPrimaryLocation());
+        assertSame(previous.get(0), rows.get(1));
+    }
+
+    /**
+     * Binding a row only reads its precomputed fields, which must not allocate: repeated reads
+     * of every field stay far below one allocation per read
+     */
+    @Test
+    public void rowAccessors_allocateNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            //Nothing to measure with on this JVM
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        EarthquakeRow row = formatter().format(event("a", 4.5, "89 km WNW of Lanford", 0));
+        int binds = 100000;
+        long sink = 0;
+        //Once to load classes and resolve the accessors
+        sink += bind(row);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < binds; i++) {
+            sink += bind(row);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sink != 0);
+        //A few bytes are the measurement's own, a single object per bind would be 1.6 MB
+        assertTrue("allocated " + allocated + " bytes", allocated < binds);
+    }
+
+    /** Read every field the adapter sets on a row's views */
+    private static long bind(EarthquakeRow row) {
+        return row.getEarthquake().hashCode() + row.getPrimaryLocation().length()
+                + row.getLocationOffset().length() + row.getFormattedDate().length()
+                + row.getFormattedTime().length() + row.getFormattedMagnitude().length()
+                + row.getMagnitudeColor();
+    }
+}
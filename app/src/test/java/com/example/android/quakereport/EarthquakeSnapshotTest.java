@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeSnapshotTest {
+
+    private static List<Earthquake> sampleEarthquakes() {
+        return Arrays.asList(
+                new Earthquake("us1000abcd", 6.1, "120 km NNE of Neiafu, Tonga",
+                        1500000000000L, 1500000600000L, "https://earthquake.usgs.gov/1",
+                        -17.5, -173.8, 10.0),
+                //Shares its place with the first event, and has no id or hypocenter
+                new Earthquake(null, 4.3, "120 km NNE of Neiafu, Tonga",
+                        1499990000000L, 1499990000000L, "https://earthquake.usgs.gov/2",
+                        Double.NaN, Double.NaN, Double.NaN),
+                new Earthquake("ci3819", -0.4, "3 km S\u00c9 of Ciudad Hidalgo, M\u00e9xico",
+                        1499980000000L, 1499985000000L, "https://earthquake.usgs.gov/3",
+                        14.68, -92.15, 35.5));
+    }
+
+    @Test
+    public void roundTrip_keepsEveryField() {
+        List<Earthquake> earthquakes = sampleEarthquakes();
+        byte[] snapshot = EarthquakeSnapshot.encode(earthquakes);
+
+        List<Earthquake> decoded = EarthquakeSnapshot.decode(snapshot, 0, snapshot.length);
+
+        assertNotNull(decoded);
+        assertEquals(earthquakes.size(), decoded.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake expected = earthquakes.get(i);
+            Earthquake actual = decoded.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+            assertEquals(expected.getLocation(), actual.getLocation());
+            assertEquals(expected.getTimeInMilliseconds(), actual.getTimeInMilliseconds());
+            assertEquals(expected.getUpdatedInMilliseconds(), actual.getUpdatedInMilliseconds());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getLatitude(), actual.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), actual.getLongitude(), 0);
+            assertEquals(expected.getDepth(), actual.getDepth(), 0);
+        }
+    }
+
+    @Test
+    public void roundTrip_atOffsetInsideLargerBuffer() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+        byte[] buffer = new byte[snapshot.length + 10];
+        System.arraycopy(snapshot, 0, buffer, 7, snapshot.length);
+
+        List<Earthquake> decoded = EarthquakeSnapshot.decode(buffer, 7, snapshot.length);
+
+        assertNotNull(decoded);
+        assertEquals(3, decoded.size());
+        assertEquals("ci3819", decoded.get(2).getId());
+    }
+
+    @Test
+    public void roundTrip_emptyList() {
+        byte[] snapshot = EarthquakeSnapshot.encode(new ArrayList<Earthquake>());
+
+        List<Earthquake> decoded = EarthquakeSnapshot.decode(snapshot, 0, snapshot.length);
+
+        assertNotNull(decoded);
+        assertEquals(0, decoded.size());
+    }
+
+    @Test
+    public void decode_badChecksum_returnsNull() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+        //Flip one bit of the last string, past the header
+        snapshot[snapshot.length - 1] ^= 1;
+
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, snapshot.length));
+    }
+
+    @Test
+    public void decode_badMagic_returnsNull() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+        snapshot[0] = 'X';
+
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, snapshot.length));
+    }
+
+    @Test
+    public void decode_otherVersion_returnsNull() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+        //Version is the big-endian int after the magic
+        snapshot[7]++;
+
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, snapshot.length));
+    }
+
+    @Test
+    public void decode_truncated_returnsNull() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+
+        //Cut inside the header, inside the columns and inside the string table
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, 10));
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, 40));
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, snapshot.length - 3));
+    }
+
+    @Test
+    public void decode_hugeCount_returnsNullWithoutAllocating() {
+        byte[] snapshot = EarthquakeSnapshot.encode(sampleEarthquakes());
+        //Event count is the int after magic and version
+        snapshot[8] = 0x7f;
+
+        assertNull(EarthquakeSnapshot.decode(snapshot, 0, snapshot.length));
+    }
+}
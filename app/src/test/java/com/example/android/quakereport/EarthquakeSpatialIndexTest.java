@@ -0,0 +1,209 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSpatialIndexTest {
+
+    private static Earthquake event(String id, double latitude, double longitude) {
+        return new Earthquake(id, 5, "place " + id, 0, 0, "url " + id, latitude, longitude, 10);
+    }
+
+    private static Set<String> ids(List<Earthquake> earthquakes) {
+        Set<String> ids = new HashSet<>();
+        for (Earthquake earthquake : earthquakes) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    private static Set<String> setOf(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    /** Return count events spread evenly over the sphere, poles and antimeridian included */
+    private static List<Earthquake> randomEvents(int count, long seed) {
+        Random random = new Random(seed);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double longitude = random.nextDouble() * 360 - 180;
+            earthquakes.add(event("e" + i, latitude, longitude));
+        }
+        return earthquakes;
+    }
+
+    private static List<Earthquake> scanRadius(List<Earthquake> earthquakes, double latitude,
+                                               double longitude, double radiusKm) {
+        List<Earthquake> inside = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            if (EarthquakeSpatialIndex.distanceKm(latitude, longitude, earthquake.getLatitude(),
+                    earthquake.getLongitude()) <= radiusKm) {
+                inside.add(earthquake);
+            }
+        }
+        return inside;
+    }
+
+    private static List<Earthquake> scanBoundingBox(List<Earthquake> earthquakes,
+                                                    double minLatitude, double maxLatitude,
+                                                    double minLongitude, double maxLongitude) {
+        List<Earthquake> inside = new ArrayList<>();
+        for (Earthquake earthquake : earthquakes) {
+            double latitude = earthquake.getLatitude();
+            double longitude = earthquake.getLongitude();
+            boolean inLongitudes = minLongitude > maxLongitude
+                    ? longitude >= minLongitude || longitude <= maxLongitude
+                    : longitude >= minLongitude && longitude <= maxLongitude;
+            if (inLongitudes && latitude >= minLatitude && latitude <= maxLatitude) {
+                inside.add(earthquake);
+            }
+        }
+        return inside;
+    }
+
+    private static List<Earthquake> scanNearest(List<Earthquake> earthquakes, double latitude,
+                                                double longitude, int k) {
+        //Insertion into the k nearest so far, nearest first
+        List<Earthquake> nearest = new ArrayList<>(k + 1);
+        double[] distances = new double[k + 1];
+        for (Earthquake earthquake : earthquakes) {
+            double distance = EarthquakeSpatialIndex.distanceKm(latitude, longitude,
+                    earthquake.getLatitude(), earthquake.getLongitude());
+            int position = nearest.size();
+            while (position > 0 && distances[position - 1] > distance) {
+                position--;
+            }
+            if (position < k) {
+                nearest.add(position, earthquake);
+                System.arraycopy(distances, position, distances, position + 1,
+                        nearest.size() - 1 - position);
+                distances[position] = distance;
+                if (nearest.size() > k) {
+                    nearest.remove(k);
+                }
+            }
+        }
+        return nearest;
+    }
+
+    @Test
+    public void distanceKm_matchesKnownDistances() {
+        //A degree of latitude, and a quarter of the way round the equator
+        assertEquals(111.195, EarthquakeSpatialIndex.distanceKm(0, 0, 1, 0), 0.01);
+        assertEquals(10007.56, EarthquakeSpatialIndex.distanceKm(0, 0, 0, 90), 0.1);
+        //Across the antimeridian is the short way round
+        assertEquals(222.39, EarthquakeSpatialIndex.distanceKm(0, 179, 0, -179), 0.01);
+    }
+
+    @Test
+    public void queryBoundingBox_crossingAntimeridian() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.put(event("fiji", -17, 178));
+        index.put(event("samoa", -14, -172));
+        index.put(event("chile", -33, -71));
+        index.put(event("edge", -15, 180));
+
+        assertEquals(setOf("fiji", "samoa", "edge"),
+                ids(index.queryBoundingBox(-20, -10, 170, -170)));
+        assertEquals(setOf("fiji", "edge"), ids(index.queryBoundingBox(-20, -10, 170, 180)));
+    }
+
+    @Test
+    public void queryBoundingBox_atThePoles() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.put(event("north", 90, 0));
+        index.put(event("arctic", 89.5, 120));
+        index.put(event("south", -90, -45));
+        index.put(event("equator", 0, 0));
+
+        assertEquals(setOf("north", "arctic"), ids(index.queryBoundingBox(89, 90, -180, 180)));
+        assertEquals(setOf("south"), ids(index.queryBoundingBox(-90, -89, -180, 180)));
+    }
+
+    @Test
+    public void queryRadius_matchesHaversineScan() {
+        List<Earthquake> earthquakes = randomEvents(5000, 1);
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.putAll(earthquakes);
+        //Open sea, across the antimeridian, round each pole and half the globe
+        double[][] circles = {{10, 20, 800}, {-15, 179.5, 600}, {-40, -179, 1500},
+                {89, 0, 500}, {-88.5, 100, 900}, {0, 0, 9000}};
+
+        for (double[] circle : circles) {
+            assertEquals(ids(scanRadius(earthquakes, circle[0], circle[1], circle[2])),
+                    ids(index.queryRadius(circle[0], circle[1], circle[2])));
+        }
+    }
+
+    @Test
+    public void nearest_matchesHaversineScan() {
+        List<Earthquake> earthquakes = randomEvents(5000, 2);
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.putAll(earthquakes);
+
+        for (double[] point : new double[][]{{35, 139}, {-16, -179.9}, {89.9, 10}}) {
+            List<Earthquake> nearest = index.nearest(point[0], point[1], 10);
+            assertEquals(ids(scanNearest(earthquakes, point[0], point[1], 10)), ids(nearest));
+            for (int i = 1; i < nearest.size(); i++) {
+                assertTrue(EarthquakeSpatialIndex.distanceKm(point[0], point[1],
+                        nearest.get(i - 1).getLatitude(), nearest.get(i - 1).getLongitude())
+                        <= EarthquakeSpatialIndex.distanceKm(point[0], point[1],
+                        nearest.get(i).getLatitude(), nearest.get(i).getLongitude()));
+            }
+        }
+        assertEquals(5000, index.nearest(0, 0, 6000).size());
+    }
+
+    @Test
+    public void put_replacesAndRemoveDropsEvents() {
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.put(event("a", 10, 10));
+        index.put(event("b", 10, 10.5));
+        index.put(event("a", -30, 60));
+
+        assertEquals(2, index.size());
+        assertEquals(setOf("b"), ids(index.queryRadius(10, 10, 100)));
+        assertTrue(index.remove("b"));
+        assertFalse(index.remove("b"));
+        assertEquals(setOf("a"), ids(index.queryBoundingBox(-90, 90, -180, 180)));
+        //Events without coordinates are left out
+        assertFalse(index.put(new Earthquake(4, "Nowhere", 0, "url c")));
+        assertEquals(1, index.size());
+    }
+
+    /**
+     * Compare every query with scanning every event, at random points over a dense index. The
+     * timing of the same comparison is in the debug build's HotPathBenchmark.
+     */
+    @Test
+    public void queries_matchScanningEveryEvent() {
+        List<Earthquake> earthquakes = randomEvents(20000, 3);
+        EarthquakeSpatialIndex index = new EarthquakeSpatialIndex();
+        index.putAll(earthquakes);
+        Random random = new Random(4);
+
+        for (int i = 0; i < 200; i++) {
+            double latitude = random.nextDouble() * 160 - 80;
+            double longitude = random.nextDouble() * 360 - 180;
+            double east = longitude + 10 > 180 ? longitude - 350 : longitude + 10;
+
+            assertEquals(ids(scanRadius(earthquakes, latitude, longitude, 1000)),
+                    ids(index.queryRadius(latitude, longitude, 1000)));
+            assertEquals(ids(scanBoundingBox(earthquakes, latitude, latitude + 10, longitude,
+                    east)), ids(index.queryBoundingBox(latitude, latitude + 10, longitude, east)));
+            assertEquals(ids(scanNearest(earthquakes, latitude, longitude, 10)),
+                    ids(index.nearest(latitude, longitude, 10)));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStatisticsTest {
+
+    private static final long DAY = EarthquakeStatistics.DAY_MILLIS;
+
+    /** Return the histogram bin a magnitude written with one decimal is counted in */
+    private static int binOf(double magnitude) {
+        return (int) Math.round((magnitude - EarthquakeStatistics.MIN_BIN_MAGNITUDE)
+                / EarthquakeStatistics.BIN_WIDTH);
+    }
+
+    @Test
+    public void countsPerDay_bucketsByUtcDay() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 4);
+        statistics.put("b", DAY - 1, 4);
+        statistics.put("c", 2 * DAY + 5, 4);
+        //Before 1970 is the day before, not day 0
+        statistics.put("d", -1, 4);
+
+        assertArrayEquals(new int[]{1, 2, 0, 1}, statistics.countsPerDay(-DAY, 3 * DAY - 1));
+        assertArrayEquals(new int[]{2}, statistics.countsPerDay(DAY / 2, DAY / 2));
+        assertEquals(0, statistics.countsPerDay(DAY, 0).length);
+        assertEquals(3, statistics.count(0, 2 * DAY));
+    }
+
+    @Test
+    public void put_movesTheCountedCopyAndRemoveTakesItOut() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 4.3);
+        statistics.put("a", DAY, 5.1);
+
+        assertArrayEquals(new int[]{0, 1}, statistics.countsPerDay(0, DAY));
+        int[] histogram = statistics.magnitudeHistogram(0, DAY);
+        assertEquals(0, histogram[binOf(4.3)]);
+        assertEquals(1, histogram[binOf(5.1)]);
+
+        assertTrue(statistics.remove("a"));
+        assertFalse(statistics.remove("a"));
+        assertEquals(0, statistics.count(0, DAY));
+        assertEquals(0, statistics.energyJoules(0, DAY), 0);
+    }
+
+    @Test
+    public void magnitudeHistogram_putsMagnitudesInTheirOwnBin() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 4.3);
+        statistics.put("b", 0, 4.35);
+        //Out of range on either side, counted in the first and last bins
+        statistics.put("c", 0, -3);
+        statistics.put("d", 0, 12);
+
+        int[] histogram = statistics.magnitudeHistogram(0, 0);
+        assertEquals(2, histogram[binOf(4.3)]);
+        assertEquals(1, histogram[0]);
+        assertEquals(1, histogram[EarthquakeStatistics.BIN_COUNT - 1]);
+        assertEquals(4.3, EarthquakeStatistics.binMagnitude(binOf(4.3)), 1e-9);
+    }
+
+    @Test
+    public void energyJoules_sumsTheGutenbergRichterEnergyOfEachEvent() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 5);
+        statistics.put("b", DAY, 6);
+        statistics.put("c", 3 * DAY, 4);
+
+        double m4 = Math.pow(10, 1.5 * 4 + 4.8);
+        double m5 = Math.pow(10, 1.5 * 5 + 4.8);
+        double m6 = Math.pow(10, 1.5 * 6 + 4.8);
+        assertEquals(m5, EarthquakeStatistics.energyJoules(5), m5 * 1e-12);
+        //A magnitude step is about 31.6 times the energy
+        assertEquals(Math.pow(10, 1.5), m6 / m5, 1e-9);
+        assertEquals(m5 + m6 + m4, statistics.energyJoules(0, 3 * DAY), m6 * 1e-6);
+        assertEquals(m6, statistics.energyJoules(DAY, 2 * DAY), m6 * 1e-6);
+    }
+
+    @Test
+    public void rollingEnergyJoules_sumsTheDaysOfEachWindow() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 5);
+        statistics.put("b", DAY, 6);
+        statistics.put("c", 3 * DAY, 4);
+        double m4 = EarthquakeStatistics.energyJoules(4);
+        double m5 = EarthquakeStatistics.energyJoules(5);
+        double m6 = EarthquakeStatistics.energyJoules(6);
+
+        double[] rolling = statistics.rollingEnergyJoules(DAY, 4 * DAY, 2);
+
+        //Each day with the one before it, day 0 included for the first
+        double[] expected = {m5 + m6, m6, m4, m4};
+        assertEquals(expected.length, rolling.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], rolling[i], m6 * 1e-6);
+        }
+    }
+
+    @Test
+    public void rollingEnergyJoules_releasesNothingOverNoDays() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        statistics.put("a", 0, 5);
+
+        assertArrayEquals(new double[3], statistics.rollingEnergyJoules(0, 2 * DAY, 0), 0);
+        assertArrayEquals(new double[3], statistics.rollingEnergyJoules(0, 2 * DAY, -4), 0);
+        assertEquals(0, statistics.rollingEnergyJoules(2 * DAY, 0, 7).length);
+    }
+
+    @Test
+    public void bValue_isAkiUtsuEstimateAboveCompleteness() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        //Fewer events below 3.0, the catalog is incomplete there
+        for (int i = 0; i < 10; i++) {
+            statistics.put("low" + i, 0, 2.5);
+        }
+        for (int i = 0; i < 30; i++) {
+            statistics.put("a" + i, 0, 3.0);
+        }
+        for (int i = 0; i < 20; i++) {
+            statistics.put("b" + i, 0, 3.5);
+        }
+
+        //Mean 3.2 above completeness 3.0, less half a bin
+        double expected = Math.log10(Math.E) / (3.2 - (3.0 - 0.05));
+        assertEquals(expected, statistics.bValue(0, 0), 1e-9);
+        //Too few events on a day of its own
+        statistics.put("c", DAY, 5);
+        assertTrue(Double.isNaN(statistics.bValue(DAY, DAY)));
+    }
+
+    @Test
+    public void bValue_recoversTheSlopeOfAGutenbergRichterCatalog() {
+        EarthquakeStatistics statistics = new EarthquakeStatistics();
+        //N(M) proportional to 10^-(M - 3), b = 1, complete from M 3
+        int id = 0;
+        for (int tenths = 30; tenths <= 70; tenths++) {
+            double magnitude = tenths / 10.0;
+            long count = Math.round(20000 * Math.pow(10, -(magnitude - 3)));
+            for (int i = 0; i < count; i++) {
+                statistics.put("e" + id++, i % 30 * DAY, magnitude);
+            }
+        }
+
+        assertEquals(1.0, statistics.bValue(0, 30 * DAY), 0.02);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStoreTest {
+
+    private static Earthquake event(String id, double magnitude, String location, long time,
+                                    long updated) {
+        return new Earthquake(id, magnitude, location, time, updated, "url " + id,
+                10.5, -20.25, 7);
+    }
+
+    @Test
+    public void put_addsEventsAndReadsThemBack() {
+        EarthquakeStore store = new EarthquakeStore(1);
+        int first = store.put(event("a", 5.5, "Tonga", 100, 100));
+        int second = store.put(new Earthquake(4, "Chile", 200, "url b"));
+
+        assertEquals(2, store.size());
+        assertEquals(first, store.rowOf("a"));
+        //Events without an id are keyed by their url
+        assertEquals(second, store.rowOf("url b"));
+        assertEquals(-1, store.rowOf("missing"));
+        Earthquake read = store.get(first);
+        assertEquals("a", read.getId());
+        assertEquals(5.5, read.getMagnitude(), 0);
+        assertEquals("Tonga", read.getLocation());
+        assertEquals(100, read.getTimeInMilliseconds());
+        assertEquals("url a", read.getUrl());
+        assertEquals(10.5, read.getLatitude(), 0);
+        assertEquals(-20.25, read.getLongitude(), 0);
+        assertNull(store.getId(second));
+    }
+
+    @Test
+    public void put_replacesOnlyWithNewerCopy() {
+        EarthquakeStore store = new EarthquakeStore();
+        int row = store.put(event("a", 5, "Tonga", 100, 200));
+
+        assertEquals(row, store.put(event("a", 6, "Fiji", 100, 300)));
+        assertEquals(6, store.getMagnitude(row), 0);
+        assertEquals("Fiji", store.getLocation(row));
+
+        //An older or equally old copy leaves the held one alone
+        assertEquals(row, store.put(event("a", 3, "Samoa", 100, 300)));
+        assertEquals(row, store.put(event("a", 3, "Samoa", 100, 250)));
+        assertEquals(6, store.getMagnitude(row), 0);
+        assertEquals("Fiji", store.getLocation(row));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void put_replacingDropsStringsOnlyTheOldCopyUsed() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.put(event("a", 5, "Tonga", 100, 100));
+        store.put(event("b", 5, "Tonga", 100, 100));
+        //a, b, their urls and the shared location
+        assertEquals(5, store.pooledStringCount());
+
+        store.put(event("a", 5, "Fiji", 100, 200));
+        //Tonga is still used by b, Fiji is added
+        assertEquals(6, store.pooledStringCount());
+        store.put(event("b", 5, "Fiji", 100, 200));
+        assertEquals(5, store.pooledStringCount());
+        assertEquals("Fiji", store.getLocation(store.rowOf("b")));
+
+        //Free slots are reused instead of growing the pool
+        for (int i = 0; i < 100; i++) {
+            store.put(event("a", 5, "Place " + i, 100, 300 + i));
+        }
+        //a, b, their urls, Fiji for b and the last place of a
+        assertEquals(6, store.pooledStringCount());
+        assertEquals("Place 99", store.getLocation(store.rowOf("a")));
+        assertEquals("url a", store.getUrl(store.rowOf("a")));
+    }
+
+    @Test
+    public void sortedRows_ordersByEachOrderByValue() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.put(event("a", 5, "A", 200, 0));
+        store.put(event("b", 7, "B", 100, 0));
+        store.put(event("c", 3, "C", 300, 0));
+
+        assertArrayEquals(new int[]{2, 0, 1}, store.sortedRows("time"));
+        assertArrayEquals(new int[]{2, 0, 1}, store.sortedRows(null));
+        assertArrayEquals(new int[]{1, 0, 2}, store.sortedRows("time-asc"));
+        assertArrayEquals(new int[]{1, 0, 2}, store.sortedRows("magnitude"));
+        assertArrayEquals(new int[]{2, 0, 1}, store.sortedRows("magnitude-asc"));
+    }
+
+    @Test
+    public void sortedRows_isStableForEqualKeys() {
+        EarthquakeStore store = new EarthquakeStore();
+        //Many ties so both halves of the merge sort hold equal keys
+        for (int i = 0; i < 200; i++) {
+            store.put(event("e" + i, i % 3, "P", 1000 - i % 5, 0));
+        }
+
+        int[] byMagnitude = store.sortedRows("magnitude");
+        int[] byTime = store.sortedRows("time");
+
+        for (int i = 1; i < byMagnitude.length; i++) {
+            int a = byMagnitude[i - 1];
+            int b = byMagnitude[i];
+            assertTrue(store.getMagnitude(a) > store.getMagnitude(b)
+                    || (store.getMagnitude(a) == store.getMagnitude(b) && a < b));
+            a = byTime[i - 1];
+            b = byTime[i];
+            assertTrue(store.getTimeInMilliseconds(a) > store.getTimeInMilliseconds(b)
+                    || (store.getTimeInMilliseconds(a) == store.getTimeInMilliseconds(b) && a < b));
+        }
+    }
+
+    @Test
+    public void mergeRows_matchesSortingEveryRow() {
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 50; i++) {
+            store.put(event("e" + i, i % 4, "P", 1000 - i % 7, 0));
+        }
+        int[] byMagnitude = store.sortedRows("magnitude");
+        int[] byTime = store.sortedRows("time-asc");
+        int[] added = new int[30];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = store.put(event("f" + i, (i * 7) % 5, "P", 990 + i % 11, 0));
+        }
+
+        assertArrayEquals(store.sortedRows("magnitude"),
+                store.mergeRows(byMagnitude, added.clone(), "magnitude"));
+        assertArrayEquals(store.sortedRows("time-asc"),
+                store.mergeRows(byTime, added.clone(), "time-asc"));
+    }
+
+    @Test
+    public void filterRows_appliesInclusiveBounds() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.put(event("a", 2, "A", 100, 0));
+        store.put(event("b", 4, "B", 200, 0));
+        store.put(event("c", 6, "C", 300, 0));
+
+        assertArrayEquals(new int[]{1, 2}, store.filterRows(4, Double.NaN,
+                Long.MIN_VALUE, Long.MAX_VALUE));
+        assertArrayEquals(new int[]{0, 1}, store.filterRows(Double.NaN, Double.NaN, 100, 200));
+    }
+
+    @Test
+    public void trimToSize_shrinksColumnsAndKeepsEvents() {
+        EarthquakeStore store = new EarthquakeStore(1024);
+        store.put(event("a", 5, "A", 100, 0));
+        store.put(event("b", 6, "B", 200, 0));
+        long before = store.estimateBytes();
+
+        store.trimToSize();
+
+        assertTrue(store.estimateBytes() < before);
+        assertEquals(2, store.size());
+        assertEquals("B", store.getLocation(store.rowOf("b")));
+        //Still grows after being trimmed
+        store.put(event("c", 7, "C", 300, 0));
+        int[] byTime = store.sortedRows("time");
+        assertEquals(3, byTime.length);
+        assertEquals("c", store.getId(byTime[0]));
+        assertEquals("a", store.getId(byTime[2]));
+    }
+
+    @Test
+    public void clear_forgetsEverything() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.put(event("a", 5, "A", 100, 0));
+        store.put(event("a", 5, "B", 100, 10));
+
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, store.pooledStringCount());
+        assertEquals(-1, store.rowOf("a"));
+        assertEquals(0, store.put(event("b", 1, "C", 1, 0)));
+        assertEquals("C", store.getLocation(0));
+    }
+}
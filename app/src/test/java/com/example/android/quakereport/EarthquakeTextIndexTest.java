@@ -0,0 +1,77 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeTextIndexTest {
+
+    private static int distance(String query, String token, int maxEdits) {
+        return EarthquakeTextIndex.prefixDistance(query, token, maxEdits,
+                new int[3][query.length() + 1]);
+    }
+
+    @Test
+    public void tokenize_splitsLowercasesAndDropsAccents() {
+        assertArrayEquals(new String[]{"120", "km", "nne", "of", "neiafu", "tonga"},
+                EarthquakeTextIndex.tokenize("120 km NNE of Neiafu, Tonga"));
+        assertArrayEquals(new String[]{"sao", "tome", "nunoa"},
+                EarthquakeTextIndex.tokenize("S\u00e3o Tom\u00e9 - \u00d1u\u00f1oa"));
+        //Each token once, in the order it first appears
+        assertArrayEquals(new String[]{"tonga", "islands"},
+                EarthquakeTextIndex.tokenize("Tonga Islands, TONGA"));
+    }
+
+    @Test
+    public void tokenize_returnsNoTokensForBlankText() {
+        assertEquals(0, EarthquakeTextIndex.tokenize(null).length);
+        assertEquals(0, EarthquakeTextIndex.tokenize("").length);
+        assertEquals(0, EarthquakeTextIndex.tokenize(" ,- ").length);
+    }
+
+    @Test
+    public void prefixDistance_countsEditsToClosestPrefix() {
+        assertEquals(0, distance("tonga", "tonga", 1));
+        assertEquals(0, distance("ton", "tonga", 0));
+        //Replaced, swapped, extra and missing characters
+        assertEquals(1, distance("tokga", "tonga", 1));
+        assertEquals(1, distance("tnoga", "tonga", 1));
+        assertEquals(1, distance("tonnga", "tonga", 1));
+        assertEquals(1, distance("toga", "tonga", 1));
+        //Against a prefix, the rest of the token is free
+        assertEquals(1, distance("alaksa", "alaskan", 1));
+        assertEquals(2, distance("indonezai", "indonesia", 2));
+    }
+
+    @Test
+    public void prefixDistance_capsAtOneMoreThanAllowed() {
+        assertEquals(2, distance("xyzw", "tonga", 1));
+        assertEquals(2, distance("tnoag", "tonga", 1));
+        assertEquals(3, distance("kamchatka", "alaska", 2));
+        assertEquals(1, distance("tonga", "fiji", 0));
+    }
+
+    @Test
+    public void search_matchesPrefixesAndTyposOfEveryWord() {
+        EarthquakeTextIndex index = new EarthquakeTextIndex();
+        index.put(0, "120 km NNE of Neiafu, Tonga");
+        index.put(1, "Fiji region");
+        index.put(2, "45 km S of Tonga Islands");
+        index.put(3, "10 km W of Anchorage, Alaska");
+
+        assertArrayEquals(new int[]{0, 2}, index.search("tonga"));
+        assertArrayEquals(new int[]{0}, index.search("Neiafu ton"));
+        assertArrayEquals(new int[]{0, 2}, index.search("tnoga"));
+        assertArrayEquals(new int[]{3}, index.search("alsaka"));
+        //Short words must match exactly
+        assertArrayEquals(new int[0], index.search("fjj"));
+        assertArrayEquals(new int[0], index.search(" "));
+
+        index.put(2, "Fiji Islands");
+        assertArrayEquals(new int[]{1, 2}, index.search("fiji"));
+        assertTrue(index.remove(0));
+        assertArrayEquals(new int[0], index.search("tonga"));
+    }
+}
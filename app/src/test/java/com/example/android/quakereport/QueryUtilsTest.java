@@ -0,0 +1,80 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Tests the request shared by callers coalesced on one URL */
+public class QueryUtilsTest {
+
+    private static EarthquakeCache.Entry entry() {
+        return new EarthquakeCache.Entry(Collections.<Earthquake>emptyList(), "\"etag\"", null);
+    }
+
+    @Test
+    public void inFlightRequest_canceledOnlyOnceEveryCallerIs() {
+        QueryUtils.InFlightRequest request = new QueryUtils.InFlightRequest();
+        CancellationToken owner = new CancellationToken();
+        CancellationToken waiter = new CancellationToken();
+        assertTrue(request.join(owner));
+        assertTrue(request.join(waiter));
+
+        owner.cancel();
+        assertFalse(request.isCanceled());
+
+        EarthquakeCache.Entry response = entry();
+        request.finish(response);
+        assertFalse(request.wasAbandoned());
+        assertSame(response, request.getResponse());
+    }
+
+    @Test
+    public void inFlightRequest_callerWithoutTokenKeepsItGoing() {
+        QueryUtils.InFlightRequest request = new QueryUtils.InFlightRequest();
+        CancellationToken owner = new CancellationToken();
+        assertTrue(request.join(owner));
+        assertTrue(request.join(null));
+
+        owner.cancel();
+
+        assertFalse(request.isCanceled());
+    }
+
+    @Test
+    public void inFlightRequest_refusesCallersJoiningAfterAbort() {
+        QueryUtils.InFlightRequest request = new QueryUtils.InFlightRequest();
+        CancellationToken owner = new CancellationToken();
+        CancellationToken waiter = new CancellationToken();
+        assertTrue(request.join(owner));
+        assertTrue(request.join(waiter));
+        owner.cancel();
+        waiter.cancel();
+        //The stream sees the cancellation and aborts
+        assertTrue(request.isCanceled());
+
+        //A caller arriving before the aborted request finishes must start its own
+        assertFalse(request.join(new CancellationToken()));
+        assertTrue(request.isCanceled());
+        request.finish(null);
+        assertTrue(request.wasAbandoned());
+        assertNull(request.getResponse());
+    }
+
+    @Test
+    public void inFlightRequest_finishLatchesAbandonmentTheStreamMissed() {
+        QueryUtils.InFlightRequest request = new QueryUtils.InFlightRequest();
+        CancellationToken owner = new CancellationToken();
+        assertTrue(request.join(owner));
+
+        owner.cancel();
+        request.finish(null);
+
+        assertTrue(request.wasAbandoned());
+        assertFalse(request.join(new CancellationToken()));
+    }
+}
@@ -0,0 +1,596 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stub USGS server answering from recorded GeoJSON responses, so the app's loading can be
+ * measured reproducibly on any machine with a JDK. It answers requests the way
+ * {@link ReplayTransport} does inside the debug app: every ".geojson" and ".json" file in a
+ * directory is served as if the server held exactly those events, "minmag" or "minmagnitude",
+ * "maxmagnitude", "starttime", "endtime", "updatedafter", bounding box and radius parameters
+ * filter them, "orderby" sorts them and "limit" and "offset" page them. Responses carry an
+ * ETag, and latency, limited bandwidth and error responses can be injected, see
+ * {@link Builder}.
+ *
+ * Run it with the compiled app and unit test classes on the class path:
+ * "java com.example.android.quakereport.ReplayServer directory [port] [latency=ms]
+ * [bandwidth=bytes per second] [error=response code] [every=n]", then point a debug build at
+ * it with "adb shell dumpsys activity com.example.android.quakereport
+ * server=http://10.0.2.2:port" from the emulator.
+ */
+public class ReplayServer {
+
+    /** Events per page when a request doesn't set "limit", the USGS maximum */
+    private static final int DEFAULT_LIMIT = 20000;
+
+    /** Port {@link #main} listens on when none is given */
+    private static final int DEFAULT_PORT = 8080;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<RecordedEvent> mEvents;
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+    private final int mErrorCode;
+    private final int mErrorEvery;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+
+    private ReplayServer(Builder builder, InetSocketAddress address) throws IOException {
+        mEvents = readRecordings(builder.mDirectory);
+        mLatencyMillis = builder.mLatencyMillis;
+        mBytesPerSecond = builder.mBytesPerSecond;
+        mErrorCode = builder.mErrorCode;
+        mErrorEvery = builder.mErrorEvery;
+        mServer = HttpServer.create(address, 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        //Requests are answered in parallel, so injected latency doesn't queue them up
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /** Base URL to send requests to, i.e. "http://127.0.0.1:8080" */
+    public String getBaseUrl() {
+        InetSocketAddress address = mServer.getAddress();
+        String host = address.getAddress().isAnyLocalAddress()
+                ? "127.0.0.1" : address.getAddress().getHostAddress();
+        return "http://" + host + ":" + address.getPort();
+    }
+
+    /** Number of requests answered so far, errors included */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        sleep(mLatencyMillis);
+        int request = mRequests.incrementAndGet();
+        if (mErrorEvery > 0 && request % mErrorEvery == 0) {
+            exchange.sendResponseHeaders(mErrorCode, -1);
+            return;
+        }
+
+        byte[] body = answer(parseQuery(exchange.getRequestURI()), mEvents);
+        String eTag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        OutputStream out = exchange.getResponseBody();
+        if (mBytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        //Tenths of a second worth of bytes at a time
+        int chunk = (int) Math.max(1, Math.min(body.length, mBytesPerSecond / 10));
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            int length = Math.min(chunk, body.length - offset);
+            out.write(body, offset, length);
+            out.flush();
+            sleep(length * 1000L / mBytesPerSecond);
+        }
+    }
+
+    /** Filter, sort and page the recorded events the way USGS answers the query */
+    static byte[] answer(Map<String, String> query, List<RecordedEvent> events) {
+        double minMagnitude = parseDouble(query.containsKey("minmag")
+                ? query.get("minmag") : query.get("minmagnitude"), Double.NEGATIVE_INFINITY);
+        double maxMagnitude = parseDouble(query.get("maxmagnitude"), Double.POSITIVE_INFINITY);
+        long startTime = EarthquakeDeltaSync.parseUsgsTime(query.get("starttime"),
+                Long.MIN_VALUE);
+        long endTime = EarthquakeDeltaSync.parseUsgsTime(query.get("endtime"), Long.MAX_VALUE);
+        long updatedAfter = EarthquakeDeltaSync.parseUsgsTime(query.get("updatedafter"),
+                Long.MIN_VALUE);
+        double minLatitude = parseDouble(query.get("minlatitude"), -90);
+        double maxLatitude = parseDouble(query.get("maxlatitude"), 90);
+        double minLongitude = parseDouble(query.get("minlongitude"), -180);
+        double maxLongitude = parseDouble(query.get("maxlongitude"), 180);
+        double latitude = parseDouble(query.get("latitude"), Double.NaN);
+        double longitude = parseDouble(query.get("longitude"), Double.NaN);
+        double maxRadiusKm = parseDouble(query.get("maxradiuskm"), Double.NaN);
+        boolean spatial = query.containsKey("minlatitude") || query.containsKey("minlongitude")
+                || query.containsKey("maxlatitude") || query.containsKey("maxlongitude");
+
+        List<RecordedEvent> matches = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            Earthquake earthquake = event.mEarthquake;
+            double eventLatitude = earthquake.getLatitude();
+            double eventLongitude = earthquake.getLongitude();
+            if (earthquake.getMagnitude() < minMagnitude
+                    || earthquake.getMagnitude() > maxMagnitude
+                    || earthquake.getTimeInMilliseconds() < startTime
+                    || earthquake.getTimeInMilliseconds() > endTime
+                    || earthquake.getUpdatedInMilliseconds() <= updatedAfter) {
+                continue;
+            }
+            if (spatial && (Double.isNaN(eventLatitude) || eventLatitude < minLatitude
+                    || eventLatitude > maxLatitude || eventLongitude < minLongitude
+                    || eventLongitude > maxLongitude)) {
+                continue;
+            }
+            if (!Double.isNaN(maxRadiusKm) && (Double.isNaN(eventLatitude)
+                    || EarthquakeSpatialIndex.distanceKm(latitude, longitude, eventLatitude,
+                            eventLongitude) > maxRadiusKm)) {
+                continue;
+            }
+            matches.add(event);
+        }
+
+        final Comparator<Earthquake> order =
+                EarthquakeDeltaSync.comparatorFor(query.get("orderby"));
+        Collections.sort(matches, new Comparator<RecordedEvent>() {
+            @Override
+            public int compare(RecordedEvent a, RecordedEvent b) {
+                return order.compare(a.mEarthquake, b.mEarthquake);
+            }
+        });
+
+        //USGS "offset" is 1-based
+        int offset = Math.max(1, (int) parseDouble(query.get("offset"), 1)) - 1;
+        int limit = (int) parseDouble(query.get("limit"), DEFAULT_LIMIT);
+        int end = (int) Math.min(matches.size(), (long) offset + limit);
+        List<RecordedEvent> page = offset < end
+                ? matches.subList(offset, end) : Collections.<RecordedEvent>emptyList();
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"status\":200,\"count\":")
+                .append(page.size()).append("},\"features\":[");
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(page.get(i).mFeature);
+        }
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /** Read every recording in directory, keeping the latest update of each event */
+    static List<RecordedEvent> readRecordings(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("No recordings in " + directory);
+        }
+        Map<String, RecordedEvent> eventsByKey = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".geojson") && !name.endsWith(".json")) {
+                continue;
+            }
+            for (RecordedEvent event : new FeatureReader(readFile(file)).read()) {
+                Earthquake earthquake = event.mEarthquake;
+                String key = earthquake.getId() != null
+                        ? earthquake.getId() : earthquake.getUrl();
+                RecordedEvent held = eventsByKey.get(key);
+                if (held == null || held.mEarthquake.getUpdatedInMilliseconds()
+                        < earthquake.getUpdatedInMilliseconds()) {
+                    eventsByKey.put(key, event);
+                }
+            }
+        }
+        return new ArrayList<>(eventsByKey.values());
+    }
+
+    private static Map<String, String> parseQuery(URI uri) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = uri.getRawQuery();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                String name = URLDecoder.decode(parameter.substring(0, separator), "UTF-8");
+                if (!query.containsKey(name)) {
+                    query.put(name,
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static double parseDouble(String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying");
+        }
+    }
+
+    /**
+     * Serve the recordings in the directory named by the first argument until killed, see the
+     * class comment for the other arguments.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayServer directory [port] [latency=ms]"
+                    + " [bandwidth=bytes per second] [error=response code] [every=n]");
+            System.exit(2);
+        }
+        Builder builder = new Builder(new File(args[0]));
+        int port = DEFAULT_PORT;
+        int errorCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        int errorEvery = 0;
+        for (int i = 1; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            String name = separator < 0 ? "port" : args[i].substring(0, separator);
+            long value = Long.parseLong(args[i].substring(separator + 1));
+            if ("port".equals(name)) {
+                port = (int) value;
+            } else if ("latency".equals(name)) {
+                builder.setLatencyMillis(value);
+            } else if ("bandwidth".equals(name)) {
+                builder.setBandwidth(value);
+            } else if ("error".equals(name)) {
+                errorCode = (int) value;
+            } else if ("every".equals(name)) {
+                errorEvery = (int) value;
+            }
+        }
+        //Every interface, so an emulator can reach it at 10.0.2.2
+        ReplayServer server = builder.setErrors(errorCode, errorEvery)
+                .start(new InetSocketAddress(port));
+        System.out.println("Serving " + server.mEvents.size() + " events on port " + port);
+    }
+
+    /** One recorded event, parsed for filtering and kept as JSON for serving */
+    static class RecordedEvent {
+
+        final Earthquake mEarthquake;
+        final String mFeature;
+
+        RecordedEvent(Earthquake earthquake, String feature) {
+            mEarthquake = earthquake;
+            mFeature = feature;
+        }
+    }
+
+    /**
+     * Reads the features of a GeoJSON document, keeping each one's text as written. Only the
+     * JSON a USGS response uses is understood, objects are read into maps and arrays into lists.
+     */
+    static class FeatureReader {
+
+        private final String mText;
+        private int mPosition;
+
+        FeatureReader(String text) {
+            mText = text;
+        }
+
+        List<RecordedEvent> read() throws IOException {
+            List<RecordedEvent> events = new ArrayList<>();
+            expect('{');
+            if (peek() == '}') {
+                return events;
+            }
+            do {
+                String key = readString();
+                expect(':');
+                if (!"features".equals(key)) {
+                    readValue();
+                    continue;
+                }
+                expect('[');
+                if (peek() == ']') {
+                    mPosition++;
+                    continue;
+                }
+                do {
+                    skipWhitespace();
+                    int start = mPosition;
+                    Object feature = readValue();
+                    events.add(new RecordedEvent(toEarthquake(feature),
+                            mText.substring(start, mPosition)));
+                } while (next(',', ']'));
+            } while (next(',', '}'));
+            return events;
+        }
+
+        private static Earthquake toEarthquake(Object feature) throws IOException {
+            if (!(feature instanceof Map)) {
+                throw new IOException("Feature is not an object");
+            }
+            Map<?, ?> map = (Map<?, ?>) feature;
+            Map<?, ?> properties = map.get("properties") instanceof Map
+                    ? (Map<?, ?>) map.get("properties") : Collections.emptyMap();
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            double depth = Double.NaN;
+            if (map.get("geometry") instanceof Map) {
+                Object coordinates = ((Map<?, ?>) map.get("geometry")).get("coordinates");
+                if (coordinates instanceof List && ((List<?>) coordinates).size() >= 3) {
+                    List<?> values = (List<?>) coordinates;
+                    longitude = number(values.get(0), Double.NaN);
+                    latitude = number(values.get(1), Double.NaN);
+                    depth = number(values.get(2), Double.NaN);
+                }
+            }
+            long time = (long) number(properties.get("time"), 0);
+            return new Earthquake((String) map.get("id"), number(properties.get("mag"), 0),
+                    (String) properties.get("place"), time,
+                    (long) number(properties.get("updated"), time),
+                    (String) properties.get("url"), latitude, longitude, depth);
+        }
+
+        private static double number(Object value, double defaultValue) {
+            return value instanceof Double ? (Double) value : defaultValue;
+        }
+
+        private Object readValue() throws IOException {
+            char c = peek();
+            if (c == '{') {
+                mPosition++;
+                Map<String, Object> object = new LinkedHashMap<>();
+                if (peek() == '}') {
+                    mPosition++;
+                    return object;
+                }
+                do {
+                    String key = readString();
+                    expect(':');
+                    object.put(key, readValue());
+                } while (next(',', '}'));
+                return object;
+            }
+            if (c == '[') {
+                mPosition++;
+                List<Object> array = new ArrayList<>();
+                if (peek() == ']') {
+                    mPosition++;
+                    return array;
+                }
+                do {
+                    array.add(readValue());
+                } while (next(',', ']'));
+                return array;
+            }
+            if (c == '"') {
+                return readString();
+            }
+            if (mText.startsWith("true", mPosition)) {
+                mPosition += 4;
+                return Boolean.TRUE;
+            }
+            if (mText.startsWith("false", mPosition)) {
+                mPosition += 5;
+                return Boolean.FALSE;
+            }
+            if (mText.startsWith("null", mPosition)) {
+                mPosition += 4;
+                return null;
+            }
+            int start = mPosition;
+            while (mPosition < mText.length()
+                    && "+-0123456789.eE".indexOf(mText.charAt(mPosition)) >= 0) {
+                mPosition++;
+            }
+            try {
+                return Double.parseDouble(mText.substring(start, mPosition));
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected value at " + start);
+            }
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (mPosition < mText.length()) {
+                char c = mText.charAt(mPosition++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (mPosition >= mText.length()) {
+                    break;
+                }
+                char escaped = mText.charAt(mPosition++);
+                switch (escaped) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (mPosition + 4 > mText.length()) {
+                            throw new IOException("Truncated escape at " + mPosition);
+                        }
+                        value.append((char) Integer.parseInt(
+                                mText.substring(mPosition, mPosition + 4), 16));
+                        mPosition += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            throw new IOException("Unterminated string");
+        }
+
+        /** Consume a separator or the closing character, returning true for the separator */
+        private boolean next(char separator, char close) throws IOException {
+            char c = peek();
+            mPosition++;
+            if (c == separator) {
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+            throw new IOException("Expected '" + separator + "' or '" + close + "' at "
+                    + (mPosition - 1));
+        }
+
+        private void expect(char expected) throws IOException {
+            if (peek() != expected) {
+                throw new IOException("Expected '" + expected + "' at " + mPosition);
+            }
+            mPosition++;
+        }
+
+        private char peek() throws IOException {
+            skipWhitespace();
+            if (mPosition >= mText.length()) {
+                throw new IOException("Unexpected end of document");
+            }
+            return mText.charAt(mPosition);
+        }
+
+        private void skipWhitespace() {
+            while (mPosition < mText.length() && Character.isWhitespace(mText.charAt(mPosition))) {
+                mPosition++;
+            }
+        }
+    }
+
+    /** Builds a {@link ReplayServer} for a directory of recordings, without faults by default */
+    public static final class Builder {
+
+        private final File mDirectory;
+        private long mLatencyMillis;
+        private long mBytesPerSecond;
+        private int mErrorCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        private int mErrorEvery;
+
+        public Builder(File directory) {
+            mDirectory = directory;
+        }
+
+        /** Wait this long before answering each request */
+        public Builder setLatencyMillis(long latencyMillis) {
+            mLatencyMillis = latencyMillis;
+            return this;
+        }
+
+        /** Send response bodies at no more than this many bytes per second, 0 for no limit */
+        public Builder setBandwidth(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /** Answer every nth request with responseCode instead, 0 for never */
+        public Builder setErrors(int responseCode, int every) {
+            mErrorCode = responseCode;
+            mErrorEvery = every;
+            return this;
+        }
+
+        /** Read the recordings and start answering on a free port of the loopback address */
+        public ReplayServer start() throws IOException {
+            return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        }
+
+        public ReplayServer start(InetSocketAddress address) throws IOException {
+            return new ReplayServer(this, address);
+        }
+    }
+}
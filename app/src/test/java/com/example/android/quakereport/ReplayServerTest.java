@@ -0,0 +1,218 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link UrlConnectionTransport} against a {@link ReplayServer} serving recordings
+ * written to a temporary directory.
+ */
+public class ReplayServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static {
+        //See UrlConnectionTransportTest
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private File mDirectory;
+    private ReplayServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("recordings", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        //Two recordings, the second holding a later update of "b"
+        write("first.geojson", feature("a", 4.5, 1000, 1000, 35, 139)
+                + "," + feature("b", 6.1, 2000, 2000, -20, 178)
+                + "," + feature("c", 2.0, 3000, 3000, 37, -122));
+        write("second.json", feature("b", 6.3, 2000, 5000, -20, 178)
+                + "," + feature("d", 5.2, 4000, 4000, 36, 140));
+        write("notes.txt", "not a recording");
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.stop();
+        }
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    private void write(String name, String features) throws IOException {
+        OutputStream out = new FileOutputStream(new File(mDirectory, name));
+        try {
+            out.write(("{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":2},"
+                    + "\"features\":[" + features + "],\"bbox\":[-180,-90,0,180,90,700]}")
+                    .getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String feature(String id, double magnitude, long time, long updated,
+                                  double latitude, double longitude) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%s,"
+                        + "\"place\":\"Place \\\"%s\\\" \\u00e9\",\"time\":%d,\"updated\":%d,"
+                        + "\"url\":\"https://example.com/%s\",\"tsunami\":0,\"alert\":null},"
+                        + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[%s,%s,10.5]},"
+                        + "\"id\":\"%s\"}",
+                magnitude, id, time, updated, id, longitude, latitude, id);
+    }
+
+    /** Request path and query from the server, returning the ids of the events it answered */
+    private List<String> ids(String pathAndQuery) throws IOException {
+        HttpTransport.Response response =
+                new UrlConnectionTransport().get(mServer.getBaseUrl() + pathAndQuery, null);
+        try {
+            assertEquals(200, response.getResponseCode());
+            List<String> ids = new ArrayList<>();
+            String body = new String(readFully(response.getBody()), UTF_8);
+            for (ReplayServer.RecordedEvent event : new ReplayServer.FeatureReader(body).read()) {
+                ids.add(event.mEarthquake.getId());
+            }
+            return ids;
+        } finally {
+            response.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void readRecordings_keepsLatestUpdateOfEachEvent() throws IOException {
+        List<ReplayServer.RecordedEvent> events =
+                ReplayServer.readRecordings(mDirectory);
+
+        assertEquals(4, events.size());
+        for (ReplayServer.RecordedEvent event : events) {
+            Earthquake earthquake = event.mEarthquake;
+            if ("b".equals(earthquake.getId())) {
+                assertEquals(6.3, earthquake.getMagnitude(), 0);
+                assertEquals(5000, earthquake.getUpdatedInMilliseconds());
+                assertEquals(-20, earthquake.getLatitude(), 0);
+                assertEquals(178, earthquake.getLongitude(), 0);
+                assertEquals("Place \"b\" \u00e9", earthquake.getLocation());
+            }
+        }
+    }
+
+    @Test
+    public void get_filtersSortsAndPagesLikeUsgs() throws IOException {
+        mServer = new ReplayServer.Builder(mDirectory).start();
+        String query = "/fdsnws/event/1/query?format=geojson";
+
+        assertEquals(Arrays.asList("d", "c", "b", "a"), ids(query));
+        assertEquals(Arrays.asList("b", "d", "a"), ids(query + "&minmag=4&orderby=magnitude"));
+        assertEquals(Arrays.asList("a", "b"),
+                ids(query + "&minmagnitude=4&orderby=time-asc&limit=2"));
+        assertEquals(Arrays.asList("b", "d"),
+                ids(query + "&minmagnitude=4&orderby=time-asc&limit=2&offset=2"));
+        assertEquals(Arrays.asList("c", "a"),
+                ids(query + "&orderby=magnitude-asc&maxmagnitude=5"));
+        //Time window and updates since, as the app writes them
+        assertEquals(Arrays.asList("c", "b"), ids(query + "&starttime="
+                + EarthquakeDeltaSync.formatUsgsTime(2000) + "&endtime="
+                + EarthquakeDeltaSync.formatUsgsTime(3000)));
+        assertEquals(Arrays.asList("d", "b"),
+                ids(query + "&updatedafter=" + EarthquakeDeltaSync.formatUsgsTime(3000)));
+        //Around Japan, by bounding box and by radius
+        assertEquals(Arrays.asList("d", "a"), ids(query
+                + "&minlatitude=30&maxlatitude=40&minlongitude=130&maxlongitude=145"));
+        assertEquals(Arrays.asList("d", "a"),
+                ids(query + "&latitude=35.5&longitude=139.5&maxradiuskm=200"));
+    }
+
+    @Test
+    public void get_answersNotModifiedForCurrentETag() throws IOException {
+        mServer = new ReplayServer.Builder(mDirectory).start();
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        String url = mServer.getBaseUrl() + "/query?minmag=5";
+
+        HttpTransport.Response first = transport.get(url, null);
+        String eTag;
+        try {
+            readFully(first.getBody());
+            eTag = first.getHeaderField("ETag");
+        } finally {
+            first.close();
+        }
+        HttpTransport.Response second =
+                transport.get(url, Collections.singletonMap("If-None-Match", eTag));
+        try {
+            assertEquals(304, second.getResponseCode());
+        } finally {
+            second.close();
+        }
+        HttpTransport.Response other =
+                transport.get(mServer.getBaseUrl() + "/query?minmag=6",
+                        Collections.singletonMap("If-None-Match", eTag));
+        try {
+            assertEquals(200, other.getResponseCode());
+            readFully(other.getBody());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void get_injectsErrorsLatencyAndBandwidth() throws IOException {
+        mServer = new ReplayServer.Builder(mDirectory)
+                .setLatencyMillis(50)
+                .setBandwidth(2000)
+                .setErrors(503, 3)
+                .start();
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        int[] codes = new int[6];
+        long bodyBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < codes.length; i++) {
+            HttpTransport.Response response = transport.get(mServer.getBaseUrl() + "/query",
+                    null);
+            try {
+                codes[i] = response.getResponseCode();
+                if (codes[i] == 200) {
+                    bodyBytes += readFully(response.getBody()).length;
+                }
+            } finally {
+                response.close();
+            }
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(Arrays.equals(new int[]{200, 200, 503, 200, 200, 503}, codes));
+        assertEquals(6, mServer.getRequestCount());
+        //Six times the latency, and the four bodies at 2 kB per second
+        assertTrue("took " + elapsedMillis + " ms",
+                elapsedMillis >= 6 * 50 + bodyBytes * 1000 / 2000);
+    }
+}
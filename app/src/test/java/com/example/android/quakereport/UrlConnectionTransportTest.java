@@ -0,0 +1,270 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link UrlConnectionTransport} against a local stub HTTP server that counts the body
+ * bytes it puts on the wire and the connections it is asked on.
+ */
+public class UrlConnectionTransportTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static {
+        //Otherwise the stub's separate header and body writes wait on delayed ACKs, adding
+        //~40 ms to every request on a reused connection
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private HttpServer mServer;
+    private String mBaseUrl;
+    private byte[] mFeed;
+    private byte[] mGzippedFeed;
+    private final AtomicLong mBytesSent = new AtomicLong();
+    //Client address and port of every request, one per connection used
+    private final Set<String> mConnections = Collections.synchronizedSet(new HashSet<String>());
+
+    @Before
+    public void setUp() throws IOException {
+        UrlConnectionTransport.setMaxIdleConnections(
+                UrlConnectionTransport.DEFAULT_MAX_IDLE_CONNECTIONS);
+        mFeed = sampleFeed(500);
+        //Compressed once so the measurement is of the transport, not the stub
+        mGzippedFeed = gzip(mFeed);
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/feed", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = mFeed;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    body = mGzippedFeed;
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                respond(exchange, 200, body);
+            }
+        });
+        mServer.createContext("/error", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 500, "{\"error\":\"stub failure\"}".getBytes(UTF_8));
+            }
+        });
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void get_decodesGzipBodyAndSendsFewerBytes() throws IOException {
+        HttpTransport.Response response =
+                new UrlConnectionTransport().get(mBaseUrl + "/feed", null);
+        byte[] body;
+        try {
+            assertEquals(200, response.getResponseCode());
+            body = readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertArrayEquals(mFeed, body);
+        assertTrue(mBytesSent.get() < mFeed.length / 4);
+    }
+
+    @Test
+    public void get_sendsExtraHeaders() throws IOException {
+        final String[] ifNoneMatch = new String[1];
+        mServer.createContext("/etag", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ifNoneMatch[0] = exchange.getRequestHeaders().getFirst("If-None-Match");
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            }
+        });
+
+        HttpTransport.Response response = new UrlConnectionTransport().get(mBaseUrl + "/etag",
+                Collections.singletonMap("If-None-Match", "\"abc\""));
+        try {
+            assertEquals(304, response.getResponseCode());
+        } finally {
+            response.close();
+        }
+
+        assertEquals("\"abc\"", ifNoneMatch[0]);
+    }
+
+    @Test
+    public void close_returnsConnectionForReuse() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        for (int i = 0; i < 5; i++) {
+            HttpTransport.Response response = transport.get(mBaseUrl + "/feed", null);
+            try {
+                readFully(response.getBody());
+            } finally {
+                response.close();
+            }
+        }
+
+        assertEquals(1, mConnections.size());
+    }
+
+    @Test
+    public void close_drainsUnreadBodiesSoConnectionIsReused() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        //Neither body is read by the caller
+        HttpTransport.Response error = transport.get(mBaseUrl + "/error", null);
+        assertEquals(500, error.getResponseCode());
+        error.close();
+        HttpTransport.Response unread = transport.get(mBaseUrl + "/feed", null);
+        unread.getBody().read();
+        unread.close();
+        HttpTransport.Response response = transport.get(mBaseUrl + "/feed", null);
+        try {
+            assertArrayEquals(mFeed, readFully(response.getBody()));
+        } finally {
+            response.close();
+        }
+
+        assertEquals(1, mConnections.size());
+    }
+
+    @Test
+    public void abort_dropsConnection() throws IOException {
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        HttpTransport.Response aborted = transport.get(mBaseUrl + "/feed", null);
+        aborted.getBody().read();
+        aborted.abort();
+        HttpTransport.Response response = transport.get(mBaseUrl + "/feed", null);
+        try {
+            readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertEquals(2, mConnections.size());
+    }
+
+    /**
+     * Compare a connection per request without compression, the way requests were made before
+     * the transport, with the transport, by the connections and bytes the server sees.
+     */
+    @Test
+    public void transport_reusesConnectionAndCompressedAgainstConnectionPerRequest()
+            throws IOException {
+        int requests = 20;
+        for (int i = 0; i < requests; i++) {
+            fetchWithConnectionPerRequest();
+        }
+        long beforeBytes = mBytesSent.getAndSet(0);
+        int beforeConnections = mConnections.size();
+        mConnections.clear();
+
+        UrlConnectionTransport transport = new UrlConnectionTransport();
+        for (int i = 0; i < requests; i++) {
+            readThroughTransport(transport);
+        }
+        long afterBytes = mBytesSent.get();
+        int afterConnections = mConnections.size();
+
+        assertEquals(requests, beforeConnections);
+        assertEquals(1, afterConnections);
+        assertTrue(afterBytes < beforeBytes / 4);
+    }
+
+    private void fetchWithConnectionPerRequest() throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mBaseUrl + "/feed").openConnection();
+        try {
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            readFully(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void readThroughTransport(UrlConnectionTransport transport) throws IOException {
+        HttpTransport.Response response = transport.get(mBaseUrl + "/feed", null);
+        try {
+            readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        mConnections.add(exchange.getRemoteAddress().toString());
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+        mBytesSent.addAndGet(body.length);
+    }
+
+    /** Return a GeoJSON feed of count made up events */
+    private static byte[] sampleFeed(int count) {
+        StringBuilder feed = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                feed.append(',');
+            }
+            feed.append(String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{"
+                            + "\"mag\":%.1f,\"place\":\"%d km NNE of Neiafu, Tonga\","
+                            + "\"time\":%d,\"updated\":%d,"
+                            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us%d\""
+                            + "},\"geometry\":{\"type\":\"Point\","
+                            + "\"coordinates\":[-173.%d,-17.%d,10]},\"id\":\"us%d\"}",
+                    2 + (i % 50) / 10.0, i % 300, 1500000000000L - i * 60000L,
+                    1500000600000L - i * 60000L, i, i % 1000, i % 997, i));
+        }
+        return feed.append("]}").toString().getBytes(UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}